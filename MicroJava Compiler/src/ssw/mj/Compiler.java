@@ -9,8 +9,12 @@ import java.io.*;
  * <code>Compiler</code> is the driver for the MicroJava-Compiler.
  * <p>
  * Execute<br>
- * <code>java ssw.mj.Compiler &lt;<i>MJ-Source-Filename</i>&gt;</code><br>
- * to start compilation.
+ * <code>java ssw.mj.Compiler &lt;<i>MJ-Source-Filename</i>&gt; [-profile
+ * &lt;<i>Profile-Filename</i>&gt;]</code><br>
+ * to start compilation. The profile is written by
+ * <code>java ssw.mj.Run &lt;<i>Obj-Filename</i>&gt; -profile
+ * &lt;<i>Profile-Filename</i>&gt;</code> for the object file compiled
+ * without a profile and guides the optimizer.
  */
 public class Compiler {
 
@@ -24,21 +28,29 @@ public class Compiler {
 
     public static void main(String[] args) {
         // --- get the filename
-        if (args.length != 1) {
-            System.out.println("usage: java Compiler filename.mj");
+        if (args.length != 1 && (args.length != 3 || !args[1].equals("-profile"))) {
+            System.out.println("usage: java Compiler filename.mj [-profile filename]");
             return;
         }
         String inFilename = args[0];
         String outFilename = objFileName(inFilename);
 
         try {
-            ScannerImpl scanner = new ScannerImpl(new BufferedReader(new FileReader(inFilename)));
+            ScannerImpl scanner = new ScannerImpl(new File(inFilename));
 
             System.out.println("-----------------------------------");
             System.out.println("Parsing file " + inFilename);
 
-            ParserImpl parser = new ParserImpl(scanner);
+            ParserImpl parser = ParserImpl.forSource(scanner);
+            if (args.length == 3) {
+                try (Reader r = new FileReader(args[2])) {
+                    parser.profile = Profile.read(r);
+                }
+            }
             parser.parse();
+            if (scanner.errors.numWarnings() > 0) {
+                System.out.print(scanner.errors.dumpWarnings());
+            }
             if (scanner.errors.numErrors() == 0) {
                 parser.code.write(new BufferedOutputStream(new FileOutputStream(outFilename)));
             }
@@ -79,7 +79,10 @@ public class Errors {
         // ----- error messages for Code
         NO_VAL("value expected"),
         NO_VAR("left-hand side of assignment must be a variable"),
-        OBJ_FILE("cannot write object file");
+        OBJ_FILE("cannot write object file"),
+
+        // ----- warnings
+        PROFILE_MISMATCH("profile does not fit the program and was ignored");
         // @formatter:on
 
         private final String msg;
@@ -96,23 +99,92 @@ public class Errors {
         }
     }
 
+    /**
+     * An error message with its position in the source.
+     */
+    public static final class Entry {
+        public final int line, col;
+        public final String text;
+
+        Entry(int line, int col, String text) {
+            this.line = line;
+            this.col = col;
+            this.text = text;
+        }
+
+        /**
+         * Returns this message with its line number moved by
+         * <code>lines</code> and, if it is in line <code>line</code>, its
+         * column moved by <code>cols</code>, e.g. for a source in which text
+         * was inserted in front of the error.
+         */
+        public Entry move(int line, int lines, int cols) {
+            return new Entry(this.line + lines, this.line == line ? col + cols : col, text);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry e = (Entry) o;
+            return line == e.line && col == e.col && text.equals(e.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return (line * 31 + col) * 31 + text.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "-- line " + line + " col " + col + ": " + text;
+        }
+    }
+
     /**
      * List of error messages.
      */
-    private final List<String> errors;
+    private final List<Entry> errors;
+    /**
+     * List of warnings, which do not stop the compilation.
+     */
+    private final List<String> warnings;
 
     /**
      * Initialization (must be called before compilation).
      */
     public Errors() {
         errors = new ArrayList<>();
+        warnings = new ArrayList<>();
     }
 
     /**
      * Add a new error message to the list of errors.
      */
     public void error(int line, int col, Message msg, Object... msgParams) {
-        errors.add("-- line " + line + " col " + col + ": " + msg.format(msgParams));
+        errors.add(new Entry(line, col, msg.format(msgParams)));
+    }
+
+    /**
+     * Add a new warning, which has no position in the source.
+     */
+    public void warning(Message msg, Object... msgParams) {
+        warnings.add("-- warning: " + msg.format(msgParams));
+    }
+
+    /**
+     * Returns the number of warnings.
+     */
+    public int numWarnings() {
+        return warnings.size();
+    }
+
+    /**
+     * Returns warning <code>i</code> (as in <code>dumpWarnings</code>).
+     */
+    public String warning(int i) {
+        return warnings.get(i);
     }
 
     /**
@@ -122,14 +194,47 @@ public class Errors {
         return errors.size();
     }
 
+    /**
+     * Returns error message <code>i</code> (as in <code>dump</code>).
+     */
+    public String message(int i) {
+        return errors.get(i).toString();
+    }
+
+    /**
+     * Returns error message <code>i</code> with its position.
+     */
+    public Entry entry(int i) {
+        return errors.get(i);
+    }
+
+    /**
+     * Adds an error message returned by <code>entry</code> again, e.g. for
+     * another compilation of the same source.
+     */
+    public void add(Entry entry) {
+        errors.add(entry);
+    }
+
     /**
      * String representation for JUnit test cases.
      */
     public String dump() {
         StringBuilder sb = new StringBuilder();
-        for (String error : errors) {
+        for (Entry error : errors) {
             sb.append(error).append("\n");
         }
         return sb.toString();
     }
+
+    /**
+     * String representation of the warnings.
+     */
+    public String dumpWarnings() {
+        StringBuilder sb = new StringBuilder();
+        for (String warning : warnings) {
+            sb.append(warning).append("\n");
+        }
+        return sb.toString();
+    }
 }
@@ -10,6 +10,7 @@ import ssw.mj.codegen.Code;
 import ssw.mj.codegen.Code.OpCode;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 public class Interpreter {
 
@@ -22,10 +23,16 @@ public class Interpreter {
     private int startPC; // address of main() method
     private int pc; // program counter
     private int fp, sp; // frame pointer, stack pointer on method stack
+    private boolean wide; // current instruction has a wide prefix
     private int esp; // expression stack pointer
     private int free; // next free heap address
+    private Profile profile; // execution counts, null if not profiling
     private static final int heapSize = 100000, // size of the heap in words
-            mStackSize = 4000, // size of the method stack in words
+            mStackSize = 4000, // initial size of the method stack in words
+            // the method stack grows up to this size, so that a frame with
+            // the most locals (and the saved frame pointer) fits on top of a
+            // full initial stack
+            maxMStackSize = mStackSize + Parser.MAX_LOCALS + 1,
             eStackSize = 30; // size of the expression stack in words
 
     private void write(String s, int len) {
@@ -113,6 +120,14 @@ public class Interpreter {
         free = 1; // no block should start at address 0
     }
 
+    /**
+     * Records an execution profile of the following run and returns it.
+     */
+    public Profile startProfile() {
+        profile = new Profile(code.length);
+        return profile;
+    }
+
     // ----- expression stack
     private void push(int val) throws IllegalStateException {
         if (esp == eStackSize) {
@@ -130,12 +145,22 @@ public class Interpreter {
 
     // ----- method stack
     private void PUSH(int val) throws IllegalStateException {
-        if (sp == mStackSize) {
-            throw new IllegalStateException("method stack overflow");
+        if (sp == local.length) {
+            growMStack(sp + 1);
         }
         local[sp++] = val;
     }
 
+    /**
+     * Grows the method stack to at least <code>size</code> words.
+     */
+    private void growMStack(int size) throws IllegalStateException {
+        if (size > maxMStackSize) {
+            throw new IllegalStateException("method stack overflow");
+        }
+        local = Arrays.copyOf(local, Math.min(Math.max(2 * local.length, size), maxMStackSize));
+    }
+
     private int POP() throws IllegalStateException {
         if (sp == 0) {
             throw new IllegalStateException("method stack underflow");
@@ -165,6 +190,20 @@ public class Interpreter {
         return next4(true);
     }
 
+    // operands of an instruction with a wide prefix are twice as long
+    private int nextB() {
+        return wide ? next2(true) : next(true);
+    }
+
+    private int nextS() {
+        return wide ? next4() : next2(true);
+    }
+
+    // jump distance of a short (8 bit) or normal (16 bit, 32 bit if wide) jump
+    private int nextDist(Code.OpCode op) {
+        return op.longForm() != op ? next(true) : nextS();
+    }
+
     private int next4(boolean dbgPrint) {
         int n = (next2(false) << 16) + (next2(false) & 0xffff);
         if (debug && dbgPrint) {
@@ -203,6 +242,188 @@ public class Interpreter {
         return (val & mask) ^ by;
     }
 
+    /**
+     * Checks that the array at <code>adr</code> is not null and that its
+     * elements <code>pos</code> to <code>pos + n - 1</code> exist.
+     */
+    private void checkRange(int adr, int pos, int n) {
+        if (adr == 0) {
+            throw new IllegalStateException("null reference used");
+        }
+        if (pos < 0 || n < 0 || pos > heap[adr - 1] - n) {
+            throw new IllegalStateException("index out of bounds");
+        }
+    }
+
+    /**
+     * Copies <code>n</code> elements of array <code>src</code> starting at
+     * <code>srcPos</code> to array <code>dst</code> starting at
+     * <code>dstPos</code>. Overlapping ranges are copied as if through a
+     * temporary array. Char arrays with the same alignment of both ranges
+     * are copied word by word.
+     */
+    private void arraycopy(boolean bytes, int src, int srcPos, int dst, int dstPos, int n) {
+        checkRange(src, srcPos, n);
+        checkRange(dst, dstPos, n);
+        if (!bytes) {
+            System.arraycopy(heap, src + srcPos, heap, dst + dstPos, n);
+            return;
+        }
+        if (srcPos % 4 != dstPos % 4) {
+            copyBytes(src, srcPos, dst, dstPos, n);
+            return;
+        }
+        // same alignment: the bytes up to the first word boundary, the
+        // whole words and the remaining bytes
+        int head = Math.min(n, (4 - srcPos % 4) % 4);
+        int words = (n - head) / 4;
+        int tail = n - head - words * 4;
+        if (src == dst && dstPos > srcPos) {
+            // overlap with the destination behind the source: back to front
+            copyBytes(src, srcPos + head + words * 4, dst, dstPos + head + words * 4, tail);
+            System.arraycopy(heap, src + (srcPos + head) / 4, heap, dst + (dstPos + head) / 4, words);
+            copyBytes(src, srcPos, dst, dstPos, head);
+        } else {
+            copyBytes(src, srcPos, dst, dstPos, head);
+            System.arraycopy(heap, src + (srcPos + head) / 4, heap, dst + (dstPos + head) / 4, words);
+            copyBytes(src, srcPos + head + words * 4, dst, dstPos + head + words * 4, tail);
+        }
+    }
+
+    /**
+     * Copies <code>n</code> bytes one by one, back to front if the
+     * destination range starts behind an overlapping source range.
+     */
+    private void copyBytes(int src, int srcPos, int dst, int dstPos, int n) {
+        if (src == dst && dstPos > srcPos) {
+            for (int k = n - 1; k >= 0; k--) {
+                int from = srcPos + k, to = dstPos + k;
+                heap[dst + to / 4] = setByte(heap[dst + to / 4], to % 4, getByte(heap[src + from / 4], from % 4));
+            }
+        } else {
+            for (int k = 0; k < n; k++) {
+                int from = srcPos + k, to = dstPos + k;
+                heap[dst + to / 4] = setByte(heap[dst + to / 4], to % 4, getByte(heap[src + from / 4], from % 4));
+            }
+        }
+    }
+
+    /**
+     * Sets the elements <code>from</code> to <code>to - 1</code> of the
+     * array at <code>adr</code> to <code>val</code>.
+     */
+    private void fill(boolean bytes, int adr, int from, int to, int val) {
+        checkRange(adr, from, to - from);
+        if (!bytes) {
+            Arrays.fill(heap, adr + from, adr + to, val);
+            return;
+        }
+        int idx = from;
+        for (; idx < to && idx % 4 != 0; idx++) {
+            heap[adr + idx / 4] = setByte(heap[adr + idx / 4], idx % 4, (byte) val);
+        }
+        int words = (to - idx) / 4;
+        Arrays.fill(heap, adr + idx / 4, adr + idx / 4 + words, (val & 255) * 0x01010101);
+        for (idx += words * 4; idx < to; idx++) {
+            heap[adr + idx / 4] = setByte(heap[adr + idx / 4], idx % 4, (byte) val);
+        }
+    }
+
+    /**
+     * First index from <code>from</code> to <code>to - 1</code> at which an
+     * access of the array at <code>adr</code> fails, <code>to</code> if all
+     * these elements exist.
+     */
+    private int firstInvalid(int adr, int from, int to) {
+        if (adr == 0 || from < 0) {
+            return from;
+        }
+        return Math.max(from, Math.min(to, heap[adr - 1]));
+    }
+
+    /**
+     * The error of a failed access of the array at <code>adr</code>.
+     */
+    private static IllegalStateException accessError(int adr) {
+        return new IllegalStateException(adr == 0 ? "null reference used" : "index out of bounds");
+    }
+
+    /**
+     * <code>while (i &lt; to) { a[i] = val; i++; }</code> for
+     * <code>i = from</code>, returns the final value of <code>i</code>.
+     */
+    private int fillRange(boolean bytes, int a, int from, int to, int val) {
+        if (from >= to) {
+            return from;
+        }
+        int end = firstInvalid(a, from, to);
+        fill(bytes, a, from, end, val);
+        if (end < to) {
+            throw accessError(a);
+        }
+        return to;
+    }
+
+    /**
+     * <code>while (i &lt; to) { b[i] = a[i]; i++; }</code> for
+     * <code>i = from</code>, returns the final value of <code>i</code>.
+     */
+    private int copyRange(boolean bytes, int b, int a, int from, int to) {
+        if (from >= to) {
+            return from;
+        }
+        // a[i] is loaded before b[i] is accessed
+        int endA = firstInvalid(a, from, to);
+        int endB = firstInvalid(b, from, to);
+        int end = Math.min(endA, endB);
+        arraycopy(bytes, a, from, b, from, end - from);
+        if (end < to) {
+            throw accessError(endA <= endB ? a : b);
+        }
+        return to;
+    }
+
+    /**
+     * Sum of the elements <code>from</code> to <code>to - 1</code> of the int
+     * array <code>a</code>, fails like <code>s += a[i]</code> in a loop.
+     */
+    private int sumRange(int a, int from, int to) {
+        if (from < to && firstInvalid(a, from, to) < to) {
+            throw accessError(a);
+        }
+        int sum = 0;
+        for (int idx = from; idx < to; idx++) {
+            sum += heap[a + idx];
+        }
+        return sum;
+    }
+
+    /**
+     * True if the arrays <code>a</code> and <code>b</code> have the same
+     * length and elements or are both null.
+     */
+    private boolean equals(boolean bytes, int a, int b) {
+        if (a == 0 || b == 0) {
+            return a == b;
+        }
+        int len = heap[a - 1];
+        if (heap[b - 1] != len) {
+            return false;
+        }
+        if (!bytes) {
+            return Arrays.equals(heap, a, a + len, heap, b, b + len);
+        }
+        if (!Arrays.equals(heap, a, a + len / 4, heap, b, b + len / 4)) {
+            return false;
+        }
+        for (int idx = len / 4 * 4; idx < len; idx++) {
+            if (getByte(heap[a + idx / 4], idx % 4) != getByte(heap[b + idx / 4], idx % 4)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Read int from standard input stream
      */
@@ -224,11 +445,39 @@ public class Interpreter {
         return val;
     }
 
+    /**
+     * Evaluates compare operator number <code>cmp</code> (in the order of
+     * <code>Code.CompOp</code>) for <code>val</code> and <code>val2</code>.
+     */
+    private static boolean holds(int cmp, int val, int val2) {
+        switch (Code.CompOp.values()[cmp]) {
+            case eq:
+                return val == val2;
+            case ne:
+                return val != val2;
+            case lt:
+                return val < val2;
+            case le:
+                return val <= val2;
+            case gt:
+                return val > val2;
+            case ge:
+                return val >= val2;
+            default:
+                assert false;
+                return false;
+        }
+    }
+
     private void printInstr() {
         int op = code[pc - 1];
         OpCode opCode = Code.OpCode.get(op);
         String instr = (opCode != null) ? opCode.cleanName() : "???";
-        System.out.printf("%5d: %s ", pc - 1, instr);
+        if (wide) {
+            System.out.printf("%5d: wide %s ", pc - 2, instr);
+        } else {
+            System.out.printf("%5d: %s ", pc - 1, instr);
+        }
     }
 
     private void printStack() {
@@ -242,6 +491,7 @@ public class Interpreter {
     public void run() throws IllegalStateException {
         Code.OpCode op;
         int adr, val, val2, off, idx, len, i;
+        int start; // address of the current instruction (jump distances are relative to it)
         pc = startPC;
 
         if (debug) { // header for debug output
@@ -252,7 +502,15 @@ public class Interpreter {
         }
 
         for (; ; ) { // terminated by return instruction
+            start = pc;
+            if (profile != null) {
+                profile.counts[start]++;
+            }
             op = Code.OpCode.get(next(false));
+            wide = op == Code.OpCode.wide;
+            if (wide) {
+                op = Code.OpCode.get(next(false));
+            }
             if (debug) {
                 printInstr();
             }
@@ -261,7 +519,7 @@ public class Interpreter {
 
                 // load/store local variables
                 case load:
-                    push(local[fp + next(true)]);
+                    push(local[fp + nextB()]);
                     break;
                 case load_0:
                 case load_1:
@@ -273,7 +531,7 @@ public class Interpreter {
                     // 0..3
                     break;
                 case store:
-                    local[fp + next(true)] = pop();
+                    local[fp + nextB()] = pop();
                     break;
                 case store_0:
                 case store_1:
@@ -287,10 +545,10 @@ public class Interpreter {
 
                 // load/store global variables
                 case getstatic:
-                    push(data[next2(true)]);
+                    push(data[nextS()]);
                     break;
                 case putstatic:
-                    data[next2(true)] = pop();
+                    data[nextS()] = pop();
                     break;
 
                 // load/store object fields
@@ -299,7 +557,7 @@ public class Interpreter {
                     if (adr == 0) {
                         throw new IllegalStateException("null reference used");
                     }
-                    push(heap[adr + next2(true)]);
+                    push(heap[adr + nextS()]);
                     break;
                 case putfield:
                     val = pop();
@@ -307,7 +565,7 @@ public class Interpreter {
                     if (adr == 0) {
                         throw new IllegalStateException("null reference used");
                     }
-                    heap[adr + next2(true)] = val;
+                    heap[adr + nextS()] = val;
                     break;
 
                 // load constants
@@ -363,17 +621,44 @@ public class Interpreter {
                     push(pop() >> val);
                     break;
                 case inc:
-                    off = fp + next(true);
-                    local[off] += next(true);
+                    off = fp + nextB();
+                    local[off] += nextB();
+                    break;
+                case incstatic:
+                    adr = nextS();
+                    data[adr] += nextB();
+                    break;
+                case incfield:
+                    adr = pop();
+                    if (adr == 0) {
+                        throw new IllegalStateException("null reference used");
+                    }
+                    off = adr + nextS();
+                    heap[off] += nextB();
+                    break;
+
+                // arithmetic with immediate operands
+                case addi:
+                    push(pop() + next2(true));
+                    break;
+                case subi:
+                    push(pop() - next2(true));
+                    break;
+                case muli:
+                    push(pop() * next2(true));
                     break;
 
                 // object creation
                 case new_:
-                    push(alloc(next2(true) * 4));
+                    push(alloc(nextS() * 4));
                     break;
                 case newarray:
+                case newvararg:
                     val = next(true);
                     len = pop();
+                    if (op == OpCode.newvararg) {
+                        PUSH(free); // start of the array for freevararg
+                    }
                     if (val == 0) {
                         adr = alloc(len + 4);
                     } else {
@@ -381,6 +666,18 @@ public class Interpreter {
                     }
                     heap[adr] = len;
                     push(adr + 1); // skip length field of array
+                    if (op == OpCode.newvararg) {
+                        PUSH(free); // end of the array
+                    }
+                    break;
+                case freevararg:
+                    val = POP();
+                    adr = POP();
+                    // only the most recent allocation can be released
+                    if (free == val) {
+                        Arrays.fill(heap, adr, val, 0);
+                        free = adr;
+                    }
                     break;
 
                 // array access
@@ -449,6 +746,51 @@ public class Interpreter {
                     push(heap[adr - 1]);
                     break;
 
+                // bulk array operations
+                case arraycopy:
+                    val = next(true);
+                    len = pop();
+                    idx = pop();
+                    adr = pop();
+                    off = pop();
+                    val2 = pop();
+                    arraycopy(val == 0, val2, off, adr, idx, len);
+                    break;
+                case arrayfill:
+                    val = next(true);
+                    val2 = pop();
+                    adr = pop();
+                    checkRange(adr, 0, 0);
+                    fill(val == 0, adr, 0, heap[adr - 1], val2);
+                    break;
+                case arrayequals:
+                    val = next(true);
+                    val2 = pop();
+                    push(equals(val == 0, pop(), val2) ? 1 : 0);
+                    break;
+                case fillrange:
+                    val = next(true);
+                    val2 = pop();
+                    len = pop();
+                    idx = pop();
+                    push(fillRange(val == 0, pop(), idx, len, val2));
+                    break;
+                case copyrange:
+                    val = next(true);
+                    len = pop();
+                    idx = pop();
+                    adr = pop();
+                    push(copyRange(val == 0, pop(), adr, idx, len));
+                    break;
+                case sumrange:
+                    len = pop();
+                    idx = pop();
+                    adr = pop();
+                    val = pop();
+                    push(val + sumRange(adr, idx, len));
+                    push(Math.max(idx, len));
+                    break;
+
                 // stack manipulation
                 case pop:
                     pop();
@@ -469,8 +811,8 @@ public class Interpreter {
 
                 // jumps
                 case jmp:
-                    off = next2(true);
-                    pc += off - 3;
+                case jmp_s:
+                    pc = start + nextDist(op);
                     break;
 
                 case jeq:
@@ -479,42 +821,78 @@ public class Interpreter {
                 case jle:
                 case jgt:
                 case jge:
-                    off = next2(true);
+                case jeq_s:
+                case jne_s:
+                case jlt_s:
+                case jle_s:
+                case jgt_s:
+                case jge_s:
+                    off = nextDist(op);
                     val2 = pop();
                     val = pop();
-                    boolean cond = false;
-                    switch (op) {
-                        case jeq:
-                            cond = val == val2;
-                            break;
-                        case jne:
-                            cond = val != val2;
-                            break;
-                        case jlt:
-                            cond = val < val2;
-                            break;
-                        case jle:
-                            cond = val <= val2;
-                            break;
-                        case jgt:
-                            cond = val > val2;
-                            break;
-                        case jge:
-                            cond = val >= val2;
-                            break;
-                        default:
-                            assert false;
+                    if (holds(op.longForm().code() - Code.OpCode.jeq.code(), val, val2)) {
+                        pc = start + off;
+                        if (profile != null) {
+                            profile.taken[start]++;
+                        }
                     }
-                    if (cond) {
-                        pc += off - 3;
+                    break;
+
+                case jeqz:
+                case jnez:
+                case jltz:
+                case jlez:
+                case jgtz:
+                case jgez:
+                case jeqz_s:
+                case jnez_s:
+                case jltz_s:
+                case jlez_s:
+                case jgtz_s:
+                case jgez_s:
+                    off = nextDist(op);
+                    if (holds(op.longForm().code() - Code.OpCode.jeqz.code(), pop(), 0)) {
+                        pc = start + off;
+                        if (profile != null) {
+                            profile.taken[start]++;
+                        }
+                    }
+                    break;
+
+                case jeqi:
+                case jnei:
+                case jlti:
+                case jlei:
+                case jgti:
+                case jgei:
+                case jeqi_s:
+                case jnei_s:
+                case jlti_s:
+                case jlei_s:
+                case jgti_s:
+                case jgei_s:
+                    off = nextDist(op);
+                    val2 = nextS();
+                    if (holds(op.longForm().code() - Code.OpCode.jeqi.code(), pop(), val2)) {
+                        pc = start + off;
+                        if (profile != null) {
+                            profile.taken[start]++;
+                        }
                     }
                     break;
 
                 // method calls
                 case call:
-                    off = next2(true);
+                    off = nextS();
                     PUSH(pc);
-                    pc += off - 3;
+                    pc = start + off;
+                    break;
+
+                case tailcall: // call that reuses the frame of the current method
+                    off = nextS();
+                    sp = fp;
+                    fp = POP();
+                    pc = start + off;
                     break;
 
                 case return_:
@@ -524,17 +902,25 @@ public class Interpreter {
                     pc = POP();
                     break;
                 case enter:
-                    int psize = next(true);
-                    int lsize = next(true);
+                case enter_nc: // locals are written before they are read
+                    int psize = nextB();
+                    int lsize = nextB();
                     PUSH(fp);
                     fp = sp;
-                    for (i = 0; i < lsize; i++) {
-                        PUSH(0);
+                    if (fp + lsize > local.length) {
+                        growMStack(fp + lsize);
+                    }
+                    if (esp < psize) {
+                        throw new IllegalStateException("expression stack underflow");
                     }
-                    assert sp == (fp + lsize);
-                    for (i = psize - 1; i >= 0; i--) {
-                        local[fp + i] = pop();
+                    sp = fp + lsize;
+                    if (op == Code.OpCode.enter) {
+                        Arrays.fill(local, fp + psize, sp, 0);
                     }
+                    // the arguments are on top of the expression stack, the
+                    // last one on top
+                    esp -= psize;
+                    System.arraycopy(stack, esp, local, fp, psize);
                     break;
                 case exit:
                     sp = fp;
@@ -12,19 +12,22 @@ import static ssw.mj.Token.Kind.none;
 public abstract class Parser {
 
     /**
-     * Maximum number of global variables per program
+     * Maximum number of global variables per program (addresses beyond 16
+     * bit use the wide form of getstatic and putstatic)
      */
-    protected static final int MAX_GLOBALS = 32767;
+    protected static final int MAX_GLOBALS = 65535;
 
     /**
-     * Maximum number of fields per class
+     * Maximum number of fields per class (offsets beyond 16 bit use the wide
+     * form of getfield and putfield)
      */
-    protected static final int MAX_FIELDS = 32767;
+    protected static final int MAX_FIELDS = 65535;
 
     /**
-     * Maximum number of local variables per method
+     * Maximum number of local variables per method (addresses beyond 8 bit
+     * use the wide form of load and store)
      */
-    protected static final int MAX_LOCALS = 127;
+    public static final int MAX_LOCALS = 32767;
 
     /**
      * Last recognized token;
@@ -0,0 +1,95 @@
+package ssw.mj;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Execution profile of a MicroJava program, recorded by the
+ * <code>Interpreter</code> and used by the optimizer of the compiler.
+ * <p>
+ * For every instruction address it holds how often the instruction was
+ * executed and, for conditional jumps, how often the jump was taken. The
+ * execution count of a <code>call</code> is the count of its call site. The
+ * profile file is a text file: a header line <code>MJ profile
+ * &lt;codeSize&gt;</code> followed by a line <code>&lt;pc&gt; &lt;count&gt;
+ * &lt;taken&gt;</code> for every executed instruction.
+ */
+public final class Profile {
+    private static final String HEADER = "MJ profile";
+
+    /**
+     * Execution count per instruction address.
+     */
+    final long[] counts;
+    /**
+     * Number of taken jumps per instruction address.
+     */
+    final long[] taken;
+
+    public Profile(int codeSize) {
+        counts = new long[codeSize];
+        taken = new long[codeSize];
+    }
+
+    /**
+     * Size of the profiled code in bytes.
+     */
+    public int codeSize() {
+        return counts.length;
+    }
+
+    /**
+     * How often the instruction at <code>pc</code> was executed.
+     */
+    public long count(int pc) {
+        return pc >= 0 && pc < counts.length ? counts[pc] : 0;
+    }
+
+    /**
+     * How often the jump at <code>pc</code> was taken.
+     */
+    public long taken(int pc) {
+        return pc >= 0 && pc < taken.length ? taken[pc] : 0;
+    }
+
+    public void write(Writer w) {
+        PrintWriter out = new PrintWriter(w);
+        out.println(HEADER + " " + counts.length);
+        for (int pc = 0; pc < counts.length; pc++) {
+            if (counts[pc] > 0) {
+                out.println(pc + " " + counts[pc] + " " + taken[pc]);
+            }
+        }
+        out.flush();
+    }
+
+    public static Profile read(Reader r) throws IOException {
+        BufferedReader in = new BufferedReader(r);
+        String header = in.readLine();
+        if (header == null || !header.startsWith(HEADER + " ")) {
+            throw new IOException("not a profile");
+        }
+        Profile p;
+        try {
+            p = new Profile(Integer.parseInt(header.substring(HEADER.length() + 1).trim()));
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                String[] f = line.trim().split(" +");
+                if (f.length != 3) {
+                    throw new IOException("corrupted profile line: " + line);
+                }
+                int pc = Integer.parseInt(f[0]);
+                if (pc < 0 || pc >= p.counts.length) {
+                    throw new IOException("pc out of range: " + line);
+                }
+                p.counts[pc] = Long.parseLong(f[1]);
+                p.taken[pc] = Long.parseLong(f[2]);
+            }
+        } catch (NumberFormatException | NegativeArraySizeException e) {
+            throw new IOException("corrupted profile: " + e.getMessage());
+        }
+        return p;
+    }
+}
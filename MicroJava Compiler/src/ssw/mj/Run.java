@@ -1,15 +1,19 @@
 // MicroJava Virtual Machine
 // -------------------------
-// Syntax: java ssw.mj.Run fileName [-debug]
+// Syntax: java ssw.mj.Run fileName [-debug] [-profile profileName]
 // ===========================================================================
 // by Hanspeter Moessenboeck, 2002-10-28
 // edited by Albrecht Woess, 2002-10-30
 package ssw.mj;
 
+import ssw.mj.codegen.Code;
+
 import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 
 public class Run {
 
@@ -23,6 +27,10 @@ public class Run {
             in.close();
             throw new FormatException("wrong marker");
         }
+        if (in.readByte() != Code.VERSION) {
+            in.close();
+            throw new FormatException("wrong version");
+        }
         codeSize = in.readInt();
         if (codeSize <= 0) {
             in.close();
@@ -47,23 +55,35 @@ public class Run {
 
     public static void main(String[] arg) {
         String fileName = null;
+        String profileName = null;
         boolean debug = false;
         for (int i = 0; i < arg.length; i++) {
             if (arg[i].equals("-debug")) {
                 debug = true;
+            } else if (arg[i].equals("-profile") && i + 1 < arg.length) {
+                profileName = arg[++i];
             } else {
                 fileName = arg[i];
             }
         }
         if (fileName == null) {
-            System.out.println("Syntax: java ssw.mj.Run filename [-debug]");
+            System.out.println("Syntax: java ssw.mj.Run filename [-debug] [-profile profileName]");
             return;
         }
         try {
             Interpreter r = load(fileName, debug);
+            Profile profile = profileName != null ? r.startProfile() : null;
 
             long startTime = System.currentTimeMillis();
-            r.run();
+            try {
+                r.run();
+            } finally {
+                if (profile != null) {
+                    try (Writer w = new FileWriter(profileName)) {
+                        profile.write(w);
+                    }
+                }
+            }
 
             System.out.print("\nCompletion took " + (System.currentTimeMillis() - startTime) + " ms");
         } catch (FileNotFoundException e) {
@@ -33,6 +33,18 @@ public abstract class Code {
     private static final Operands[] W = new Operands[]{Operands.W};
     private static final Operands[] BB = new Operands[]{Operands.B,
             Operands.B};
+    private static final Operands[] SB = new Operands[]{Operands.S,
+            Operands.B};
+    private static final Operands[] SS = new Operands[]{Operands.S,
+            Operands.S};
+    private static final Operands[] BS = new Operands[]{Operands.B,
+            Operands.S};
+
+    /**
+     * Version of the object file format, incremented whenever the
+     * instruction set changes.
+     */
+    public static final int VERSION = 8;
 
     public static enum OpCode {
         load(B), //
@@ -92,7 +104,71 @@ public abstract class Code {
         bread, //
         bprint, //
         trap(B), //
-        nop;
+        nop, //
+        tailcall(S), //
+        // arithmetic with an immediate operand (16 bit)
+        addi(S), //
+        subi(S), //
+        muli(S), //
+        // compare with zero and jump
+        jeqz(S), //
+        jnez(S), //
+        jltz(S), //
+        jlez(S), //
+        jgtz(S), //
+        jgez(S), //
+        // compare with an immediate operand and jump (jump distance first,
+        // then the 16 bit immediate operand)
+        jeqi(SS), //
+        jnei(SS), //
+        jlti(SS), //
+        jlei(SS), //
+        jgti(SS), //
+        jgei(SS), //
+        // increment a global variable and an object field
+        incstatic(SB), //
+        incfield(SB), //
+        // prefix that doubles the size of the operands of the following
+        // load, store, inc, enter, enter_nc (16 bit instead of 8 bit) and getstatic,
+        // putstatic, getfield, putfield, new, incstatic, incfield, jumps,
+        // call, tailcall (32 bit instead of 16 bit)
+        wide, //
+        // jumps with an 8 bit jump distance
+        jmp_s(B), //
+        jeq_s(B), //
+        jne_s(B), //
+        jlt_s(B), //
+        jle_s(B), //
+        jgt_s(B), //
+        jge_s(B), //
+        jeqz_s(B), //
+        jnez_s(B), //
+        jltz_s(B), //
+        jlez_s(B), //
+        jgtz_s(B), //
+        jgez_s(B), //
+        jeqi_s(BS), //
+        jnei_s(BS), //
+        jlti_s(BS), //
+        jlei_s(BS), //
+        jgti_s(BS), //
+        jgei_s(BS), //
+        // enter that does not clear the local variables
+        enter_nc(BB), //
+        // newarray for varargs, freevararg releases the array again after
+        // the call if nothing was allocated after it
+        newvararg(B), //
+        freevararg, //
+        // bulk array operations, the operand is the element kind like for
+        // newarray (0 = char, 1 = word)
+        arraycopy(B), //
+        arrayfill(B), //
+        arrayequals(B), //
+        // bulk forms of counting loops over an array: fill, copy and sum
+        // the elements from..to-1, leaving max(from, to) on the stack
+        fillrange(B), //
+        copyrange(B), //
+        sumrange;
 
         private final Operands[] ops;
 
@@ -128,6 +204,38 @@ public abstract class Code {
             return name;
         }
 
+        /**
+         * Returns the form of this jump with an 8 bit jump distance, or null
+         * if this is not a jump.
+         */
+        public OpCode shortForm() {
+            int c = code();
+            if (c >= jmp.code() && c <= jge.code()) {
+                return get(jmp_s.code() + c - jmp.code());
+            } else if (c >= jeqz.code() && c <= jgez.code()) {
+                return get(jeqz_s.code() + c - jeqz.code());
+            } else if (c >= jeqi.code() && c <= jgei.code()) {
+                return get(jeqi_s.code() + c - jeqi.code());
+            }
+            return null;
+        }
+
+        /**
+         * Returns the form of a short jump with a 16 bit jump distance, this
+         * for all other instructions.
+         */
+        public OpCode longForm() {
+            int c = code();
+            if (c >= jmp_s.code() && c <= jge_s.code()) {
+                return get(jmp.code() + c - jmp_s.code());
+            } else if (c >= jeqz_s.code() && c <= jgez_s.code()) {
+                return get(jeqz.code() + c - jeqz_s.code());
+            } else if (c >= jeqi_s.code() && c <= jgei_s.code()) {
+                return get(jeqi.code() + c - jeqi_s.code());
+            }
+            return this;
+        }
+
         public static OpCode get(int code) {
             if (code < 1 || code > values().length) {
                 return null;
@@ -223,6 +331,13 @@ public abstract class Code {
         pc = oldpc;
     }
 
+    public void put4(int pos, int x) {
+        int oldpc = pc;
+        pc = pos;
+        put4(x);
+        pc = oldpc;
+    }
+
     public int get(int pos) {
         return buf[pos];
     }
@@ -231,6 +346,10 @@ public abstract class Code {
         return (get(pos) << 8) + (get(pos + 1) & 0xFF);
     }
 
+    public int get4(int pos) {
+        return (get2(pos) << 16) + (get2(pos + 2) & 0xFFFF);
+    }
+
     /**
      * Write the code buffer to the output stream.
      */
@@ -243,6 +362,7 @@ public abstract class Code {
         DataOutputStream headerWriter = new DataOutputStream(header);
         headerWriter.writeByte('M');
         headerWriter.writeByte('J');
+        headerWriter.writeByte(VERSION);
         headerWriter.writeInt(codeSize);
         headerWriter.writeInt(dataSize);
         headerWriter.writeInt(mainpc);
@@ -15,6 +15,7 @@ public class Decoder {
     private byte[] codeBuf; // code buffer
     private int cur; // address of next byte to decode
     private int adr; // address of currently decoded instruction
+    private boolean wide; // currently decoded instruction has a wide prefix
 
     private int get() {
         return codeBuf[cur++];
@@ -28,8 +29,18 @@ public class Decoder {
         return (get2() << 16) + (get2() & 0xFFFF);
     }
 
-    private String jumpDist() {
-        int dist = get2();
+    // operands of an instruction with a wide prefix are twice as long
+    private int getB() {
+        return wide ? get2() : get();
+    }
+
+    private int getS() {
+        return wide ? get4() : get2();
+    }
+
+    // jump distance of a short (8 bit) or normal (16 bit, 32 bit if wide) jump
+    private String jumpDist(OpCode opCode) {
+        int dist = opCode.longForm() != opCode ? get() : getS();
         int pos = adr + dist;
         return String.valueOf(dist) + " (=" + String.valueOf(pos) + ")";
     }
@@ -94,31 +105,76 @@ public class Decoder {
             case print:
             case bread:
             case bprint:
+            case freevararg:
+            case sumrange:
                 s = opCode.cleanName();
                 break;
-            // Operations with one 1 byte parameter in the code buffer
+            // Prefix of the following instruction
+            case wide:
+                wide = true;
+                s = opCode.cleanName() + " " + decode(OpCode.get(get()));
+                wide = false;
+                break;
+            // Operations with one 1 byte (2 byte if wide) parameter in the code buffer
             case load:
             case store:
+                s = opCode.cleanName() + " " + getB();
+                break;
+            // Operations with one 1 byte parameter in the code buffer
             case newarray:
+            case newvararg:
+            case arraycopy:
+            case arrayfill:
+            case arrayequals:
+            case fillrange:
+            case copyrange:
             case trap:
                 s = opCode.cleanName() + " " + get();
                 break;
-            // Operations with one 2 byte parameter in the code buffer
+            // Operations with one 2 byte (4 byte if wide) parameter in the code buffer
             case getstatic:
             case putstatic:
             case getfield:
             case putfield:
             case new_:
+                s = opCode.cleanName() + " " + getS();
+                break;
+            // Operations with one 2 byte parameter in the code buffer
+            case addi:
+            case subi:
+            case muli:
                 s = opCode.cleanName() + " " + get2();
                 break;
             // Operations with one 4 byte parameter in the code buffer
             case const_:
                 s = opCode.cleanName() + " " + get4();
                 break;
-            // Operations with two 1 byte parameters in the code buffer
+            // Operations with two 1 byte (2 byte if wide) parameters in the code buffer
             case inc:
             case enter:
-                s = opCode.cleanName() + " " + get() + ", " + get();
+            case enter_nc:
+                s = opCode.cleanName() + " " + getB() + ", " + getB();
+                break;
+            // Operations with a 2 byte and a 1 byte (4 and 2 byte if wide) parameter in the code buffer
+            case incstatic:
+            case incfield:
+                s = opCode.cleanName() + " " + getS() + ", " + getB();
+                break;
+            // Operations with a jump distance and a 2 byte immediate in the code buffer
+            case jeqi:
+            case jnei:
+            case jlti:
+            case jlei:
+            case jgti:
+            case jgei:
+            case jeqi_s:
+            case jnei_s:
+            case jlti_s:
+            case jlei_s:
+            case jgti_s:
+            case jgei_s:
+                String dist = jumpDist(opCode);
+                s = opCode.cleanName() + " " + getS() + ", " + dist;
                 break;
             // Operations with a jump distance as a parameter in the code buffer
             case jmp:
@@ -128,8 +184,28 @@ public class Decoder {
             case jle:
             case jgt:
             case jge:
+            case jeqz:
+            case jnez:
+            case jltz:
+            case jlez:
+            case jgtz:
+            case jgez:
+            case jmp_s:
+            case jeq_s:
+            case jne_s:
+            case jlt_s:
+            case jle_s:
+            case jgt_s:
+            case jge_s:
+            case jeqz_s:
+            case jnez_s:
+            case jltz_s:
+            case jlez_s:
+            case jgtz_s:
+            case jgez_s:
             case call:
-                s = opCode.cleanName() + " " + jumpDist();
+            case tailcall:
+                s = opCode.cleanName() + " " + jumpDist(opCode);
                 break;
             default:
                 s = "--error--";
@@ -143,6 +219,7 @@ public class Decoder {
         byte[] sig = new byte[2];
         in.read(sig, 0, 2);
         System.out.println("" + (char) sig[0] + (char) sig[1]);
+        System.out.println("version  = " + in.readByte());
         int codeSize = in.readInt();
         System.out.println("codesize = " + codeSize);
         System.out.println("datasize = " + in.readInt());
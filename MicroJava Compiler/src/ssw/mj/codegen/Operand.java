@@ -40,6 +40,11 @@ public class Operand {
      * Only for Cond: Relational operator.
      */
     public CompOp op;
+    /**
+     * Only for Cond: The right operand is the constant <code>val</code>
+     * instead of a value on the expression stack.
+     */
+    public boolean immediate;
     /**
      * Only for Meth: Method object from the symbol table.
      */
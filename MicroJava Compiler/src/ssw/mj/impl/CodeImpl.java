@@ -6,6 +6,10 @@ import ssw.mj.codegen.Operand;
 import ssw.mj.symtab.Struct;
 import ssw.mj.symtab.Tab;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import static ssw.mj.Errors.Message.NO_VAL;
 import static ssw.mj.Errors.Message.NO_VAR;
 
@@ -35,20 +39,17 @@ public final class CodeImpl extends Code {
                         put(OpCode.load_3);
                         break;
                     default:
-                        put(OpCode.load);
-                        put4(x.adr);
+                        putB(OpCode.load, x.adr);
                         break;
                 }
                 break;
             case Static:
-                put(OpCode.getstatic);
-                put2(x.adr);
+                putS(OpCode.getstatic, x.adr);
                 break;
             case Stack:
                 break; // nothing to do (already loaded)
             case Fld:
-                put(OpCode.getfield);
-                put2(x.adr);
+                putS(OpCode.getfield, x.adr);
                 break;
             case Elem:
                 if (x.type == Tab.charType) {
@@ -67,8 +68,7 @@ public final class CodeImpl extends Code {
         // combine two operands via arithmetic operation if a opCode is given
         // otherwise simply load the second operand normal
         if(c != OpCode.nop) {
-            load(y);
-            put(c);
+            arithmetic(c, y);
         } else {
             load(y);
         }
@@ -88,18 +88,15 @@ public final class CodeImpl extends Code {
                         put(OpCode.store_3);
                         break;
                     default:
-                        put(OpCode.store);
-                        put(x.adr);
+                        putB(OpCode.store, x.adr);
                         break;
                 }
                 break;
             case Static:
-                put(OpCode.putstatic);
-                put2(x.adr);
+                putS(OpCode.putstatic, x.adr);
                 break;
             case Fld:
-                put(OpCode.putfield);
-                put2(x.adr);
+                putS(OpCode.putfield, x.adr);
                 break;
             case Elem:
                 if (x.type == Tab.charType) {
@@ -143,51 +140,279 @@ public final class CodeImpl extends Code {
         }
     }
 
-    void storeConst(int x) {
-        switch (x) {
-            case 0:
-                put(OpCode.store_0);
-                break;
-            case 1:
-                put(OpCode.store_1);
+    /*
+     * apply the arithmetic operation c to the value on the stack and y,
+     * small constants are used as immediate operand
+     */
+    void arithmetic(OpCode c, Operand y) {
+        if (y.kind == Operand.Kind.Con && isShort(y.val)
+                && (c == OpCode.add || c == OpCode.sub || c == OpCode.mul)) {
+            put(c == OpCode.add ? OpCode.addi : c == OpCode.sub ? OpCode.subi : OpCode.muli);
+            put2(y.val);
+            y.kind = Operand.Kind.Stack;
+        } else {
+            load(y);
+            put(c);
+        }
+    }
+
+    /*
+     * return true if x fits into a 16 bit immediate operand
+     */
+    static boolean isShort(int x) {
+        return x >= Short.MIN_VALUE && x <= Short.MAX_VALUE;
+    }
+
+    /*
+     * return true if x fits into an 8 bit operand
+     */
+    static boolean isByte(int x) {
+        return x >= Byte.MIN_VALUE && x <= Byte.MAX_VALUE;
+    }
+
+    /*
+     * instruction with an 8 bit operand, extended to 16 bit by a wide prefix
+     * if x does not fit
+     */
+    void putB(OpCode op, int x) {
+        if (isByte(x)) {
+            put(op);
+            put(x);
+        } else {
+            put(OpCode.wide);
+            put(op);
+            put2(x);
+        }
+    }
+
+    /*
+     * instruction with two 8 bit operands, extended to 16 bit by a wide
+     * prefix if one of them does not fit
+     */
+    void putBB(OpCode op, int x, int y) {
+        if (isByte(x) && isByte(y)) {
+            put(op);
+            put(x);
+            put(y);
+        } else {
+            put(OpCode.wide);
+            put(op);
+            put2(x);
+            put2(y);
+        }
+    }
+
+    /*
+     * instruction with a 16 bit operand, extended to 32 bit by a wide prefix
+     * if x does not fit
+     */
+    void putS(OpCode op, int x) {
+        if (isShort(x)) {
+            put(op);
+            put2(x);
+        } else {
+            put(OpCode.wide);
+            put(op);
+            put4(x);
+        }
+    }
+
+    /*
+     * instruction with a 16 bit and an 8 bit operand, extended to 32 and
+     * 16 bit by a wide prefix if one of them does not fit
+     */
+    void putSB(OpCode op, int x, int y) {
+        if (isShort(x) && isByte(y)) {
+            put(op);
+            put2(x);
+            put(y);
+        } else {
+            put(OpCode.wide);
+            put(op);
+            put4(x);
+            put2(y);
+        }
+    }
+
+    /*
+     * load the value of a designator that is assigned afterwards,
+     * object reference, array and index are duplicated so they stay on the stack
+     */
+    void loadForUpdate(Operand x) {
+        // save kind for later as it will be changed by load(x)
+        Operand.Kind k = x.kind;
+        if (k == Operand.Kind.Elem) {
+            put(OpCode.dup2);
+        } else if (k == Operand.Kind.Fld) {
+            put(OpCode.dup);
+        }
+        load(x);
+        x.kind = k;
+    }
+
+    /*
+     * increment or decrement global variables, fields and array elements by value
+     */
+    void arithmethicOpNonLocal(Operand x, int val) {
+        switch (x.kind) {
+            case Static:
+                putSB(OpCode.incstatic, x.adr, val);
                 break;
-            case 2:
-                put(OpCode.store_2);
+            case Fld:
+                putSB(OpCode.incfield, x.adr, val);
                 break;
-            case 3:
-                put(OpCode.store_3);
+            case Elem:
+                put(OpCode.dup2);
+                put(OpCode.aload);
+                put(OpCode.addi);
+                put2(val);
+                put(OpCode.astore);
                 break;
             default:
-                put(OpCode.store);
-                put(x);
-                break;
+                parser.error(NO_VAR);
         }
     }
 
     /*
-     * arithmetic operations for non local fields by value
+     * unconditional jump to a label
      */
-    void arithmethicOpNonLocal(Operand x, int val, Code.OpCode c) {
-        // save for kind for later as it will be changed by load(x)
-        Operand.Kind k = x.kind;
-        if (k == Operand.Kind.Elem) {
-            put(Code.OpCode.dup2);
-        } else if (k != Operand.Kind.Static){
-            put(Code.OpCode.dup);
+    void jump(LabelImpl lab) {
+        lab.jump(OpCode.jmp, 0);
+    }
+
+    /*
+     * jump to the true label of a condition if it holds
+     */
+    void tJump(Operand x) {
+        jump(x.op, x, x.tLabel);
+    }
+
+    /*
+     * jump to the false label of a condition if it does not hold
+     */
+    void fJump(Operand x) {
+        jump(CompOp.invert(x.op), x, x.fLabel);
+    }
+
+    /*
+     * conditional jump to lab, comparisons with a constant use the zero or
+     * immediate forms
+     */
+    private void jump(CompOp op, Operand x, LabelImpl lab) {
+        if (!x.immediate) {
+            lab.jump(OpCode.get(OpCode.jeq.code() + op.ordinal()), 0);
+        } else if (x.val == 0) {
+            lab.jump(OpCode.get(OpCode.jeqz.code() + op.ordinal()), 0);
+        } else {
+            lab.jump(OpCode.get(OpCode.jeqi.code() + op.ordinal()), x.val);
         }
-        load(x);
-        loadConst(val);
-        put(c);
+    }
 
-        if (k == Operand.Kind.Elem) {
-            put(Code.OpCode.astore);
-        } else if (k == Operand.Kind.Con || k == Operand.Kind.Local || k == Operand.Kind.Fld){
-            put(OpCode.putfield);
-            put2(x.adr);
-        } else{
-            put(OpCode.putstatic);
-            put2(x.adr);
+    /*
+     * call of the method at adr
+     */
+    void call(int adr) {
+        putS(OpCode.call, adr - pc);
+    }
+
+    /*
+     * return true if the first operand of op is a jump distance
+     */
+    private static boolean hasJumpDist(OpCode op) {
+        return op == OpCode.call || op == OpCode.tailcall || op.longForm().shortForm() != null;
+    }
+
+    /*
+     * append a copy of the code from start (inclusive) to end (exclusive),
+     * jumps and calls to code outside this range are adjusted to the new
+     * position, pending jumps to lab are linked into lab; if an adjusted
+     * distance does not fit into the form of its jump, nothing is copied
+     * and false is returned
+     */
+    boolean copy(int start, int end, LabelImpl lab) {
+        int copyStart = pc;
+        List<Integer> fixups = new ArrayList<>();
+        int pos = start;
+        while (pos < end) {
+            OpCode op = OpCode.get(buf[pos]);
+            boolean wide = op == OpCode.wide;
+            if (wide) {
+                // the operands of the prefixed instruction are twice as long
+                op = OpCode.get(buf[pos + 1]);
+            }
+            int size = wide ? 2 + 2 * op.getOpsSize() : 1 + op.getOpsSize();
+            int newPos = pc;
+            for (int i = 0; i < size; i++) {
+                put(buf[pos + i]);
+            }
+            if (hasJumpDist(op)) {
+                int distPos = wide ? pos + 2 : pos + 1;
+                int newDistPos = newPos + distPos - pos;
+                int target = pos + (wide ? get4(distPos) : op.longForm() != op ? get(distPos) : get2(distPos));
+                if (wide && lab.isFixup(distPos)) {
+                    fixups.add(newDistPos);
+                } else if (target < start || target >= end) {
+                    int dist = target - newPos;
+                    if (wide) {
+                        put4(newDistPos, dist);
+                    } else if (op.longForm() == op && isShort(dist)) {
+                        put2(newDistPos, dist);
+                    } else if (op.longForm() != op && isByte(dist)) {
+                        buf[newDistPos] = (byte) dist;
+                    } else {
+                        pc = copyStart;
+                        return false;
+                    }
+                }
+            }
+            pos += size;
+        }
+        for (int p : fixups) {
+            lab.addFixup(p);
+        }
+        return true;
+    }
+
+    /*
+     * append the code of a method from src[start] (inclusive) to src[end]
+     * (exclusive) generated by an earlier compilation at start, calls of
+     * other methods are redirected with moved (old address -> new address);
+     * if a call cannot keep the form that call() would choose now, nothing
+     * is copied and false is returned
+     */
+    boolean copyMethod(byte[] src, int start, int end, Map<Integer, Integer> moved) {
+        int copyStart = pc;
+        for (int p = start; p < end; p++) {
+            put(src[p]);
+        }
+        int pos = copyStart;
+        while (pos < pc) {
+            OpCode op = OpCode.get(buf[pos]);
+            boolean wide = op == OpCode.wide;
+            if (wide) {
+                op = OpCode.get(buf[pos + 1]);
+            }
+            int size = wide ? 2 + 2 * op.getOpsSize() : 1 + op.getOpsSize();
+            if (op == OpCode.call) {
+                int distPos = wide ? pos + 2 : pos + 1;
+                int target = pos - copyStart + start + (wide ? get4(distPos) : get2(distPos));
+                if (target < start || target >= end) {
+                    Integer adr = moved.get(target);
+                    int dist = adr == null ? 0 : adr - pos;
+                    if (adr == null || wide == isShort(dist)) {
+                        pc = copyStart;
+                        return false;
+                    }
+                    if (wide) {
+                        put4(distPos, dist);
+                    } else {
+                        put2(distPos, dist);
+                    }
+                }
+            }
+            pos += size;
         }
+        return true;
     }
 
     /*
@@ -209,8 +434,6 @@ public final class CodeImpl extends Code {
      * increment or decrement non local field by value
      */
     void addToLocal(Operand x, int val) {
-        put(Code.OpCode.inc);
-        put(x.adr);
-        put(val);
+        putBB(Code.OpCode.inc, x.adr, val);
     }
 }
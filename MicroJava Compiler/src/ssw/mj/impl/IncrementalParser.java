@@ -0,0 +1,138 @@
+package ssw.mj.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import static ssw.mj.Token.Kind.lbrace;
+
+/**
+ * Compiles a source text and compiles it again after every edit, doing as
+ * little work as possible.
+ * <p>
+ * Only the tokens around an edit are scanned again (see
+ * <code>TokenBuffer.edit</code>). If the changed tokens are inside of a
+ * single method body, only this body is parsed again. The declarations did
+ * not change, so the symbol table of the last parse is taken over, the code
+ * of the other method bodies is copied (with the calls of moved methods
+ * adjusted) and only the changed method is optimized again (see
+ * <code>IncrementalOptimizer</code>). The result (code, symbol table and
+ * errors) is always the same as for a new compilation of the edited source.
+ * If it could differ (e.g. after an error), the declarations are parsed again
+ * and only the bodies that are still free of errors are copied.
+ */
+public final class IncrementalParser {
+    private char[] src;
+    private TokenBuffer tokens;
+    private ParserImpl parser;
+
+    public IncrementalParser(String src) {
+        this.src = src.toCharArray();
+        tokens = TokenBuffer.lex(new ScannerImpl(this.src));
+        parse(null, -1);
+    }
+
+    /**
+     * The parser of the last compilation (with its code, symbol table and
+     * errors).
+     */
+    public ParserImpl parser() {
+        return parser;
+    }
+
+    public String source() {
+        return new String(src);
+    }
+
+    /**
+     * Number of method bodies whose code was copied in the last
+     * compilation.
+     */
+    public int reusedMethods() {
+        return parser.reusedBodies;
+    }
+
+    /**
+     * Replaces the <code>removed</code> characters at <code>offset</code> by
+     * <code>inserted</code> and compiles the source again.
+     */
+    public void edit(int offset, int removed, String inserted) {
+        if (offset < 0 || removed < 0 || offset + removed > src.length) {
+            throw new IndexOutOfBoundsException("edit " + offset + "+" + removed + " of " + src.length);
+        }
+        char[] s = new char[src.length - removed + inserted.length()];
+        System.arraycopy(src, 0, s, 0, offset);
+        inserted.getChars(0, inserted.length(), s, offset);
+        System.arraycopy(src, offset + removed, s, offset + inserted.length(), src.length - offset - removed);
+        int lineDelta = lineEnds(inserted.toCharArray(), 0, inserted.length()) - lineEnds(src, offset, offset + removed);
+
+        TokenBuffer t = tokens.edit(new ScannerImpl(s, s.length, tokens.scanner.names),
+                offset, removed, inserted.length(), lineDelta);
+        // method bodies of the last parse by their lbrace in t
+        Map<Integer, MethodBody> old = new HashMap<>();
+        int changed = -1;
+        int changedIndex = -1;
+        int shift = t.editTo - t.editOldTo;
+        for (int k = 0; k < parser.bodies.size(); k++) {
+            MethodBody b = parser.bodies.get(k);
+            if (b.to <= t.editFrom) {
+                old.put(b.from, b);
+            } else if (b.from >= t.editOldTo) {
+                old.put(b.from + shift, b);
+            } else if ((b.from < t.editFrom || startsBody(t, b) && t.kind(b.from) == lbrace)
+                    && b.to >= t.editOldTo) {
+                // (the last token scanned again is unchanged, it may be the rbrace)
+                old.put(b.from, b);
+                changed = b.from;
+                changedIndex = k;
+            }
+        }
+        src = s;
+        tokens = t;
+        if (changed >= 0) {
+            ParserImpl p = newParser();
+            if (p.parseBody(parser, changedIndex, shift)) {
+                parser = p;
+                return;
+            }
+        }
+        parse(changed >= 0 ? old : null, changed);
+    }
+
+    /**
+     * True if the tokens of <code>t</code> that were scanned again start
+     * with the lbrace of body <code>b</code>, apart from an unchanged token
+     * in front of it (scanning starts again at the token in front of the
+     * edit).
+     */
+    private boolean startsBody(TokenBuffer t, MethodBody b) {
+        return b.from < t.editTo && (b.from == t.editFrom
+                || b.from == t.editFrom + 1 && t.same(t.editFrom, tokens, t.editFrom));
+    }
+
+    private ParserImpl newParser() {
+        return new ParserImpl(new ScannerImpl(src, src.length, tokens.scanner.names), tokens);
+    }
+
+    private void parse(Map<Integer, MethodBody> oldBodies, int changedBody) {
+        ParserImpl p = newParser();
+        p.bodies = new ArrayList<>();
+        if (oldBodies != null) {
+            p.oldBodies = oldBodies;
+            p.oldCode = parser.unoptimizedCode;
+            p.changedBody = changedBody;
+        }
+        p.parse();
+        parser = p;
+    }
+
+    private static int lineEnds(char[] buf, int from, int to) {
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if (buf[i] == '\n') {
+                n++;
+            }
+        }
+        return n;
+    }
+}
@@ -1,11 +1,27 @@
 package ssw.mj.impl;
 
 import ssw.mj.codegen.Code;
+import ssw.mj.codegen.Code.OpCode;
 import ssw.mj.codegen.Label;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public final class LabelImpl extends Label {
 
-    // TODO Exercise 6: Implementation of Labels for management of jump targets
+    /**
+     * Positions of the 16 bit jump distances of forward jumps to this label
+     * that have to be fixed up as soon as the label is defined.
+     */
+    private final List<Integer> fixupList = new ArrayList<>();
+
+    /**
+     * Positions of the 32 bit jump distances of forward jumps (wide form) to
+     * this label that have to be fixed up as soon as the label is defined.
+     */
+    private final List<Integer> wideFixupList = new ArrayList<>();
+
+    private boolean isDefined;
 
 	public LabelImpl(Code code) {
         super(code);
@@ -16,7 +32,50 @@ public final class LabelImpl extends Label {
      */
     @Override
     public void put() {
-        // TODO
+        if (isDefined) {
+            // jump distance is relative to the jump instruction
+            code.put2(adr - (code.pc - 1));
+        } else {
+            fixupList.add(code.pc);
+            code.put2(0);
+        }
+    }
+
+    /**
+     * Generates the jump instruction <code>op</code> to this label, a jump
+     * with an immediate operand is followed by <code>imm</code>. A backward
+     * jump gets the shortest form for its distance. The distance of a
+     * forward jump is not known yet, so it gets the wide form (32 bit
+     * distance), the optimizer relaxes it to the shortest form later.
+     */
+    void jump(OpCode op, int imm) {
+        boolean hasImm = op.numOps() == 2;
+        int dist = adr - code.pc;
+        if (isDefined && CodeImpl.isByte(dist)) {
+            code.put(op.shortForm());
+            code.put(dist);
+            if (hasImm) {
+                code.put2(imm);
+            }
+        } else if (isDefined && CodeImpl.isShort(dist)) {
+            code.put(op);
+            code.put2(dist);
+            if (hasImm) {
+                code.put2(imm);
+            }
+        } else {
+            code.put(OpCode.wide);
+            code.put(op);
+            if (isDefined) {
+                code.put4(dist);
+            } else {
+                wideFixupList.add(code.pc);
+                code.put4(0);
+            }
+            if (hasImm) {
+                code.put4(imm);
+            }
+        }
     }
 
     /**
@@ -24,6 +83,32 @@ public final class LabelImpl extends Label {
      */
     @Override
     public void here() {
-        // TODO
+        adr = code.pc;
+        isDefined = true;
+        for (int pos : fixupList) {
+            code.put2(pos, adr - (pos - 1));
+        }
+        fixupList.clear();
+        for (int pos : wideFixupList) {
+            // distance follows the wide prefix and the opcode
+            code.put4(pos, adr - (pos - 2));
+        }
+        wideFixupList.clear();
+    }
+
+    /**
+     * True if the wide jump distance at position <code>pos</code> still
+     * waits for this label to be defined.
+     */
+    boolean isFixup(int pos) {
+        return wideFixupList.contains(pos);
+    }
+
+    /**
+     * Adds the wide jump distance at position <code>pos</code> to the jumps
+     * that are fixed up when this label is defined.
+     */
+    void addFixup(int pos) {
+        wideFixupList.add(pos);
     }
 }
@@ -0,0 +1,48 @@
+package ssw.mj.impl;
+
+import ssw.mj.symtab.Obj;
+
+/**
+ * The tokens and the (unoptimized) code of a method body in one parse, so a
+ * later parse of an edited source can copy the code of the body instead of
+ * parsing it again.
+ */
+final class MethodBody {
+    /**
+     * Tokens <code>from</code> (<code>lbrace</code>) to <code>to - 1</code>
+     * (<code>rbrace</code>).
+     */
+    final int from, to;
+    /**
+     * Code from <code>codeStart</code> (the address of the method) to
+     * <code>codeEnd - 1</code>.
+     */
+    final int codeStart, codeEnd;
+    final boolean varArgEscapes;
+    /**
+     * True if there were no errors up to the end of the body.
+     */
+    final boolean clean;
+    /**
+     * The method in the symbol table of the parse.
+     */
+    final Obj meth;
+
+    MethodBody(int from, int to, int codeStart, int codeEnd, boolean varArgEscapes, boolean clean, Obj meth) {
+        this.from = from;
+        this.to = to;
+        this.codeStart = codeStart;
+        this.codeEnd = codeEnd;
+        this.varArgEscapes = varArgEscapes;
+        this.clean = clean;
+        this.meth = meth;
+    }
+
+    /**
+     * This body with its tokens moved by <code>tokens</code> and its code
+     * by <code>bytes</code>.
+     */
+    MethodBody moved(int tokens, int bytes) {
+        return new MethodBody(from + tokens, to + tokens, codeStart + bytes, codeEnd + bytes, varArgEscapes, clean, meth);
+    }
+}
@@ -0,0 +1,101 @@
+package ssw.mj.impl;
+
+import java.util.Arrays;
+
+/**
+ * Names (identifiers) of one compilation. Every distinct name gets a dense id
+ * and a single <code>String</code> instance, which is looked up directly from
+ * the characters in the scanner buffer, so a name seen again creates no new
+ * string. The strings are interned, so equal names are identical to each
+ * other and to the names of the universe.
+ */
+final class NameTable {
+    private String[] names = new String[256];
+    /**
+     * <code>String.hashCode()</code> of every name.
+     */
+    private int[] hashes = new int[256];
+    /**
+     * Open addressing hash table of <code>id + 1</code>, 0 for free slots.
+     */
+    private int[] table = new int[512];
+    private int size;
+
+    /**
+     * Returns the id of the name <code>buf[start .. start + len - 1]</code>.
+     */
+    int id(char[] buf, int start, int len) {
+        int h = 0;
+        for (int i = start; i < start + len; i++) {
+            h = 31 * h + buf[i];
+        }
+        int mask = table.length - 1;
+        int k = h & mask;
+        for (int e = table[k]; e != 0; e = table[k]) {
+            if (hashes[e - 1] == h && matches(names[e - 1], buf, start, len)) {
+                return e - 1;
+            }
+            k = (k + 1) & mask;
+        }
+        return add(new String(buf, start, len).intern(), h, k);
+    }
+
+    int id(String name) {
+        int h = name.hashCode();
+        int mask = table.length - 1;
+        int k = h & mask;
+        for (int e = table[k]; e != 0; e = table[k]) {
+            if (hashes[e - 1] == h && names[e - 1].equals(name)) {
+                return e - 1;
+            }
+            k = (k + 1) & mask;
+        }
+        return add(name.intern(), h, k);
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+
+    int size() {
+        return size;
+    }
+
+    private static boolean matches(String name, char[] buf, int start, int len) {
+        if (name.length() != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (name.charAt(i) != buf[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int add(String name, int h, int k) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, 2 * size);
+            hashes = Arrays.copyOf(hashes, 2 * size);
+        }
+        names[size] = name;
+        hashes[size] = h;
+        table[k] = ++size;
+        if (2 * size > table.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    private void rehash() {
+        table = new int[2 * table.length];
+        int mask = table.length - 1;
+        for (int id = 0; id < size; id++) {
+            int k = hashes[id] & mask;
+            while (table[k] != 0) {
+                k = (k + 1) & mask;
+            }
+            table[k] = id + 1;
+        }
+    }
+}
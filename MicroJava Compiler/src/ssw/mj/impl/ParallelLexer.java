@@ -0,0 +1,186 @@
+package ssw.mj.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static ssw.mj.Token.Kind.eof;
+
+/**
+ * Scans a source text in chunks concurrently.
+ * <p>
+ * Chunks start behind a line end. Every chunk is scanned speculatively as if
+ * this line end were outside of comments and tokens, starting with the line
+ * number known from counting the line ends of the preceding chunks (also
+ * concurrently). The chunks are then stitched together: the tokens of the
+ * first chunk are taken, and its scanner continues into the next chunk until
+ * it produces a token that the next chunk produced at the same source
+ * position with the same contents. From there on, both scanners are in the
+ * same state, so the rest of the next chunk is taken. If the speculation was
+ * wrong (e.g. the line end is inside a comment), the chunk is scanned again
+ * sequentially until the scanners agree.
+ */
+final class ParallelLexer {
+    /**
+     * Smaller chunks are not worth a task.
+     */
+    static final int MIN_CHUNK_SIZE = 1 << 16;
+    /**
+     * Estimate of the source characters per token, to size the buffers of
+     * the chunks.
+     */
+    private static final int CHARS_PER_TOKEN = 4;
+
+    private final ScannerImpl scanner;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    ParallelLexer(ScannerImpl scanner, ForkJoinPool pool, int chunkSize) {
+        this.scanner = scanner;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    TokenBuffer lex() {
+        scanner.load();
+        char[] buf = scanner.buf;
+        int end = scanner.end;
+        int[] starts = chunkStarts(buf, end);
+        int n = starts.length;
+        if (n == 1) {
+            return TokenBuffer.lex(scanner);
+        }
+
+        // line numbers of the chunk starts
+        int[] lfs = new int[n];
+        List<ForkJoinTask<?>> counts = new ArrayList<>();
+        for (int k = 0; k < n; k++) {
+            int c = k;
+            counts.add(pool.submit(() -> {
+                lfs[c] = countLineEnds(buf, starts[c], c + 1 < n ? starts[c + 1] : end);
+            }));
+        }
+        join(counts);
+        int[] lines = new int[n];
+        lines[0] = 1;
+        for (int k = 1; k < n; k++) {
+            lines[k] = lines[k - 1] + lfs[k - 1];
+        }
+
+        TokenBuffer[] chunks = new TokenBuffer[n];
+        List<ForkJoinTask<?>> scans = new ArrayList<>();
+        for (int k = 0; k < n; k++) {
+            int c = k;
+            scans.add(pool.submit(() -> {
+                ScannerImpl s = new ScannerImpl(buf, end);
+                if (c > 0) {
+                    s.startAt(starts[c], lines[c]);
+                }
+                chunks[c] = scanChunk(s, starts[c], c + 1 < n ? starts[c + 1] : end);
+            }));
+        }
+        join(scans);
+
+        return stitch(chunks, starts);
+    }
+
+    /**
+     * Positions behind line ends about <code>chunkSize</code> characters
+     * apart; the first chunk starts at 0.
+     */
+    private int[] chunkStarts(char[] buf, int end) {
+        int size = Math.max(chunkSize, 1);
+        List<Integer> starts = new ArrayList<>();
+        starts.add(0);
+        for (int p = size; p < end; p += size) {
+            while (p < end && buf[p - 1] != '\n') {
+                p++;
+            }
+            if (p < end) {
+                starts.add(p);
+            }
+        }
+        int[] res = new int[starts.size()];
+        for (int k = 0; k < res.length; k++) {
+            res[k] = starts.get(k);
+        }
+        return res;
+    }
+
+    private static int countLineEnds(char[] buf, int from, int to) {
+        int n = 0;
+        for (int p = from; p < to; p++) {
+            if (buf[p] == '\n') {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Scans the chunk from <code>from</code> up to the first token at or
+     * behind <code>limit</code>.
+     */
+    private static TokenBuffer scanChunk(ScannerImpl s, int from, int limit) {
+        TokenBuffer tokens = new TokenBuffer(s, (limit - from) / CHARS_PER_TOKEN);
+        do {
+            tokens.scan();
+        } while (tokens.start(tokens.size() - 1) < limit && tokens.kind(tokens.size() - 1) != eof);
+        return tokens;
+    }
+
+    private TokenBuffer stitch(TokenBuffer[] chunks, int[] starts) {
+        int total = 0;
+        for (TokenBuffer c : chunks) {
+            total += c.size();
+        }
+        TokenBuffer res = new TokenBuffer(scanner, total);
+        int[][] ids = new int[chunks.length][0]; // name ids of the chunks in res
+        int cur = 0; // the chunk whose scanner is in the right state
+        int i = 0; // next token of cur
+        int next = 1; // next chunk to synchronize with
+        int j = 0; // candidate token of chunks[next]
+        for (; ; ) {
+            TokenBuffer c = chunks[cur];
+            if (i == c.size()) {
+                c.scan();
+            }
+            int start = c.start(i);
+            // skip chunks that have been passed without agreement
+            while (next + 1 < chunks.length && start >= starts[next + 1]) {
+                next++;
+                j = 0;
+            }
+            if (next < chunks.length && start >= starts[next]) {
+                TokenBuffer n = chunks[next];
+                while (j < n.size() && n.start(j) < start) {
+                    j++;
+                }
+                if (j < n.size() && c.same(i, n, j)) {
+                    c = n;
+                    cur = next;
+                    i = j;
+                    next++;
+                    j = 0;
+                }
+            }
+            // take the tokens up to the next chunk at once
+            // (eof is always the last token of a chunk)
+            int to = next < chunks.length ? c.indexAt(i + 1, starts[next]) : c.size();
+            ids[cur] = res.append(c, i, to, ids[cur]);
+            if (c.kind(to - 1) == eof) {
+                break;
+            }
+            i = to;
+        }
+        scanner.continueFrom(chunks[cur].scanner);
+        return res;
+    }
+
+    private static void join(List<ForkJoinTask<?>> tasks) {
+        for (ForkJoinTask<?> t : tasks) {
+            t.join();
+        }
+    }
+}
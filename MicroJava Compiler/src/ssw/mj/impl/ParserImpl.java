@@ -2,16 +2,25 @@ package ssw.mj.impl;
 
 import ssw.mj.Errors;
 import ssw.mj.Parser;
-import ssw.mj.Scanner;
+import ssw.mj.Profile;
 import ssw.mj.Token;
 import ssw.mj.codegen.Code;
 import ssw.mj.codegen.Operand;
+import ssw.mj.opt.IncrementalOptimizer;
+import ssw.mj.opt.Optimizer;
 import ssw.mj.symtab.Obj;
+import ssw.mj.symtab.Scope;
 import ssw.mj.symtab.Struct;
 import ssw.mj.symtab.Tab;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import static ssw.mj.Errors.Message.*;
 import static ssw.mj.Token.Kind.*;
@@ -38,9 +47,107 @@ public final class ParserImpl extends Parser {
     private static final int ERR_DIST_THRESHOLD = 3;
 
     private Obj curMethod = null;
+    /**
+     * Exit label of the innermost loop, null outside of loops.
+     */
+    private LabelImpl breakLab = null;
+    /**
+     * Number of uses of the vararg parameter of the current method that may
+     * let the array escape (uses other than indexing and len).
+     */
+    private int varArgUses;
+    /**
+     * Execution profile of an earlier run that guides the optimizer, null if
+     * there is none.
+     */
+    public Profile profile;
+    /**
+     * Whether the code is optimized after parsing; switched off to inspect
+     * the code as generated.
+     */
+    public boolean optimize = true;
+    /**
+     * Tokens of the source; the lookahead token is <code>tokens[pos]</code>,
+     * the last recognized token <code>tokens[pos - 1]</code>.
+     */
+    private final TokenBuffer tokens;
+    private int pos = -1;
+    /**
+     * Method bodies of this parse, null if they are not recorded.
+     */
+    List<MethodBody> bodies;
+    /**
+     * Unoptimized code, scope of the global declarations and optimizer of
+     * this parse if the method bodies are recorded (the optimizer is null if
+     * the code was not optimized).
+     */
+    byte[] unoptimizedCode;
+    private Scope programScope;
+    private IncrementalOptimizer optimizer;
+    /**
+     * Method bodies of an earlier parse by the index of their
+     * <code>lbrace</code> in this parse, whose code is copied from
+     * <code>oldCode</code> instead of parsing them again (except for the
+     * changed body at <code>changedBody</code>); null if there are none.
+     */
+    Map<Integer, MethodBody> oldBodies;
+    byte[] oldCode;
+    int changedBody = -1;
+    /**
+     * Addresses of methods in <code>oldCode</code> and in this parse.
+     */
+    private final Map<Integer, Integer> movedMethods = new HashMap<>();
+    /**
+     * Number of method bodies copied from the earlier parse.
+     */
+    int reusedBodies;
+
+    public ParserImpl(ScannerImpl scanner) {
+        this(scanner, new TokenBuffer(scanner));
+    }
+
+    /**
+     * Sources of at least this many characters are scanned in parallel
+     * chunks before parsing by <code>forSource</code>.
+     */
+    public static final int PARALLEL_LEX_SIZE = 1 << 20;
+
+    /**
+     * Parser for the source of <code>scanner</code> that scans large sources
+     * in parallel on the common pool, see
+     * <code>forSource(scanner, pool)</code>.
+     */
+    public static ParserImpl forSource(ScannerImpl scanner) {
+        return forSource(scanner, ForkJoinPool.commonPool());
+    }
 
-    public ParserImpl(Scanner scanner) {
+    /**
+     * Parser for the source of <code>scanner</code>, which must not have
+     * scanned anything yet. A source of at least
+     * <code>PARALLEL_LEX_SIZE</code> characters is scanned in parallel on
+     * <code>pool</code> first if the pool has more than one thread, else the
+     * tokens are scanned while parsing. The errors are the same in both
+     * cases, in the same order.
+     */
+    public static ParserImpl forSource(ScannerImpl scanner, ForkJoinPool pool) {
+        scanner.load();
+        if (scanner.end < PARALLEL_LEX_SIZE || pool.getParallelism() < 2) {
+            return new ParserImpl(scanner);
+        }
+        // the lexical errors go to the scanner while parsing, between the
+        // syntax errors
+        ScannerImpl lexer = new ScannerImpl(scanner.buf, scanner.end, scanner.names);
+        return new ParserImpl(scanner, TokenBuffer.lexParallel(lexer, pool));
+    }
+
+    /**
+     * Parses the tokens <code>tokens</code>, which may have been (partly)
+     * scanned already, e.g. by an earlier parse of the same source. All
+     * errors are reported to <code>scanner.errors</code>.
+     */
+    public ParserImpl(ScannerImpl scanner, TokenBuffer tokens) {
         super(scanner);
+        this.tokens = tokens;
 
         this.firstFactor = EnumSet.of(ident, number, charConst, new_, lpar);
         this.firstMulop = EnumSet.of(times, slash, rem);
@@ -74,7 +181,7 @@ public final class ParserImpl extends Parser {
     @Override
     public void error(Errors.Message msg, Object... msgParams) {
         if (errDist >= ERR_DIST_THRESHOLD) {
-            scanner.errors.error(la.line, la.col, msg, msgParams);
+            scanner.errors.error(tokens.line(pos), tokens.col(pos), msg, msgParams);
         }
         errDist = 0;
     }
@@ -82,7 +189,7 @@ public final class ParserImpl extends Parser {
     private void recoverDecl() {
         this.error(INVALID_DECL);
         for (; ; ) {
-            if (recoverDeclSet.contains(sym) || sym == ident && t.kind == semicolon) {
+            if (recoverDeclSet.contains(sym) || sym == ident && pos > 0 && tokens.kind(pos - 1) == semicolon) {
                 break;
             }
 
@@ -96,7 +203,7 @@ public final class ParserImpl extends Parser {
         for (; ; ) {
             if (recoverMethodDeclSet.contains(sym)) {
                 break;
-            } else if (sym == ident && tab.find(t.str).type != noType) {
+            } else if (sym == ident && tab.find(str()).type != noType) {
                 break;
             }
 
@@ -118,7 +225,7 @@ public final class ParserImpl extends Parser {
 
         check(program);
         check(ident);
-        Obj prog = tab.insert(Obj.Kind.Prog, t.str, noType);
+        Obj prog = tab.insert(Obj.Kind.Prog, str(), noType);
 
         tab.openScope();
 
@@ -139,6 +246,8 @@ public final class ParserImpl extends Parser {
         if (tab.curScope.locals().size() > MAX_GLOBALS) {
             error(TOO_MANY_GLOBALS);
         }
+        // fields and locals are declared with varDecl as well
+        code.dataSize = tab.curScope.nVars();
         check(lbrace);
 
         for (; ; ) {
@@ -156,6 +265,17 @@ public final class ParserImpl extends Parser {
         if (code.mainpc == -1) {
             this.error(METH_NOT_FOUND, "main");
         }
+        if (bodies != null) {
+            unoptimizedCode = Arrays.copyOf(code.buf, code.pc);
+            programScope = tab.curScope;
+        }
+        if (optimize && scanner.errors.numErrors() == 0) {
+            if (bodies != null && profile == null) {
+                optimizer = IncrementalOptimizer.optimize(code, prog);
+            } else if (!Optimizer.optimize(code, prog, profile)) {
+                scanner.errors.warning(PROFILE_MISMATCH);
+            }
+        }
         tab.closeScope();
     }
 
@@ -164,14 +284,14 @@ public final class ParserImpl extends Parser {
         Struct type = type();
         check(ident);
 
-        Obj constant = tab.insert(Obj.Kind.Con, t.str, type);
+        Obj constant = tab.insert(Obj.Kind.Con, str(), type);
         check(assign);
 
         switch (sym) {
             case number:
                 if (constant.type == intType) {
                     scan();
-                    constant.val = t.val;
+                    constant.val = val();
                 } else {
                     error(CONST_TYPE);
                 }
@@ -179,7 +299,7 @@ public final class ParserImpl extends Parser {
             case charConst:
                 if (constant.type == charType) {
                     scan();
-                    constant.val = t.val;
+                    constant.val = val();
                 } else {
                     error(CONST_TYPE);
                 }
@@ -193,14 +313,12 @@ public final class ParserImpl extends Parser {
     private void varDecl() {
         Struct type = type();
         check(ident);
-        tab.insert(Obj.Kind.Var, t.str, type);
-        code.dataSize++;
+        tab.insert(Obj.Kind.Var, str(), type);
 
         while (sym == comma) {
             scan();
             check(ident);
-            tab.insert(Obj.Kind.Var, t.str, type);
-            code.dataSize++;
+            tab.insert(Obj.Kind.Var, str(), type);
         }
         check(semicolon);
     }
@@ -209,7 +327,7 @@ public final class ParserImpl extends Parser {
         check(class_);
         check(ident);
         StructImpl clazz = new StructImpl(Struct.Kind.Class);
-        tab.insert(Obj.Kind.Type, t.str, clazz);
+        tab.insert(Obj.Kind.Type, str(), clazz);
         check(lbrace);
 
         tab.openScope();
@@ -223,6 +341,7 @@ public final class ParserImpl extends Parser {
             // set local variables and parameters
             clazz.fields = tab.curScope.locals();
         }
+        clazz.freezeFields();
 
         check(rbrace);
         tab.closeScope();
@@ -241,7 +360,7 @@ public final class ParserImpl extends Parser {
                 this.error(METH_DECL);
         }
         check(ident);
-        String methodName = t.str;
+        String methodName = str();
         curMethod = tab.insert(Obj.Kind.Meth, methodName, type);
         check(lpar);
 
@@ -265,19 +384,43 @@ public final class ParserImpl extends Parser {
             varDecl();
         }
 
+        int bodyFrom = -1;
         if (tab.curScope.locals().size() > MAX_LOCALS) {
             error(TOO_MANY_LOCALS);
         } else {
             // set local variables and parameters
             curMethod.locals = tab.curScope.locals();
             curMethod.adr = code.pc;
-            code.put(Code.OpCode.enter);
-            code.put(curMethod.nPars);
-            code.put(tab.curScope.nVars());
+            bodyFrom = pos;
+            if (reuseBody()) {
+                tab.closeScope();
+                recordBody(bodyFrom);
+                return;
+            }
+            code.putBB(Code.OpCode.enter, curMethod.nPars, tab.curScope.nVars());
+        }
+
+        body();
+
+        if (bodyFrom >= 0) {
+            MethodBody changed = bodyFrom == changedBody && oldBodies != null ? oldBodies.get(bodyFrom) : null;
+            if (changed != null && changed.varArgEscapes != curMethod.varArgEscapes) {
+                // calls of the method are compiled differently
+                oldBodies = null;
+            }
+            recordBody(bodyFrom);
         }
+    }
 
+    /**
+     * Parses the body of <code>curMethod</code>, whose scope is open, and
+     * closes the scope.
+     */
+    private void body() {
+        varArgUses = 0;
         block();
         tab.closeScope();
+        curMethod.varArgEscapes = varArgUses > 0;
 
         if (curMethod.type == Tab.noType) {
             code.put(Code.OpCode.exit);
@@ -288,31 +431,139 @@ public final class ParserImpl extends Parser {
         }
     }
 
+    /**
+     * Parses only the body <code>old.bodies[k]</code> of the earlier parse
+     * <code>old</code> again, the tokens behind it are moved by
+     * <code>shift</code>. The declarations are the same as in
+     * <code>old</code>, so its symbol table is taken over, the code of the
+     * other bodies is copied and only the changed method is optimized again.
+     * Returns false if the result could differ from a new parse, e.g. after
+     * an error; then this parser must not be used and the symbol table of
+     * <code>old</code> is no longer valid.
+     */
+    boolean parseBody(ParserImpl old, int k, int shift) {
+        if (old.optimizer == null || old.scanner.errors.numErrors() > 0 || !optimize) {
+            return false;
+        }
+        MethodBody changed = old.bodies.get(k);
+        // the optimizer moved the methods
+        for (MethodBody b : old.bodies) {
+            b.meth.adr = b.codeStart;
+        }
+        // the methods in front do not call any method behind them
+        code.copyMethod(old.unoptimizedCode, 0, changed.codeStart, movedMethods);
+
+        // only the declarations up to the changed method are visible in it
+        curMethod = changed.meth;
+        Scope declared = new Scope(old.programScope.outer());
+        for (Obj o : old.programScope.locals()) {
+            declared.insert(o);
+            if (o == curMethod) {
+                break;
+            }
+        }
+        tab.reopenScope(declared);
+        tab.openScope();
+        for (Obj local : curMethod.locals) {
+            tab.curScope.insert(local);
+        }
+        code.putBB(Code.OpCode.enter, curMethod.nPars, tab.curScope.nVars());
+        boolean varArgEscapes = curMethod.varArgEscapes;
+        errDist = ERR_DIST_THRESHOLD;
+        pos = changed.from - 1;
+        scan();
+        body();
+        if (scanner.errors.numErrors() > 0 || pos != changed.to + shift || curMethod.varArgEscapes != varArgEscapes) {
+            return false;
+        }
+
+        int end = code.pc;
+        int bytes = end - changed.codeEnd;
+        for (int j = 0; j <= k; j++) {
+            MethodBody b = old.bodies.get(j);
+            movedMethods.put(b.codeStart, b.codeStart);
+        }
+        if (!code.copyMethod(old.unoptimizedCode, changed.codeEnd, old.unoptimizedCode.length, movedMethods)) {
+            return false;
+        }
+        bodies = new ArrayList<>(old.bodies.size());
+        for (int j = 0; j < old.bodies.size(); j++) {
+            MethodBody b = old.bodies.get(j);
+            if (j < k) {
+                bodies.add(b);
+            } else if (j == k) {
+                bodies.add(new MethodBody(b.from, pos, b.codeStart, end, varArgEscapes, true, b.meth));
+            } else {
+                b = b.moved(shift, bytes);
+                b.meth.adr = b.codeStart;
+                bodies.add(b);
+            }
+        }
+        code.mainpc = old.programScope.findLocal("main").adr;
+        code.dataSize = old.programScope.nVars();
+        tab.closeScope();
+        unoptimizedCode = Arrays.copyOf(code.buf, code.pc);
+        programScope = old.programScope;
+        reusedBodies = old.bodies.size() - 1;
+
+        optimizer = old.optimizer;
+        return optimizer.optimizeAgain(code, curMethod);
+    }
+
+    /**
+     * Copies the code of the body at the current token from an earlier
+     * parse if its tokens have not changed and the parse so far has been
+     * free of errors. Returns false if the body has to be parsed.
+     */
+    private boolean reuseBody() {
+        MethodBody old = oldBodies == null ? null : oldBodies.get(pos);
+        if (old == null) {
+            return false;
+        }
+        movedMethods.put(old.codeStart, curMethod.adr);
+        if (pos == changedBody || !old.clean || scanner.errors.numErrors() > 0
+                || !code.copyMethod(oldCode, old.codeStart, old.codeEnd, movedMethods)) {
+            return false;
+        }
+        curMethod.varArgEscapes = old.varArgEscapes;
+        pos += old.to - old.from - 1;
+        scan();
+        reusedBodies++;
+        return true;
+    }
+
+    private void recordBody(int from) {
+        if (bodies != null) {
+            bodies.add(new MethodBody(from, pos, curMethod.adr, code.pc, curMethod.varArgEscapes,
+                    scanner.errors.numErrors() == 0, curMethod));
+        }
+    }
+
     private void formPars(Obj meth) {
         Struct type = type();
         check(ident);
 
-        Obj var = tab.insert(Obj.Kind.Var, t.str, type);
+        Obj var = tab.insert(Obj.Kind.Var, str(), type);
         // increase number of parameters
         meth.nPars++;
         while (sym == comma) {
             scan();
             type = type();
             check(ident);
-            var = tab.insert(Obj.Kind.Var, t.str, type);
+            var = tab.insert(Obj.Kind.Var, str(), type);
             meth.nPars++;
         }
 
         if (sym == ppperiod) {
             scan();
-            var.type = new StructImpl((StructImpl) type);
+            var.type = ((StructImpl) type).arrayType();
             meth.hasVarArg = true;
         }
     }
 
     private Struct type() {
         check(ident);
-        Obj o = tab.find(t.str);
+        Obj o = tab.find(str());
         if (o.kind != Obj.Kind.Type) {
             error(NO_TYPE);
 
@@ -322,7 +573,7 @@ public final class ParserImpl extends Parser {
         if (sym == lbrack) {
             scan();
             check(rbrack);
-            type = new StructImpl(type);
+            type = type.arrayType();
         }
 
         return type;
@@ -359,13 +610,8 @@ public final class ParserImpl extends Parser {
                         if (!code.isAssignable(x)) {
                             this.error(NO_VAR);
                         }
-                        // duplicate variable on stack if we want to perform an arithmetic operation on stack
-                        if (x.kind == Operand.Kind.Elem) {
-                            code.put(Code.OpCode.dup2);
-                            code.put(Code.OpCode.aload);
-                        } else {
-                            code.put(Code.OpCode.dup);
-                        }
+                        // load the current value but keep the address of the designator on the stack
+                        code.loadForUpdate(x);
                     }
 
                     Operand y = expr();
@@ -382,6 +628,10 @@ public final class ParserImpl extends Parser {
                     }
                 } else if (sym == lpar) {
                     actpars(x);
+                    // discard the unused return value
+                    if (x.type != noType) {
+                        code.put(Code.OpCode.pop);
+                    }
                 } else if (sym == pplus) {
                     if (x.type != intType) {
                         this.error(NO_INT);
@@ -392,7 +642,7 @@ public final class ParserImpl extends Parser {
                     }
                     // distinguish between local and global variables
                     if (x.kind != Operand.Kind.Local) {
-                        code.arithmethicOpNonLocal(x, 1, Code.OpCode.add);
+                        code.arithmethicOpNonLocal(x, 1);
                     } else {
                         code.addToLocal(x, 1);
                     }
@@ -406,7 +656,7 @@ public final class ParserImpl extends Parser {
                     }
                     // distinguish between local and global variables
                     if (x.kind != Operand.Kind.Local) {
-                        code.arithmethicOpNonLocal(x, -1, Code.OpCode.add);
+                        code.arithmethicOpNonLocal(x, -1);
                     } else {
                         code.addToLocal(x, -1);
                     }
@@ -421,23 +671,57 @@ public final class ParserImpl extends Parser {
             case if_:
                 scan();
                 check(lpar);
-                condition();
+                x = condition();
+                code.fJump(x);
+                x.tLabel.here();
                 check(rpar);
                 statement();
                 if (sym == else_) {
                     scan();
+                    LabelImpl end = new LabelImpl(code);
+                    code.jump(end);
+                    x.fLabel.here();
                     statement();
+                    end.here();
+                } else {
+                    x.fLabel.here();
                 }
                 break;
-            case while_:
+            case while_: {
+                // rotated loop: the condition is checked once before the
+                // loop and repeated (as a copy) at the end of the body, so
+                // every iteration executes a single backward jump
                 scan();
                 check(lpar);
-                condition();
+                LabelImpl top = new LabelImpl(code);
+                top.here();
+                int condStart = code.pc;
+                x = condition();
+                int condEnd = code.pc;
+                code.fJump(x);
+                x.tLabel.here();
                 check(rpar);
+                LabelImpl outer = breakLab;
+                breakLab = x.fLabel;
                 statement();
+                breakLab = outer;
+                if (code.copy(condStart, condEnd, x.fLabel)) {
+                    code.tJump(x);
+                } else {
+                    // the copy cannot reach code outside of it, check the
+                    // condition at the top again
+                    code.jump(top);
+                }
+                x.fLabel.here();
                 break;
+            }
             case break_:
                 scan();
+                if (breakLab == null) {
+                    this.error(NO_LOOP);
+                } else {
+                    code.jump(breakLab);
+                }
                 check(semicolon);
                 break;
             case return_:
@@ -466,13 +750,12 @@ public final class ParserImpl extends Parser {
                 }
                 check(rpar);
                 check(semicolon);
-                code.load(x);
                 if (x.type.kind == Struct.Kind.Int) {
                     code.put(Code.OpCode.read);
                 } else if (x.type.kind == Struct.Kind.Char) {
                     code.put(Code.OpCode.bread);
                 }
-                code.storeConst(x.adr);
+                code.assign(x, new Operand(x.type), Code.OpCode.nop);
                 break;
             case print:
                 scan();
@@ -483,7 +766,7 @@ public final class ParserImpl extends Parser {
                 if (sym == comma) {
                     scan();
                     check(number);
-                    code.loadConst(t.val);
+                    code.loadConst(val());
                 } else {
                     code.loadConst(1);
                 }
@@ -540,21 +823,22 @@ public final class ParserImpl extends Parser {
             x.obj = tab.noObj;
         }
 
-        if (x.obj == tab.lenObj)
-            code.put(Code.OpCode.arraylength);
-        else if (x.obj != tab.ordObj && x.obj != tab.chrObj) {
-            code.put(Code.OpCode.call);
-            code.put2(x.adr - (code.pc - 1));
-        }
-
-        x.kind = Operand.Kind.Stack;
+        // the vararg parameter is passed as an array after the fixed ones
+        int nFixed = x.obj.hasVarArg ? x.obj.nPars - 1 : x.obj.nPars;
         int nPars = 0;
         Iterator<Obj> it = x.obj.locals.iterator();
 
+        StructImpl first = noType;
+
         if (firstExpr.contains(sym)) {
             Operand y = expr();
+            if (x.obj == tab.lenObj && isVarArgParam(y)) {
+                varArgUses--; // len does not let the array escape
+            }
+            code.load(y);
             nPars++;
-            if (it.hasNext() && !y.type.assignableTo(it.next().type)) {
+            first = y.type;
+            if (nPars <= nFixed && it.hasNext() && !y.type.assignableTo(it.next().type)) {
                 this.error(PARAM_TYPE);
             }
             if (x.obj == tab.chrObj && y.type.kind != Struct.Kind.Int
@@ -566,62 +850,184 @@ public final class ParserImpl extends Parser {
             while (sym == comma) {
                 scan();
                 y = expr();
+                code.load(y);
+                nPars++;
 
-                if (it.hasNext()  && !y.type.assignableTo(it.next().type)) {
-                    this.error(INCOMP_TYPES);
+                if (nPars <= nFixed && it.hasNext()
+                        && !y.type.assignableTo(parType(x.obj, nPars, it.next().type, first))) {
+                    this.error(PARAM_TYPE);
                 }
-                nPars++;
             }
         }
 
-        // check if the method doesn´t have varargs
-        if (nPars < x.obj.nPars && !x.obj.hasVarArg) {
+        if (nPars < nFixed) {
             this.error(LESS_ACTUAL_PARAMS);
-        } else if (nPars > x.obj.nPars) {
+        } else if (nPars > nFixed) {
             this.error(MORE_ACTUAL_PARAMS);
         }
 
+        boolean release = false;
         if (sym == hash) {
-            varargs();
+            release = varargs(x.obj);
+        } else if (x.obj.hasVarArg) {
+            release = newVarArgs(x.obj, 0);
         }
         check(rpar);
+
+        // element size of the arrays for the bulk array builtins
+        int elemKind = first.kind == Struct.Kind.Arr && first.elemType == charType ? 0 : 1;
+        if (x.obj == tab.lenObj) {
+            code.put(Code.OpCode.arraylength);
+        } else if (x.obj == tab.arraycopyObj) {
+            code.put(Code.OpCode.arraycopy);
+            code.put(elemKind);
+        } else if (x.obj == tab.fillObj) {
+            code.put(Code.OpCode.arrayfill);
+            code.put(elemKind);
+        } else if (x.obj == tab.equalsObj) {
+            code.put(Code.OpCode.arrayequals);
+            code.put(elemKind);
+        } else if (x.obj != tab.ordObj && x.obj != tab.chrObj) {
+            code.call(x.adr);
+        }
+        if (release) {
+            code.put(Code.OpCode.freevararg);
+        }
+        x.kind = Operand.Kind.Stack;
     }
 
-    private void varargs() {
+    /*
+     * the type the actual parameter n (counting from 1) must be assignable
+     * to, the bulk array builtins need arrays and values of the element
+     * type of the array that is passed first
+     */
+    private StructImpl parType(Obj meth, int n, StructImpl declared, StructImpl first) {
+        if (meth == tab.arraycopyObj && n == 3 || meth == tab.equalsObj && n == 2) {
+            return first;
+        } else if (meth == tab.fillObj && n == 2 && first.kind == Struct.Kind.Arr) {
+            return first.elemType;
+        }
+        return declared;
+    }
+
+    /*
+     * "#" number [expr {"," expr}], the values are stored into a new array
+     * that is passed to the vararg parameter of meth
+     */
+    private boolean varargs(Obj meth) {
         check(hash);
         check(number);
+        int n = val();
 
+        boolean release = meth.hasVarArg && newVarArgs(meth, n);
+        int count = 0;
         if (firstExpr.contains(sym)) {
-            expr();
+            varArg(meth, count++);
             while (sym == comma) {
                 scan();
-                expr();
+                varArg(meth, count++);
             }
         }
+
+        if (!meth.hasVarArg) {
+            this.error(INVALID_VARARG_CALL);
+        } else if (count < n) {
+            this.error(LESS_ACTUAL_VARARGS);
+        } else if (count > n) {
+            this.error(MORE_ACTUAL_VARARGS);
+        }
+        return release;
+    }
+
+    /*
+     * store the vararg with index idx into the array on top of the stack
+     */
+    private void varArg(Obj meth, int idx) {
+        if (!meth.hasVarArg) {
+            expr();
+            return;
+        }
+        StructImpl elemType = varArgParam(meth).type.elemType;
+        code.put(Code.OpCode.dup);
+        code.loadConst(idx);
+        Operand y = expr();
+        if (!y.type.assignableTo(elemType)) {
+            this.error(PARAM_TYPE);
+        }
+        code.load(y);
+        code.put(elemType == charType ? Code.OpCode.bastore : Code.OpCode.astore);
     }
 
-    private void condition() {
-        condTerm();
+    /*
+     * allocate the array for n varargs of meth, returns true if the array
+     * is released again after the call, which is possible if meth does not
+     * let the array escape (not known for the current method before its
+     * end)
+     */
+    private boolean newVarArgs(Obj meth, int n) {
+        boolean release = meth != curMethod && !meth.varArgEscapes;
+        code.loadConst(n);
+        code.put(release ? Code.OpCode.newvararg : Code.OpCode.newarray);
+        code.put(varArgParam(meth).type.elemType == charType ? 0 : 1);
+        return release;
+    }
+
+    private static Obj varArgParam(Obj meth) {
+        Iterator<Obj> it = meth.locals.iterator();
+        for (int i = 1; i < meth.nPars; i++) {
+            it.next();
+        }
+        return it.next();
+    }
+
+    /*
+     * return true if x is the vararg parameter of the current method
+     */
+    private boolean isVarArgParam(Operand x) {
+        return x.kind == Operand.Kind.Local && curMethod != null && curMethod.hasVarArg
+                && x.adr == curMethod.nPars - 1;
+    }
+
+    private Operand condition() {
+        Operand x = condTerm();
 
         while (sym == or) {
+            code.tJump(x);
             scan();
-            condTerm();
+            x.fLabel.here();
+            Operand y = condTerm();
+            x.fLabel = y.fLabel;
+            x.op = y.op;
+            x.immediate = y.immediate;
+            x.val = y.val;
         }
+        return x;
     }
 
-    private void condTerm() {
-        condFact();
+    private Operand condTerm() {
+        Operand x = condFact();
 
         while (sym == and) {
+            code.fJump(x);
             scan();
-            condFact();
+            Operand y = condFact();
+            x.op = y.op;
+            x.immediate = y.immediate;
+            x.val = y.val;
         }
+        return x;
     }
 
-    private void condFact() {
+    private Operand condFact() {
         Operand x = expr();
+        code.load(x);
         Code.OpCode c = relop();
         Operand y = expr();
+        // constants are compared directly by the jump instruction
+        boolean immediate = y.kind == Operand.Kind.Con && CodeImpl.isShort(y.val);
+        if (!immediate) {
+            code.load(y);
+        }
         // check for compatibility
         if(!x.type.compatibleWith(y.type)) {
             this.error(INCOMP_TYPES);
@@ -629,6 +1035,12 @@ public final class ParserImpl extends Parser {
                 && (c != Code.OpCode.jne && c != Code.OpCode.jeq)) {
             this.error(EQ_CHECK); // assure that arrays and classes are only checked for (in)equality
         }
+        // relop returns the jump instruction, which is in the same order as the compare operators
+        Code.CompOp op = c == Code.OpCode.nop ? Code.CompOp.eq : Code.CompOp.values()[c.code() - Code.OpCode.jeq.code()];
+        Operand cond = new Operand(op, code);
+        cond.immediate = immediate;
+        cond.val = y.val;
+        return cond;
     }
 
     private Code.OpCode relop() {
@@ -685,13 +1097,11 @@ public final class ParserImpl extends Parser {
             Code.OpCode c = addop();
             code.load(x);
             Operand y = term();
-            code.load(y);
+            code.arithmetic(c, y);
 
             if (x.type != intType || y.type != intType) {
                 this.error(NO_INT_OP);
             }
-
-            code.put(c);
         }
 
         return x;
@@ -704,13 +1114,11 @@ public final class ParserImpl extends Parser {
             Code.OpCode c = mulop();
             code.load(x);
             Operand y = factor();
-            code.load(y);
+            code.arithmetic(c, y);
 
             if (x.type != intType || y.type != intType) {
                 this.error(NO_INT_OP);
             }
-
-            code.put(c);
         }
 
         return x;
@@ -730,17 +1138,17 @@ public final class ParserImpl extends Parser {
                 break;
             case number:
                 scan();
-                x = new Operand(t.val);
+                x = new Operand(val());
                 break;
             case charConst:
                 scan();
-                x = new Operand(t.val);
+                x = new Operand(val());
                 x.type = charType;
                 break;
             case new_:
                 scan();
                 check(ident);
-                Obj obj = tab.find(t.str);
+                Obj obj = tab.find(str());
                 StructImpl type = obj.type;
 
                 if (obj.kind != Obj.Kind.Type) {
@@ -761,14 +1169,13 @@ public final class ParserImpl extends Parser {
                     } else {
                         code.put(1);
                     }
-                    type = new StructImpl(type);
+                    type = type.arrayType();
                     check(rbrack);
                 } else {
                     if (obj.type.kind != Struct.Kind.Class) {
                         this.error(NO_CLASS_TYPE);
                     }
-                    code.put(Code.OpCode.new_);
-                    code.put2(obj.type.nrFields());
+                    code.putS(Code.OpCode.new_, obj.type.nrFields());
                 }
 
                 x = new Operand(type);
@@ -788,7 +1195,10 @@ public final class ParserImpl extends Parser {
 
     private Operand designator() {
         check(ident);
-        Operand x = new Operand(tab.find(t.str), this);
+        Operand x = new Operand(tab.find(str()), this);
+        if (isVarArgParam(x) && sym != lbrack) {
+            varArgUses++;
+        }
         while (sym == period || sym == lbrack) {
             if (sym == period) {
                 if (x.type.kind != Struct.Kind.Class) {
@@ -798,7 +1208,7 @@ public final class ParserImpl extends Parser {
                 code.load(x);
                 check(ident);
 
-                Obj obj = tab.findField(t.str, x.type);
+                Obj obj = tab.findField(str(), x.type);
                 x.kind = Operand.Kind.Fld;
                 x.type = obj.type;
                 x.adr = obj.adr;
@@ -855,13 +1265,27 @@ public final class ParserImpl extends Parser {
         }
     }
 
+    /**
+     * Name of the last recognized token (null if it is no identifier).
+     */
+    private String str() {
+        return pos > 0 ? tokens.str(pos - 1) : null;
+    }
+
+    /**
+     * Value of the last recognized token.
+     */
+    private int val() {
+        return pos > 0 ? tokens.val(pos - 1) : 0;
+    }
+
     /**
      * puts the lookahead token in current one and scans the next
      */
     private void scan() {
-        t = la;
-        la = scanner.next();
-        sym = la.kind;
+        pos++;
+        tokens.fetch(pos, scanner.errors);
+        sym = tokens.kind(pos);
 
         errDist++;
     }
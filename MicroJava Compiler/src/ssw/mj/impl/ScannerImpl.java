@@ -3,37 +3,224 @@ package ssw.mj.impl;
 import ssw.mj.Scanner;
 import ssw.mj.Token;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
 import static ssw.mj.Errors.Message.*;
 import static ssw.mj.Token.Kind.*;
 
+/**
+ * Scans the source text from a character buffer. A source file is mapped into
+ * memory and decoded in one pass, a <code>Reader</code> is read block by block
+ * into the buffer before the first character is scanned. Names and numbers
+ * are decoded directly from the buffer.
+ */
 public final class ScannerImpl extends Scanner {
 
-    private final Map<String, Token.Kind> keyWords;
     private static final int ASCII_ZERO = 48; // integer value of '0' is 48
     private static final int MAX_INT_WITHOUT_LAST_POINT = 2147483640;
+    private static final int BLOCK_SIZE = 8192;
+
+    /**
+     * Character classes of the ASCII characters (bit set of the following
+     * flags), so a run of white space, name characters, digits or comment
+     * text is found with one table lookup per character.
+     */
+    private static final byte[] CHAR_CLASS = new byte[128];
+    /**
+     * White space other than line ends (<code>Character.isWhitespace</code>).
+     */
+    private static final byte BLANK = 1;
+    private static final byte LINE_END = 2;
+    private static final byte NAME = 4;
+    private static final byte DIGIT = 8;
+    /**
+     * Characters that end a run of comment text: '*', '/' and CR.
+     */
+    private static final byte COMMENT_STOP = 16;
+
+    static {
+        for (char c = 0; c < CHAR_CLASS.length; c++) {
+            if (c == LF || c == '\r') {
+                CHAR_CLASS[c] |= LINE_END;
+            } else if (Character.isWhitespace(c)) {
+                CHAR_CLASS[c] |= BLANK;
+            }
+            if (c >= '0' && c <= '9') {
+                CHAR_CLASS[c] |= DIGIT | NAME;
+            } else if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_') {
+                CHAR_CLASS[c] |= NAME;
+            }
+        }
+        CHAR_CLASS['*'] |= COMMENT_STOP;
+        CHAR_CLASS['/'] |= COMMENT_STOP;
+        CHAR_CLASS['\r'] |= COMMENT_STOP;
+    }
+
+    /**
+     * Source text, valid up to <code>end</code>; null until the reader has
+     * been read.
+     */
+    char[] buf;
+    int end;
+    /**
+     * Position of the next character in <code>buf</code>. The lookahead
+     * character <code>ch</code> is at <code>pos - 1</code>.
+     */
+    private int pos;
+    /**
+     * Names of this compilation.
+     */
+    final NameTable names;
+    /**
+     * Name id of the last identifier.
+     */
+    int name;
+    /**
+     * Source position of the last token (<code>end</code> for
+     * <code>eof</code>).
+     */
+    int tokenStart;
+    /**
+     * Kind, position and value (of numbers and character constants) of the
+     * last token scanned by <code>scan</code>.
+     */
+    Token.Kind kind;
+    int tokenLine, tokenCol;
+    int val;
 
     public ScannerImpl(Reader r) {
+        this(r, new NameTable());
+    }
+
+    private ScannerImpl(Reader r, NameTable names) {
         super(r);
+        this.names = names;
         line = 1;
         col = 0;
-        keyWords = new HashMap<>();
-        keyWords.put("break", break_);
-        keyWords.put("class", class_);
-        keyWords.put("else", else_);
-        keyWords.put("final", final_);
-        keyWords.put("if", if_);
-        keyWords.put("new", new_);
-        keyWords.put("print", print);
-        keyWords.put("read", read);
-        keyWords.put("program", program);
-        keyWords.put("return", return_);
-        keyWords.put("void", void_);
-        keyWords.put("while", while_);
+    }
+
+    /**
+     * Scans the first <code>len</code> characters of <code>src</code>. The
+     * array is not copied and must not be changed while scanning.
+     */
+    public ScannerImpl(char[] src, int len) {
+        this((Reader) null);
+        buf = src;
+        end = len;
+    }
+
+    public ScannerImpl(char[] src) {
+        this(src, src.length);
+    }
+
+    /**
+     * Like <code>ScannerImpl(src, len)</code>, but with the names of another
+     * scanner, so equal names get equal ids in both.
+     */
+    ScannerImpl(char[] src, int len, NameTable names) {
+        this(null, names);
+        buf = src;
+        end = len;
+    }
+
+    /**
+     * Continues scanning behind the line end at <code>start - 1</code>,
+     * which is in line <code>line - 1</code>, in the state a scanner has
+     * that reaches this line end outside of comments and tokens.
+     */
+    void startAt(int start, int line) {
+        pos = start;
+        ch = LF;
+        this.line = line;
+        col = 0;
+    }
+
+    /**
+     * Continues scanning with the token at <code>start</code> (the source
+     * length for <code>eof</code>), which is at <code>line</code> and
+     * <code>col</code>, in the state a scanner has that reaches this token.
+     */
+    void resumeAt(int start, int line, int col) {
+        pos = Math.min(start + 1, end);
+        ch = start < end ? buf[start] : EOF;
+        this.line = line;
+        this.col = col;
+    }
+
+    /**
+     * Continues scanning where <code>other</code> (scanning the same source)
+     * stopped.
+     */
+    void continueFrom(ScannerImpl other) {
+        pos = other.pos;
+        ch = other.ch;
+        line = other.line;
+        col = other.col;
+    }
+
+    /**
+     * Makes the whole source available in <code>buf</code>.
+     */
+    void load() {
+        if (buf == null) {
+            fill();
+        }
+    }
+
+    /**
+     * Scans the source file <code>file</code> in the platform's default
+     * encoding (like a <code>FileReader</code>). Pure ASCII files are widened
+     * directly from the mapped file.
+     */
+    public ScannerImpl(File file) throws IOException {
+        this(read(file));
+    }
+
+    private static char[] read(File file) throws IOException {
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer bytes = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            char[] src = new char[bytes.remaining()];
+            for (int i = 0; i < src.length; i++) {
+                byte b = bytes.get(i);
+                if (b < 0) { // not ASCII
+                    return decode(bytes);
+                }
+                src[i] = (char) b;
+            }
+            return src;
+        }
+    }
+
+    private static char[] decode(ByteBuffer bytes) {
+        CharBuffer chars = Charset.defaultCharset().decode(bytes);
+        return Arrays.copyOfRange(chars.array(), chars.arrayOffset() + chars.position(),
+                chars.arrayOffset() + chars.limit());
+    }
+
+    /**
+     * Reads the whole reader into the buffer.
+     */
+    private void fill() {
+        buf = new char[BLOCK_SIZE];
+        try {
+            for (int n = in.read(buf, 0, buf.length); n >= 0; n = in.read(buf, end, buf.length - end)) {
+                end += n;
+                if (end == buf.length) {
+                    buf = Arrays.copyOf(buf, 2 * buf.length);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -41,10 +228,28 @@ public final class ScannerImpl extends Scanner {
      */
     @Override
     public Token next() {
-        while (Character.isWhitespace(ch) || ch == '\t' || ch == LF || (col == 0 && ch == 0)) {
-            nextCh(); // skip white space and tabulator
+        scan();
+        Token t = new Token(kind, tokenLine, tokenCol);
+        if (kind == ident) {
+            t.str = names.name(name);
+        } else {
+            t.val = val;
         }
-        Token t = new Token(none, line, col);
+        return t;
+    }
+
+    /**
+     * Scans the next token into <code>kind</code>, <code>tokenLine</code>,
+     * <code>tokenCol</code>, <code>tokenStart</code> and <code>val</code>
+     * or <code>name</code> without allocating a <code>Token</code>.
+     */
+    void scan() {
+        skipWhiteSpace();
+        kind = none;
+        tokenLine = line;
+        tokenCol = col;
+        val = 0;
+        tokenStart = ch == EOF ? end : pos - 1;
 
         switch (ch) {
             //----- identifier or keyword
@@ -54,134 +259,134 @@ public final class ScannerImpl extends Scanner {
             case 'A': case 'B': case 'C': case 'D': case 'E': case 'F': case 'G': case 'H': case 'I': case 'J':
             case 'K': case 'L': case 'M': case 'N': case 'O': case 'P': case 'Q': case 'R': case 'S': case 'T':
             case 'U': case 'V': case 'W': case 'X': case 'Y': case 'Z':
-                readName(t); // distinguish between identifier and keyword
+                readName(); // distinguish between identifier and keyword
                 break;
             //----- number
             case '0': case '1': case '2': case '3': case '4':
             case '5': case '6': case '7': case '8': case '9':
-                readNumber(t);
+                readNumber();
                 break;
             case '-':
                 nextCh();
                 if (ch == '=') {
-                    t.kind = minusas;
+                    kind = minusas;
                     nextCh();
                 } else if (ch == '-') {
-                    t.kind = mminus;
+                    kind = mminus;
                     nextCh();
                 } else {
-                    t.kind = minus;
+                    kind = minus;
                 }
                 break;
             case '+':
                 nextCh();
                 if (ch == '=') {
-                    t.kind = plusas;
+                    kind = plusas;
                     nextCh();
                 } else if (ch == '+') {
-                    t.kind = pplus;
+                    kind = pplus;
                     nextCh();
                 } else {
-                    t.kind = plus;
+                    kind = plus;
                 }
                 break;
             case '/':
                 nextCh();
                 if (ch == '*') {
-                    skipComment(t);
-                    t = next();
+                    skipComment();
+                    scan();
                 } else if (ch == '=') {
-                    t.kind = slashas;
+                    kind = slashas;
                     nextCh();
                 } else {
-                    t.kind = slash;
+                    kind = slash;
                 }
                 break;
             case '*':
                 nextCh();
                 if (ch == '=') {
-                    t.kind = timesas;
+                    kind = timesas;
                     nextCh();
                 } else {
-                    t.kind = times;
+                    kind = times;
                 }
                 break;
             case '%':
                 nextCh();
                 if (ch == '=') {
-                    t.kind = remas;
+                    kind = remas;
                     nextCh();
                 } else {
-                    t.kind = rem;
+                    kind = rem;
                 }
                 break;
             case '=':
                 nextCh();
                 if (ch == '=') {
-                    t.kind = eql;
+                    kind = eql;
                     nextCh();
                 } else {
-                    t.kind = assign;
+                    kind = assign;
                 }
                 break;
             case '!':
                 nextCh();
                 if (ch == '=') {
-                    t.kind = neq;
+                    kind = neq;
                     nextCh();
                 } else {
-                    errors.error(t.line, t.col, INVALID_CHAR, '!');
+                    errors.error(tokenLine, tokenCol, INVALID_CHAR, '!');
                 }
                 break;
             case '<':
                 nextCh();
                 if (ch == '=') {
-                    t.kind = leq;
+                    kind = leq;
                     nextCh();
                 } else {
-                    t.kind = lss;
+                    kind = lss;
                 }
                 break;
             case '>':
                 nextCh();
                 if (ch == '=') {
-                    t.kind = geq;
+                    kind = geq;
                     nextCh();
                 } else {
-                    t.kind = gtr;
+                    kind = gtr;
                 }
                 break;
             case '&':
                 nextCh();
                 if (ch == '&') {
-                    t.kind = and;
+                    kind = and;
                     nextCh();
                 } else {
-                    errors.error(t.line, t.col, INVALID_CHAR, '&');
+                    errors.error(tokenLine, tokenCol, INVALID_CHAR, '&');
                 }
                 break;
             case '|':
                 nextCh();
                 if (ch == '|') {
-                    t.kind = or;
+                    kind = or;
                     nextCh();
                 } else {
-                    errors.error(t.line, t.col, INVALID_CHAR, '|');
+                    errors.error(tokenLine, tokenCol, INVALID_CHAR, '|');
                 }
                 break;
             case '\'':
-                readCharConst(t);
+                readCharConst();
                 break;
             case ';':
-                t.kind = semicolon;
+                kind = semicolon;
                 nextCh();
                 break;
             case ',':
-                t.kind = comma;
+                kind = comma;
                 nextCh();
                 break;
             case '#':
-                t.kind = hash;
+                kind = hash;
                 nextCh();
                 break;
             case '.':
@@ -189,173 +394,282 @@ public final class ScannerImpl extends Scanner {
                 if (ch == '.') {
                     nextCh();
                     if (ch == '.') {
-                        t.kind = ppperiod;
+                        kind = ppperiod;
                     } else {
-                        t.kind = pperiod;
+                        kind = pperiod;
                     }
                     nextCh();
                 } else {
-                    t.kind = period;
+                    kind = period;
                 }
                 break;
             case '(':
-                t.kind = lpar;
+                kind = lpar;
                 nextCh();
                 break;
             case ')':
-                t.kind = rpar;
+                kind = rpar;
                 nextCh();
                 break;
             case '{':
-                t.kind = lbrace;
+                kind = lbrace;
                 nextCh();
                 break;
             case '}':
-                t.kind = rbrace;
+                kind = rbrace;
                 nextCh();
                 break;
             case '[':
-                t.kind = lbrack;
+                kind = lbrack;
                 nextCh();
                 break;
             case ']':
-                t.kind = rbrack;
+                kind = rbrack;
                 nextCh();
                 break;
             case EOF:
-                t.kind = eof;
+                kind = eof;
                 break;
             default:
                 // fill ch and restart method if no character has been read yet
-                error(t, INVALID_CHAR, ch);
+                errors.error(tokenLine, tokenCol, INVALID_CHAR, ch);
                 nextCh();
                 break;
         }
+    }
 
-        return t;
+    /**
+     * Skips white space, tabulators and line ends. Blanks within a line are
+     * skipped in one run.
+     */
+    private void skipWhiteSpace() {
+        while (isWhiteSpace(ch) || (col == 0 && ch == 0)) {
+            int p = pos;
+            while (p < end && buf[p] < 128 && (CHAR_CLASS[buf[p]] & BLANK) != 0) {
+                p++;
+            }
+            if (p > pos) {
+                skipTo(p);
+            } else {
+                nextCh();
+            }
+        }
+    }
+
+    private static boolean isWhiteSpace(char c) {
+        return c < 128 ? (CHAR_CLASS[c] & (BLANK | LINE_END)) != 0 : Character.isWhitespace(c);
     }
 
     /**
      * reads a character constant
      */
-    private void readCharConst(Token t) {
+    private void readCharConst() {
         boolean endOfConst = false; // used to check if endOfConst is present in quotes
         nextCh(); // read next character
 
         if (ch == '\'') { // empty char const ''
-            errors.error(t.line, t.col, EMPTY_CHARCONST);
+            errors.error(tokenLine, tokenCol, EMPTY_CHARCONST);
             nextCh();
             endOfConst = true; // charConst ends immediately when empty
         } else if (ch == '\\') { // escape sequences
             nextCh(); // next ch musst be either r, n, \ or whitespace
             switch (ch) {
                 case 'r':
-                    t.val = '\r';
+                    val = '\r';
                     break;
                 case 'n':
-                    t.val = '\n';
+                    val = '\n';
                     break;
                 case '\\':
-                    t.val = '\\';
+                    val = '\\';
                     break;
                 case ' ':
-                    t.val = ' ';
+                    val = ' ';
                     break;
                 case '\'': // missing quote will be handled later on
-                    t.val = '\'';
+                    val = '\'';
                     break;
                 default:
-                    errors.error(t.line, t.col, UNDEFINED_ESCAPE, ch);
+                    errors.error(tokenLine, tokenCol, UNDEFINED_ESCAPE, ch);
                     break;
             }
         } else if (ch == LF) { // newline in charconst
-            errors.error(t.line, t.col, ILLEGAL_LINE_END);
+            errors.error(tokenLine, tokenCol, ILLEGAL_LINE_END);
             endOfConst = true; // charConst ends on line end
         } else if (ch == EOF) {
-            errors.error(t.line, t.col, EOF_IN_CHAR);
+            errors.error(tokenLine, tokenCol, EOF_IN_CHAR);
             endOfConst = true; // charConst ends on end of file
         } else {
-            t.val = ch; // set value if the character is valid
+            val = ch; // set value if the character is valid
         }
 
         if (!endOfConst) { // an endOfConst also ends a charconst
             nextCh();
 
             if (ch != '\'') { // charconst must end with "'"
-                errors.error(t.line, t.col, MISSING_QUOTE);
-                t.val = '\0';
+                errors.error(tokenLine, tokenCol, MISSING_QUOTE);
+                val = '\0';
             } else {
                 nextCh();
             }
         }
 
-        t.kind = charConst;
+        kind = charConst;
     }
 
     /**
-     * return true if keyWords-map contains the method-parameter
+     * Returns the keyword <code>buf[start .. start + len - 1]</code> or null
+     * if it is no keyword. The first character and the length select the
+     * only candidate.
      */
-    private boolean isKeyWord(String word) {
-        return this.keyWords.containsKey(word);
+    private static Token.Kind keyWord(char[] buf, int start, int len) {
+        Token.Kind kind;
+        switch (buf[start]) {
+            case 'b': kind = break_; break;
+            case 'c': kind = class_; break;
+            case 'e': kind = else_; break;
+            case 'f': kind = final_; break;
+            case 'i': kind = if_; break;
+            case 'n': kind = new_; break;
+            case 'p': kind = len == 5 ? print : program; break;
+            case 'r': kind = len == 4 ? read : return_; break;
+            case 'v': kind = void_; break;
+            case 'w': kind = while_; break;
+            default: return null;
+        }
+        String word = kind.label();
+        if (word.length() != len) {
+            return null;
+        }
+        for (int i = 1; i < len; i++) {
+            if (word.charAt(i) != buf[start + i]) {
+                return null;
+            }
+        }
+        return kind;
     }
 
     /**
      * calls nextCh until name is fully read and updates token
      */
-    private void readName(Token t) {
-        StringBuilder word = new StringBuilder();
-        // iterate over character stream unti a whitespace is reached
-        while ((ch >= 48 && ch <= 57) || (ch >= 65 && ch<= 90)
-                || (ch >= 97 && ch <= 122) || ch == '_') {
-            word.append(ch);
-            nextCh();
+    private void readName() {
+        int start = pos - 1;
+        // the name ends at the first character that is no letter, digit or '_'
+        int p = pos;
+        while (p < end && isNameChar(buf[p])) {
+            p++;
         }
+        skipTo(p);
 
-        if (isKeyWord(word.toString())) {
-            t.kind = this.keyWords.get(word.toString());
+        char[] word = buf;
+        int len = p - start;
+        if (isNameChar(ch)) { // the name continues behind a CR
+            StringBuilder sb = new StringBuilder().append(buf, start, len);
+            while (isNameChar(ch)) {
+                sb.append(ch);
+                nextCh();
+            }
+            word = sb.toString().toCharArray();
+            start = 0;
+            len = word.length;
+        }
+        Token.Kind keyWord = keyWord(word, start, len);
+        if (keyWord != null) {
+            kind = keyWord;
         } else {
-            t.kind = ident;
-            t.str = word.toString();
+            kind = ident;
+            name = names.id(word, start, len);
         }
     }
 
+    private static boolean isNameChar(char c) {
+        return c < 128 && (CHAR_CLASS[c] & NAME) != 0;
+    }
+
+    private static boolean isDigit(char c) {
+        return c < 128 ? (CHAR_CLASS[c] & DIGIT) != 0 : Character.isDigit(c);
+    }
+
     /**
      * calls nextCh until number is fully read and updates token
      */
-    private void readNumber(Token t) {
-        StringBuilder stringValue = new StringBuilder();
-
-        while (Character.isDigit(ch)) {
-            stringValue.append(ch);
-            nextCh();
+    private void readNumber() {
+        int start = pos - 1;
+        long value = 0;
+        boolean ascii = true;
+        int p = start;
+        for (; p < end && isDigit(buf[p]); p++) {
+            char c = buf[p];
+            if (c > '9') { // digit of another script
+                ascii = false;
+            } else if (value <= Integer.MAX_VALUE) {
+                value = 10 * value + (c - ASCII_ZERO);
+            }
         }
+        skipTo(p);
 
-        try {
-            t.val = Integer.parseInt(stringValue.toString());
-        } catch (NumberFormatException ex) {
-            errors.error(t.line, t.col, BIG_NUM, stringValue.toString());
-            t.val = 0;
+        String digits = null; // only needed for errors and unusual numbers
+        if (isDigit(ch)) { // the number continues behind a CR
+            StringBuilder sb = new StringBuilder().append(buf, start, p - start);
+            while (isDigit(ch)) {
+                sb.append(ch);
+                nextCh();
+            }
+            digits = sb.toString();
+        } else if (!ascii) {
+            digits = new String(buf, start, p - start);
+        }
+        if (digits != null) {
+            // let the library decide about the other digits
+            try {
+                value = Integer.parseInt(digits);
+            } catch (NumberFormatException ex) {
+                value = (long) Integer.MAX_VALUE + 1;
+            }
+        }
+        if (value > Integer.MAX_VALUE) {
+            errors.error(tokenLine, tokenCol, BIG_NUM, digits != null ? digits : new String(buf, start, p - start));
+            val = 0;
+        } else {
+            val = (int) value;
         }
 
-        t.kind = number;
+        kind = number;
     }
 
     /**
      * iterates over chars until end of comment is reached
      */
-    private void skipComment(Token t) {
+    private void skipComment() {
         int commentCount = 1;
         char lastCh = ' ';
 
         // iterate over comment block until comment counter is 0
         while (commentCount > 0) {
             if (ch == EOF) {
-                t.kind = eof;
-                errors.error(t.line, t.col, EOF_IN_COMMENT);
+                errors.error(tokenLine, tokenCol, EOF_IN_COMMENT);
                 return;
-            } else {
-                nextCh(); // skipt first '*' therefore call method at the start of the loop
             }
+            // skip comment text up to the next '*', '/' or CR in one run
+            int p = pos;
+            for (; p < end; p++) {
+                char c = buf[p];
+                if (c == LF) {
+                    line++;
+                    col = 0;
+                } else if (c < 128 ? (CHAR_CLASS[c] & COMMENT_STOP) == 0 : c != EOF) {
+                    col++;
+                } else {
+                    break;
+                }
+            }
+            if (p > pos) {
+                pos = p;
+                ch = buf[p - 1];
+                lastCh = ch;
+                continue;
+            }
+            nextCh(); // skipt first '*' therefore call method at the start of the loop
 
             if (lastCh == '*' && ch == '/') { // decrement counter if inner comment was closed
                 commentCount--;
@@ -373,27 +687,36 @@ public final class ScannerImpl extends Scanner {
         nextCh();
     }
 
+    /**
+     * Continues scanning at <code>buf[p]</code>, skipping the characters up
+     * to <code>p</code>, which must not contain line ends.
+     */
+    private void skipTo(int p) {
+        col += p - pos;
+        pos = p;
+        nextCh();
+    }
+
     /**
      * Returns next character
      */
     private void nextCh() {
-        try {
-            if (ch != EOF) { // only incrment line and col if end of file is not reached
-                ch = (char) in.read();
+        if (buf == null) {
+            fill();
+        }
+        if (ch != EOF) { // only incrment line and col if end of file is not reached
+            ch = pos < end ? buf[pos++] : EOF;
 
-                if (ch == '\r') { // read next character if we come across CR
-                    ch = (char) in.read();
-                }
+            if (ch == '\r') { // read next character if we come across CR
+                ch = pos < end ? buf[pos++] : EOF;
+            }
 
-                if (ch == LF) {
-                    line++; // increment line at newline
-                    col = 0; // reset column at newline
-                } else {
-                    col++;
-                }
+            if (ch == LF) {
+                line++; // increment line at newline
+                col = 0; // reset column at newline
+            } else {
+                col++;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 }
@@ -3,7 +3,15 @@ package ssw.mj.impl;
 import ssw.mj.symtab.Struct;
 import ssw.mj.symtab.Tab;
 
+/**
+ * Array types are unique per element type (see <code>arrayType</code>), so
+ * all types are equal only if they are identical.
+ */
 public final class StructImpl extends Struct {
+    /**
+     * The type of arrays of this type, created on first use.
+     */
+    private volatile StructImpl arrayType;
 
     private StructImpl(Kind kind, StructImpl elemType) {
         super(kind, elemType);
@@ -13,10 +21,29 @@ public final class StructImpl extends Struct {
         super(kind);
     }
 
-    public StructImpl(StructImpl elemType) {
+    private StructImpl(StructImpl elemType) {
         super(elemType);
     }
 
+    /**
+     * Returns the type of arrays with elements of this type, always the same
+     * instance for this type. Thread-safe, since the universe types are
+     * shared by all compilations.
+     */
+    public StructImpl arrayType() {
+        StructImpl a = arrayType;
+        if (a == null) {
+            synchronized (this) {
+                a = arrayType;
+                if (a == null) {
+                    a = new StructImpl(this);
+                    arrayType = a;
+                }
+            }
+        }
+        return a;
+    }
+
     @Override
     public boolean compatibleWith(StructImpl other) {
         return this.equals(other) ||
@@ -39,11 +66,6 @@ public final class StructImpl extends Struct {
     }
 
     boolean equals(Struct other) {
-        if (kind == Kind.Arr) {
-            return other.kind == Kind.Arr &&
-                    elemType.equals(other.elemType);
-        } else {
-            return this == other;
-        }
+        return this == other;
     }
 }
@@ -9,44 +9,78 @@ import ssw.mj.symtab.Tab;
 import static ssw.mj.Errors.Message.*;
 
 public final class TabImpl extends Tab {
+    /**
+     * The "universe" (= predefined names), built once and shared by all
+     * compilations (also concurrent ones), which only read it. The scope is
+     * frozen, so nothing can be declared in it (every compilation declares
+     * its program in a copy), and its declarations and the parameters of the
+     * predefined methods are unmodifiable lists. The attributes of its
+     * objects (<code>adr</code>, <code>nPars</code>, <code>level</code>,
+     * <code>locals</code> etc. of <code>chrObj</code> ... <code>equalsObj</code>)
+     * are public fields like those of all objects, but callers must never
+     * write to them: a change would be seen by every other compilation.
+     */
+    private static final Scope UNIVERSE = new Scope(null);
+    private static final Obj CHR, ORD, LEN, ARRAYCOPY, FILL, EQUALS;
+
+    static {
+        predefined(UNIVERSE, Obj.Kind.Type, "int", intType);
+        predefined(UNIVERSE, Obj.Kind.Type, "char", charType);
+
+        predefined(UNIVERSE, Obj.Kind.Con, "null", nullType);
+
+        CHR = method("chr", charType, new String[]{"i"}, intType);
+        ORD = method("ord", intType, new String[]{"ch"}, charType);
+        // any array is assignable to an array of noType (the same type for
+        // all of these parameters)
+        LEN = method("len", intType, new String[]{"arr"}, noType.arrayType());
+
+        // bulk array operations, the parser checks that the arrays and
+        // values match the element type of the first array
+        ARRAYCOPY = method("arraycopy", noType, new String[]{"src", "srcPos", "dst", "dstPos", "n"},
+                noType.arrayType(), intType, noType.arrayType(), intType, intType);
+        FILL = method("fill", noType, new String[]{"arr", "val"}, noType.arrayType(), intType);
+        EQUALS = method("equals", intType, new String[]{"a", "b"}, noType.arrayType(), noType.arrayType());
+
+        UNIVERSE.freeze();
+    }
 
     /**
-     * Set up "universe" (= predefined names).
+     * Set up the symbol table with the universe as the current scope.
      */
     public TabImpl(Parser p) {
         super(p);
-        openScope();
+        curScope = UNIVERSE.copy();
+        curLevel = -1;
 
         noObj = new Obj(Obj.Kind.Var, "$none", noType);
 
-        insert(Obj.Kind.Type, "int", intType);
-        insert(Obj.Kind.Type, "char", charType);
-
-        insert(Obj.Kind.Con, "null", nullType);
-
-        Obj chr = insert(Obj.Kind.Meth, "chr", charType);
-        chr.nPars++;
-        openScope();
-        Obj i = insert(Obj.Kind.Var, "i", intType);
-        i.level = 1;
-        chr.locals = curScope.locals();
-        closeScope();
-
-        Obj ord = insert(Obj.Kind.Meth, "ord", intType);
-        ord.nPars++;
-        openScope();
-        Obj ch = insert(Obj.Kind.Var, "ch", charType);
-        ch.level = 1;
-        ord.locals = curScope.locals();
-        closeScope();
-
-        Obj len = insert(Obj.Kind.Meth, "len", intType);
-        len.nPars++;
-        openScope();
-        Obj arr = insert(Obj.Kind.Var, "arr", new StructImpl(noType));
-        arr.level = 1;
-        len.locals = curScope.locals();
-        closeScope();
+        chrObj = CHR;
+        ordObj = ORD;
+        lenObj = LEN;
+        arraycopyObj = ARRAYCOPY;
+        fillObj = FILL;
+        equalsObj = EQUALS;
+    }
+
+    private static Obj predefined(Scope scope, Obj.Kind kind, String name, StructImpl type) {
+        Obj obj = new Obj(kind, name, type);
+        obj.adr = scope.nVars();
+        scope.insert(obj);
+        return obj;
+    }
+
+    private static Obj method(String name, StructImpl type, String[] parNames, StructImpl... parTypes) {
+        Obj meth = predefined(UNIVERSE, Obj.Kind.Meth, name, type);
+        Scope pars = new Scope(UNIVERSE);
+        for (int i = 0; i < parNames.length; i++) {
+            Obj par = predefined(pars, Obj.Kind.Var, parNames[i], parTypes[i]);
+            par.level = 1;
+            meth.nPars++;
+        }
+        pars.freeze();
+        meth.locals = pars.locals();
+        return meth;
     }
 
     public void openScope() {
@@ -54,6 +88,15 @@ public final class TabImpl extends Tab {
         curLevel++;
     }
 
+    /**
+     * Opens <code>scope</code> of an earlier parse again, e.g. to parse a
+     * single method body in it.
+     */
+    public void reopenScope(Scope scope) {
+        curScope = scope;
+        curLevel++;
+    }
+
     public void closeScope() {
         curScope = curScope.outer();
         curLevel--;
@@ -0,0 +1,367 @@
+package ssw.mj.impl;
+
+import ssw.mj.Errors;
+import ssw.mj.Token;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static ssw.mj.Token.Kind.eof;
+import static ssw.mj.Token.Kind.ident;
+
+/**
+ * The tokens of a source text in parallel arrays instead of
+ * <code>Token</code> objects. Tokens are scanned on demand, the parser moves
+ * a cursor (token index) over the buffer. Lexical errors go to the errors of
+ * the scanner when a token is scanned. They are also recorded per token, so
+ * a buffer can be parsed again with a different <code>Errors</code> object
+ * without scanning the source again.
+ */
+public final class TokenBuffer {
+    private static final Token.Kind[] KINDS = Token.Kind.values();
+
+    final ScannerImpl scanner;
+
+    private int size;
+    private byte[] kinds;
+    private int[] lines;
+    private int[] cols;
+    /**
+     * Source position of every token.
+     */
+    private int[] starts;
+    /**
+     * Value of numbers and character constants, name id of identifiers.
+     */
+    private int[] vals;
+    /**
+     * Lexical errors of token <code>i</code> are
+     * <code>messages[errEnd[i - 1] .. errEnd[i] - 1]</code>.
+     */
+    private int[] errEnd;
+    private final List<Errors.Entry> messages = new ArrayList<>();
+
+    /**
+     * For a buffer made by <code>edit</code>: the tokens
+     * <code>editFrom .. editTo - 1</code> were scanned again, they replace
+     * the tokens <code>editFrom .. editOldTo - 1</code> of the old buffer.
+     * The tokens in front are the same in both buffers, the tokens behind
+     * are moved by <code>editTo - editOldTo</code>.
+     */
+    int editFrom, editTo, editOldTo;
+
+    public TokenBuffer(ScannerImpl scanner) {
+        this(scanner, 1024);
+    }
+
+    /**
+     * Empty buffer with room for <code>capacity</code> tokens.
+     */
+    TokenBuffer(ScannerImpl scanner, int capacity) {
+        this.scanner = scanner;
+        int n = Math.max(capacity, 16);
+        kinds = new byte[n];
+        lines = new int[n];
+        cols = new int[n];
+        starts = new int[n];
+        vals = new int[n];
+        errEnd = new int[n];
+    }
+
+    /**
+     * Scans the whole source text of <code>scanner</code> up to and
+     * including the <code>eof</code> token.
+     */
+    public static TokenBuffer lex(ScannerImpl scanner) {
+        TokenBuffer tokens = new TokenBuffer(scanner);
+        do {
+            tokens.scan();
+        } while (tokens.kind(tokens.size - 1) != eof);
+        return tokens;
+    }
+
+    /**
+     * Like <code>lex</code>, but scans chunks of the source concurrently on
+     * <code>pool</code>. The tokens and errors are exactly those of
+     * <code>lex</code>. <code>scanner</code> must not have scanned anything
+     * yet.
+     */
+    public static TokenBuffer lexParallel(ScannerImpl scanner, ForkJoinPool pool) {
+        return new ParallelLexer(scanner, pool, ParallelLexer.MIN_CHUNK_SIZE).lex();
+    }
+
+    /**
+     * Like <code>lexParallel(scanner, pool)</code>, but with chunks of about
+     * <code>chunkSize</code> characters.
+     */
+    public static TokenBuffer lexParallel(ScannerImpl scanner, ForkJoinPool pool, int chunkSize) {
+        return new ParallelLexer(scanner, pool, chunkSize).lex();
+    }
+
+    /**
+     * Number of tokens scanned so far.
+     */
+    public int size() {
+        return size;
+    }
+
+    public Token.Kind kind(int i) {
+        return KINDS[kinds[i]];
+    }
+
+    public int line(int i) {
+        return lines[i];
+    }
+
+    public int col(int i) {
+        return cols[i];
+    }
+
+    /**
+     * Position of the first character of token <code>i</code> in the
+     * source (the source length for <code>eof</code>).
+     */
+    public int start(int i) {
+        return starts[i];
+    }
+
+    /**
+     * Index of the first token from <code>from</code> on that starts at or
+     * behind source position <code>pos</code>, <code>size()</code> if there
+     * is none.
+     */
+    int indexAt(int from, int pos) {
+        int lo = from, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] < pos) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    public int val(int i) {
+        return kinds[i] == ident.ordinal() ? 0 : vals[i];
+    }
+
+    /**
+     * Name of identifier <code>i</code>, null for other tokens.
+     */
+    public String str(int i) {
+        return kinds[i] == ident.ordinal() ? scanner.names.name(vals[i]) : null;
+    }
+
+    /**
+     * Id of the name of identifier <code>i</code>; equal names have equal
+     * ids.
+     */
+    public int nameId(int i) {
+        return kinds[i] == ident.ordinal() ? vals[i] : -1;
+    }
+
+    public Token token(int i) {
+        Token t = new Token(kind(i), lines[i], cols[i]);
+        t.val = val(i);
+        t.str = str(i);
+        return t;
+    }
+
+    /**
+     * Makes token <code>i</code> available, scanning it if necessary. If
+     * <code>errors</code> is not the error list of the scanner, the lexical
+     * errors of the token are reported to it. Must be called for the tokens
+     * in ascending order.
+     */
+    void fetch(int i, Errors errors) {
+        while (size <= i) {
+            scan();
+        }
+        if (errors != scanner.errors) {
+            for (int k = i > 0 ? errEnd[i - 1] : 0; k < errEnd[i]; k++) {
+                errors.add(messages.get(k));
+            }
+        }
+    }
+
+    /**
+     * True if token <code>i</code> equals token <code>j</code> of
+     * <code>other</code> (including position and errors).
+     */
+    boolean same(int i, TokenBuffer other, int j) {
+        if (kinds[i] != other.kinds[j] || lines[i] != other.lines[j] || cols[i] != other.cols[j]
+                || starts[i] != other.starts[j] || val(i) != other.val(j) || str(i) != other.str(j)
+                || errEnd[i] - (i > 0 ? errEnd[i - 1] : 0) != other.errEnd[j] - (j > 0 ? other.errEnd[j - 1] : 0)) {
+            return false;
+        }
+        for (int k = i > 0 ? errEnd[i - 1] : 0, l = j > 0 ? other.errEnd[j - 1] : 0; k < errEnd[i]; k++, l++) {
+            if (!messages.get(k).equals(other.messages.get(l))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends the tokens <code>from .. to - 1</code> of <code>other</code>
+     * and reports their errors to the errors of the scanner.
+     * <code>ids</code> maps name ids of <code>other</code> to name ids of
+     * this buffer (0 if unknown, else <code>id + 1</code>); it is returned,
+     * grown if necessary.
+     */
+    int[] append(TokenBuffer other, int from, int to, int[] ids) {
+        int n = to - from;
+        if (size + n > kinds.length) {
+            grow(size + n);
+        }
+        System.arraycopy(other.kinds, from, kinds, size, n);
+        System.arraycopy(other.lines, from, lines, size, n);
+        System.arraycopy(other.cols, from, cols, size, n);
+        System.arraycopy(other.starts, from, starts, size, n);
+        System.arraycopy(other.vals, from, vals, size, n);
+        if (ids.length < other.scanner.names.size()) {
+            ids = Arrays.copyOf(ids, 2 * other.scanner.names.size());
+        }
+        int msgStart = from > 0 ? other.errEnd[from - 1] : 0;
+        for (int i = size; i < size + n; i++) {
+            if (kinds[i] == ident.ordinal()) {
+                int id = vals[i];
+                if (ids[id] == 0) {
+                    ids[id] = scanner.names.id(other.scanner.names.name(id)) + 1;
+                }
+                vals[i] = ids[id] - 1;
+            }
+        }
+        if (other.errEnd[to - 1] == msgStart) { // no errors, the common case
+            Arrays.fill(errEnd, size, size + n, messages.size());
+        } else {
+            for (int i = 0; i < n; i++) {
+                errEnd[size + i] = messages.size() + other.errEnd[from + i] - msgStart;
+            }
+        }
+        for (int k = msgStart; k < other.errEnd[to - 1]; k++) {
+            messages.add(other.messages.get(k));
+            scanner.errors.add(other.messages.get(k));
+        }
+        size += n;
+        return ids;
+    }
+
+    /**
+     * Returns the tokens of the source of <code>scanner</code>, which is the
+     * source of this buffer with the <code>removed</code> characters at
+     * <code>offset</code> replaced by <code>inserted</code> characters
+     * containing <code>lineDelta</code> more line ends. Scanning starts again
+     * at the last token in front of the change and stops at the first token
+     * behind it that starts in the same state as a token of this buffer
+     * (same character, line moved by <code>lineDelta</code>); the remaining
+     * tokens are taken from this buffer with moved positions (the column
+     * only matters up to the next line end, where it is reset).
+     * This buffer must be complete (up to <code>eof</code>) and
+     * <code>scanner</code> must share its names.
+     */
+    TokenBuffer edit(ScannerImpl scanner, int offset, int removed, int inserted, int lineDelta) {
+        TokenBuffer res = new TokenBuffer(scanner);
+        int from = size - 1;
+        while (from > 0 && starts[from] >= offset) {
+            from--;
+        }
+        if (from > 0) {
+            res.take(this, 0, from, 0, 0, 0, 0);
+            scanner.resumeAt(starts[from], lines[from], cols[from]);
+        }
+        res.editFrom = from;
+        int delta = inserted - removed;
+        int i = from; // candidate token of this buffer
+        for (; ; ) {
+            res.scan();
+            int j = res.size - 1;
+            if (res.kinds[j] == eof.ordinal()) {
+                res.editTo = res.size;
+                res.editOldTo = size;
+                break;
+            }
+            if (res.starts[j] >= offset + inserted) {
+                int start = res.starts[j] - delta;
+                while (i < size && starts[i] < start) {
+                    i++;
+                }
+                if (i < size - 1 && starts[i] == start && lines[i] + lineDelta == res.lines[j]) {
+                    res.editTo = res.size;
+                    res.editOldTo = i + 1;
+                    res.take(this, i + 1, size, delta, lineDelta, lines[i], res.cols[j] - cols[i]);
+                    // further (eof) tokens
+                    scanner.resumeAt(scanner.end, res.lines[res.size - 1], res.cols[res.size - 1]);
+                    break;
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Appends the tokens <code>from .. to - 1</code> of <code>other</code>,
+     * which has the same names, moved by <code>startShift</code> characters
+     * and <code>lineShift</code> lines; tokens and errors in line
+     * <code>line</code> are also moved by <code>colShift</code> columns.
+     */
+    private void take(TokenBuffer other, int from, int to, int startShift, int lineShift, int line, int colShift) {
+        int n = to - from;
+        if (size + n > kinds.length) {
+            grow(size + n);
+        }
+        System.arraycopy(other.kinds, from, kinds, size, n);
+        System.arraycopy(other.vals, from, vals, size, n);
+        int msgStart = from > 0 ? other.errEnd[from - 1] : 0;
+        for (int i = 0; i < n; i++) {
+            cols[size + i] = other.lines[from + i] == line ? other.cols[from + i] + colShift : other.cols[from + i];
+            lines[size + i] = other.lines[from + i] + lineShift;
+            starts[size + i] = other.starts[from + i] + startShift;
+            errEnd[size + i] = messages.size() + other.errEnd[from + i] - msgStart;
+        }
+        for (int k = msgStart; k < other.errEnd[to - 1]; k++) {
+            messages.add(lineShift == 0 && colShift == 0 ? other.messages.get(k)
+                    : other.messages.get(k).move(line, lineShift, colShift));
+        }
+        size += n;
+    }
+
+    /**
+     * Scans the next token.
+     */
+    void scan() {
+        int nErrors = scanner.errors.numErrors();
+        scanner.scan();
+        grow();
+        kinds[size] = (byte) scanner.kind.ordinal();
+        lines[size] = scanner.tokenLine;
+        cols[size] = scanner.tokenCol;
+        starts[size] = scanner.tokenStart;
+        vals[size] = scanner.kind == ident ? scanner.name : scanner.val;
+        for (int k = nErrors; k < scanner.errors.numErrors(); k++) {
+            messages.add(scanner.errors.entry(k));
+        }
+        errEnd[size] = messages.size();
+        size++;
+    }
+
+    private void grow() {
+        if (size == kinds.length) {
+            grow(size + 1);
+        }
+    }
+
+    private void grow(int minSize) {
+        int n = Math.max(2 * kinds.length, minSize);
+        kinds = Arrays.copyOf(kinds, n);
+        lines = Arrays.copyOf(lines, n);
+        cols = Arrays.copyOf(cols, n);
+        starts = Arrays.copyOf(starts, n);
+        vals = Arrays.copyOf(vals, n);
+        errEnd = Arrays.copyOf(errEnd, n);
+    }
+}
@@ -0,0 +1,74 @@
+package ssw.mj.opt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A basic block of a method: the instructions <code>start</code> (inclusive)
+ * to <code>end</code> (exclusive) of the instruction list. Only the first
+ * instruction of a block is a jump target and only the last one is a jump.
+ */
+final class Block {
+    /**
+     * Index of the first instruction.
+     */
+    final int start;
+    /**
+     * Index after the last instruction.
+     */
+    int end;
+    /**
+     * Blocks that continue with this block.
+     */
+    final List<Block> preds = new ArrayList<>();
+    /**
+     * Blocks this block continues with.
+     */
+    final List<Block> succs = new ArrayList<>();
+
+    private Block(int start) {
+        this.start = start;
+    }
+
+    /**
+     * Splits the instructions of <code>m</code> into basic blocks and links
+     * them. The first block is the entry block.
+     */
+    static List<Block> of(MethodCode m) {
+        List<Instruction> code = m.code;
+        Set<Instruction> targets = m.jumpTargets();
+        List<Block> blocks = new ArrayList<>();
+        Map<Instruction, Block> blockAt = new HashMap<>();
+        Block b = null;
+        for (int n = 0; n < code.size(); n++) {
+            Instruction i = code.get(n);
+            if (b == null || targets.contains(i) || code.get(n - 1).endsBlock()) {
+                b = new Block(n);
+                blocks.add(b);
+                blockAt.put(i, b);
+            }
+            b.end = n + 1;
+        }
+        for (int n = 0; n < blocks.size(); n++) {
+            b = blocks.get(n);
+            Instruction last = code.get(b.end - 1);
+            if (last.isJump()) {
+                b.link(blockAt.get(last.target));
+            }
+            if (!last.endsFlow() && n + 1 < blocks.size()) {
+                b.link(blocks.get(n + 1));
+            }
+        }
+        return blocks;
+    }
+
+    private void link(Block succ) {
+        if (!succs.contains(succ)) {
+            succs.add(succ);
+            succ.preds.add(this);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package ssw.mj.opt;
+
+import ssw.mj.codegen.Code.OpCode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lets the hot branch of an <code>if</code> statement fall through (needs a
+ * profile).
+ * <p>
+ * The parser places the then branch behind the conditional jump and the else
+ * branch at its target:
+ *
+ * <pre>
+ *       jcc  E        ; not c
+ *       then ...
+ *       jmp  END
+ * E:    else ...
+ * END:
+ * </pre>
+ *
+ * If the jump was taken more often than not, the condition is inverted and
+ * the else branch is moved in front of the then branch, so the hot path
+ * executes no taken jump.
+ */
+final class BlockLayout {
+    private final ProgramCode prog;
+    private final MethodCode m;
+
+    BlockLayout(ProgramCode prog, MethodCode m) {
+        this.prog = prog;
+        this.m = m;
+    }
+
+    void run() {
+        if (!prog.hasProfile()) {
+            return;
+        }
+        for (int n = 0; n < m.code.size(); n++) {
+            Instruction i = m.code.get(n);
+            if (i.isConditionalJump() && 2 * prog.taken(i) > prog.count(i)) {
+                swapBranches(n);
+            }
+        }
+    }
+
+    private void swapBranches(int n) {
+        Instruction jump = m.code.get(n);
+        int e = m.code.indexOf(jump.target);
+        if (e <= n + 1) {
+            return;
+        }
+        Instruction thenEnd = m.code.get(e - 1);
+        int end = thenEnd.op == OpCode.jmp ? m.code.indexOf(thenEnd.target) : -1;
+        Set<Instruction> targets = m.jumpTargets();
+        if (end <= e || targets.contains(thenEnd)) {
+            return;
+        }
+
+        List<Instruction> code = new ArrayList<>(m.code.subList(0, n + 1));
+        code.addAll(m.code.subList(e, end));
+        code.add(Instruction.jump(OpCode.jmp, m.code.get(end)));
+        code.addAll(m.code.subList(n + 1, e - 1));
+        code.addAll(m.code.subList(end, m.code.size()));
+        jump.invertCondition();
+        jump.target = e - 1 > n + 1 ? m.code.get(n + 1) : m.code.get(end);
+        m.code.clear();
+        m.code.addAll(code);
+    }
+}
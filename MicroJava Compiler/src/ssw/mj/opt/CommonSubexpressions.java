@@ -0,0 +1,343 @@
+package ssw.mj.opt;
+
+import ssw.mj.Parser;
+import ssw.mj.codegen.Code.OpCode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Common subexpression elimination for side effect free computations like
+ * <code>list[i].matrNr</code> (<code>getstatic, load, aload,
+ * getfield</code>).
+ * <p>
+ * Every pure expression is identified by a key that describes its expression
+ * tree. An available expressions analysis over the basic blocks determines
+ * where an expression was already computed on every path and has not been
+ * invalidated since. Invalidation happens by stores to locals, globals,
+ * fields (of the same offset) and array elements; calls invalidate
+ * everything that reads globals or the heap. An available expression is
+ * replaced by a load of a temporary local, which is set (<code>dup;
+ * store</code>) wherever the expression is still computed.
+ */
+final class CommonSubexpressions {
+    /**
+     * Minimum number of instructions of an expression worth to be reused.
+     */
+    private static final int MIN_SIZE = 3;
+
+    /**
+     * A value on the simulated expression stack.
+     */
+    private static final class Value {
+        /**
+         * Key of the computing expression, null for unknown values.
+         */
+        final String key;
+        /**
+         * Instruction range that computes the value, start is -1 if the
+         * range is not contiguous.
+         */
+        final int start, end;
+        /**
+         * Number of instructions of the expression.
+         */
+        final int size;
+
+        Value(String key, int start, int end, int size) {
+            this.key = key;
+            this.start = start;
+            this.end = end;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A computation of an expression: instructions <code>start</code> to
+     * <code>end</code>.
+     */
+    private static final class Site {
+        final String key;
+        final int start, end;
+
+        Site(String key, int start, int end) {
+            this.key = key;
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean contains(int n) {
+            return start <= n && n <= end;
+        }
+    }
+
+    private static final Value UNKNOWN = new Value(null, -1, -1, 0);
+
+    private final MethodCode m;
+    /**
+     * Locations (local, global, field, array) each expression depends on.
+     */
+    private final Map<String, Set<String>> deps = new HashMap<>();
+    private final List<Site> replacements = new ArrayList<>();
+    private final List<Site> computations = new ArrayList<>();
+
+    CommonSubexpressions(MethodCode m) {
+        this.m = m;
+    }
+
+    void run() {
+        List<Block> blocks = Block.of(m);
+        if (blocks.isEmpty()) {
+            return;
+        }
+
+        Map<Block, Set<String>> out = new HashMap<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Block b : blocks) {
+                Set<String> avail = simulate(b, available(b, blocks, out), false);
+                if (!avail.equals(out.get(b))) {
+                    out.put(b, avail);
+                    changed = true;
+                }
+            }
+        }
+        for (Block b : blocks) {
+            simulate(b, available(b, blocks, out), true);
+        }
+        apply();
+    }
+
+    /**
+     * Expressions available at the beginning of block <code>b</code>.
+     * Predecessors that were not analyzed yet are ignored (optimistically
+     * treated as "everything available").
+     */
+    private Set<String> available(Block b, List<Block> blocks, Map<Block, Set<String>> out) {
+        Set<String> avail = null;
+        if (b != blocks.get(0)) {
+            for (Block p : b.preds) {
+                Set<String> o = out.get(p);
+                if (o == null) {
+                    continue;
+                }
+                if (avail == null) {
+                    avail = new HashSet<>(o);
+                } else {
+                    avail.retainAll(o);
+                }
+            }
+        }
+        return avail == null ? new HashSet<>() : avail;
+    }
+
+    /**
+     * Simulates block <code>b</code> and returns the expressions available at
+     * its end. If <code>record</code> is set, the computations and the
+     * replaceable computations are collected.
+     */
+    private Set<String> simulate(Block b, Set<String> avail, boolean record) {
+        List<Value> stack = new ArrayList<>();
+        for (int n = b.start; n < b.end; n++) {
+            Instruction i = m.code.get(n);
+            Value[] in = new Value[i.pops()];
+            for (int k = in.length - 1; k >= 0; k--) {
+                in[k] = stack.isEmpty() ? UNKNOWN : stack.remove(stack.size() - 1);
+            }
+
+            Value res = compute(i, n, in);
+            if (res != null && res.size >= MIN_SIZE) {
+                if (record) {
+                    if (avail.contains(res.key) && res.start >= 0) {
+                        replacements.add(new Site(res.key, res.start, n));
+                    }
+                    computations.add(new Site(res.key, n, n));
+                }
+                avail.add(res.key);
+            }
+            invalidate(i, avail);
+
+            if (i.op == OpCode.dup || i.op == OpCode.dup2) {
+                for (int k = 0; k < 2; k++) {
+                    for (Value v : in) {
+                        stack.add(new Value(v.key, -1, -1, v.size));
+                    }
+                }
+            } else if (res != null) {
+                stack.add(res);
+            } else {
+                for (int k = 0; k < i.pushes(); k++) {
+                    stack.add(UNKNOWN);
+                }
+            }
+        }
+        return avail;
+    }
+
+    /**
+     * Returns the value computed by the pure instruction <code>i</code> at
+     * index <code>n</code> or null if <code>i</code> is not pure or one of
+     * its operands is unknown.
+     */
+    private Value compute(Instruction i, int n, Value[] in) {
+        String leaf;
+        switch (i.op) {
+            case load:
+                leaf = "L" + i.val;
+                break;
+            case getstatic:
+                leaf = "G" + i.val;
+                break;
+            case getfield:
+                leaf = "F" + i.val;
+                break;
+            case aload:
+            case baload:
+                leaf = "A";
+                break;
+            case const_:
+            case arraylength:
+            case addi:
+            case subi:
+            case muli:
+            case add:
+            case sub:
+            case mul:
+            case div:
+            case rem:
+            case neg:
+            case shl:
+            case shr:
+                leaf = null;
+                break;
+            default:
+                return null;
+        }
+
+        StringBuilder key = new StringBuilder(i.toString());
+        Set<String> d = new HashSet<>();
+        if (leaf != null) {
+            d.add(leaf);
+        }
+        int size = 1;
+        int start = in.length == 0 ? n : in[0].start;
+        int next = start;
+        key.append('(');
+        for (Value v : in) {
+            if (v.key == null) {
+                return null;
+            }
+            key.append(v.key).append(',');
+            d.addAll(deps.get(v.key));
+            size += v.size;
+            if (v.start != next) {
+                start = -1;
+            }
+            next = v.end + 1;
+        }
+        if (next != n) {
+            start = -1;
+        }
+        key.append(')');
+        deps.put(key.toString(), d);
+        return new Value(key.toString(), start < 0 ? -1 : start, n, size);
+    }
+
+    /**
+     * Removes all expressions that are invalidated by <code>i</code>.
+     */
+    private void invalidate(Instruction i, Set<String> avail) {
+        String leaf;
+        switch (i.op) {
+            case store:
+            case inc:
+                leaf = "L" + i.val;
+                break;
+            case putstatic:
+            case incstatic:
+                leaf = "G" + i.val;
+                break;
+            case putfield:
+            case incfield:
+                leaf = "F" + i.val;
+                break;
+            case astore:
+            case bastore:
+            case arraycopy:
+            case arrayfill:
+            case fillrange:
+            case copyrange:
+                leaf = "A";
+                break;
+            case call:
+            case tailcall:
+            case freevararg:
+                avail.removeIf(key -> deps.get(key).stream().anyMatch(l -> !l.startsWith("L")));
+                return;
+            default:
+                return;
+        }
+        avail.removeIf(key -> deps.get(key).contains(leaf));
+    }
+
+    private void apply() {
+        // keep the outermost replacements only
+        replacements.sort((a, b) -> a.start != b.start ? a.start - b.start : b.end - a.end);
+        List<Site> kept = new ArrayList<>();
+        for (Site r : replacements) {
+            if (kept.isEmpty() || kept.get(kept.size() - 1).end < r.start) {
+                kept.add(r);
+            }
+        }
+
+        Map<String, Integer> temps = new LinkedHashMap<>();
+        for (Site r : kept) {
+            if (!temps.containsKey(r.key) && m.nLocals < Parser.MAX_LOCALS) {
+                temps.put(r.key, m.allocLocals(1));
+            }
+        }
+        if (temps.isEmpty()) {
+            return;
+        }
+
+        Set<Instruction> dead = new HashSet<>();
+        for (Site r : kept) {
+            Integer t = temps.get(r.key);
+            if (t != null) {
+                for (int n = r.start; n < r.end; n++) {
+                    dead.add(m.code.get(n));
+                }
+                Instruction root = m.code.get(r.end);
+                root.op = OpCode.load;
+                root.val = t;
+            }
+        }
+
+        // store the value of the remaining computations in the temporaries
+        Map<Integer, Integer> saves = new HashMap<>();
+        for (Site c : computations) {
+            Integer t = temps.get(c.key);
+            if (t != null && kept.stream().noneMatch(r -> r.contains(c.end))) {
+                saves.put(c.end, t);
+            }
+        }
+        List<Instruction> code = new ArrayList<>(m.code.size() + 2 * saves.size());
+        for (int n = 0; n < m.code.size(); n++) {
+            code.add(m.code.get(n));
+            Integer t = saves.get(n);
+            if (t != null) {
+                code.addAll(Arrays.asList(new Instruction(OpCode.dup), new Instruction(OpCode.store, t)));
+            }
+        }
+        m.code.clear();
+        m.code.addAll(code);
+        m.remove(dead);
+    }
+}
@@ -0,0 +1,120 @@
+package ssw.mj.opt;
+
+import ssw.mj.codegen.Code.OpCode;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Removes the methods that cannot be reached from <code>main</code> and the
+ * global variables that are never read.
+ * <p>
+ * The reachable methods are found along the calls starting at
+ * <code>main</code>, which is why this runs after inlining: a method whose
+ * calls were all inlined is dead. A store to a dead global only pops its
+ * value and an increment of it is dropped. The remaining globals are
+ * renumbered without gaps, so the data area shrinks as well. The symbol
+ * table keeps the addresses of the declarations.
+ */
+final class DeadDeclarations {
+    private final ProgramCode prog;
+
+    DeadDeclarations(ProgramCode prog) {
+        this.prog = prog;
+    }
+
+    void run() {
+        removeMethods();
+        removeGlobals();
+    }
+
+    /**
+     * Removes the dead methods from the program.
+     */
+    void removeMethods() {
+        Set<MethodCode> live = new HashSet<>();
+        Deque<MethodCode> todo = new ArrayDeque<>();
+        live.add(prog.main);
+        todo.push(prog.main);
+        while (!todo.isEmpty()) {
+            for (Instruction i : todo.pop().code) {
+                if (i.isCall() && live.add(i.callee)) {
+                    todo.push(i.callee);
+                }
+            }
+        }
+        prog.methods.retainAll(live);
+    }
+
+    private void removeGlobals() {
+        int[] adr = renumberGlobals();
+        if (adr == null) {
+            return;
+        }
+        for (MethodCode m : prog.methods) {
+            renumber(m, adr);
+        }
+    }
+
+    /**
+     * Assigns new addresses without gaps to the globals that are read by
+     * the remaining methods and sets the data size. Returns the new address
+     * of every global (-1 if it is never read), or null if all globals are
+     * read and keep their address.
+     */
+    int[] renumberGlobals() {
+        boolean[] read = new boolean[prog.dataSize];
+        for (MethodCode m : prog.methods) {
+            for (Instruction i : m.code) {
+                if (i.op == OpCode.getstatic) {
+                    read[i.val] = true;
+                }
+            }
+        }
+        int[] adr = new int[prog.dataSize];
+        int n = 0;
+        for (int k = 0; k < prog.dataSize; k++) {
+            adr[k] = read[k] ? n++ : -1;
+        }
+        if (n == prog.dataSize) {
+            return null;
+        }
+        prog.dataSize = n;
+        return adr;
+    }
+
+    /**
+     * Moves the accesses of <code>m</code> to the new addresses
+     * <code>adr</code> of the globals and drops the stores to globals that
+     * are never read.
+     */
+    static void renumber(MethodCode m, int[] adr) {
+        Set<Instruction> dead = new HashSet<>();
+        for (Instruction i : m.code) {
+            switch (i.op) {
+                case getstatic:
+                    i.val = adr[i.val];
+                    break;
+                case putstatic:
+                    if (adr[i.val] >= 0) {
+                        i.val = adr[i.val];
+                    } else {
+                        i.op = OpCode.pop;
+                    }
+                    break;
+                case incstatic:
+                    if (adr[i.val] >= 0) {
+                        i.val = adr[i.val];
+                    } else {
+                        dead.add(i);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        m.remove(dead);
+    }
+}
@@ -0,0 +1,176 @@
+package ssw.mj.opt;
+
+import ssw.mj.Parser;
+import ssw.mj.codegen.Code.OpCode;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Scalar replacement of objects that do not escape their method.
+ * <p>
+ * A local variable <code>v</code> qualifies if
+ * <ul>
+ * <li>it is not a parameter and every assignment to it stores a fresh object
+ * (<code>new_ n; store v</code>) of the same size,</li>
+ * <li>it is first assigned in the entry block of the method, before it is
+ * read (so it never holds null when it is dereferenced), and</li>
+ * <li>every value loaded from it is only used as the object operand of
+ * <code>getfield</code>, <code>putfield</code> and <code>incfield</code> (possibly via
+ * <code>dup</code>), i.e. the reference is never stored, passed, compared or
+ * returned.</li>
+ * </ul>
+ * The fields of such an object are then kept in additional local variables:
+ * <code>getfield f</code> becomes <code>load v_f</code>, <code>putfield
+ * f</code> becomes <code>store v_f</code>, <code>incfield f</code> becomes
+ * <code>inc v_f</code> and the allocation clears the
+ * field variables instead of allocating heap space.
+ */
+final class EscapeAnalysis {
+    private final MethodCode m;
+
+    EscapeAnalysis(MethodCode m) {
+        this.m = m;
+    }
+
+    void run() {
+        int nVars = m.nLocals;
+        for (int adr = m.nPars; adr < nVars; adr++) {
+            replace(adr);
+        }
+    }
+
+    private void replace(int adr) {
+        Set<Instruction> targets = m.jumpTargets();
+        Set<Instruction> allocs = new HashSet<>();
+        Instruction first = null;
+        int size = -1;
+        boolean entry = true;
+        for (int n = 0; n < m.code.size(); n++) {
+            Instruction i = m.code.get(n);
+            if (targets.contains(i)) {
+                entry = false;
+            }
+            if (i.op == OpCode.inc && i.val == adr || i.isLoad(adr) && first == null) {
+                return;
+            }
+            if (i.isStore(adr)) {
+                Instruction alloc = n > 0 ? m.code.get(n - 1) : null;
+                if (alloc == null || alloc.op != OpCode.new_ || targets.contains(i)
+                        || size >= 0 && alloc.val != size) {
+                    return;
+                }
+                if (first == null) {
+                    if (!entry) {
+                        return;
+                    }
+                    first = i;
+                }
+                size = alloc.val;
+                allocs.add(alloc);
+            }
+            if (i.endsBlock()) {
+                entry = false;
+            }
+        }
+        if (first == null || m.nLocals + size > Parser.MAX_LOCALS) {
+            return;
+        }
+
+        Set<Instruction> refs = new HashSet<>();
+        Set<Instruction> accesses = new HashSet<>();
+        if (!onlyFieldAccesses(adr, targets, refs, accesses)) {
+            return;
+        }
+
+        // rewrite the method
+        int base = m.allocLocals(size);
+        Set<Instruction> dead = new HashSet<>(refs);
+        for (Instruction i : accesses) {
+            i.op = i.op == OpCode.getfield ? OpCode.load : i.op == OpCode.putfield ? OpCode.store : OpCode.inc;
+            i.val += base;
+        }
+        for (Instruction alloc : allocs) {
+            int n = m.code.indexOf(alloc);
+            Instruction store = m.code.get(n + 1);
+            if (store == first || size == 0) {
+                // the field variables are still zero from enter
+                dead.add(alloc);
+                dead.add(store);
+            } else {
+                alloc.op = OpCode.const_;
+                alloc.val = 0;
+                store.val = base;
+                List<Instruction> clear = new ArrayList<>();
+                for (int f = 1; f < size; f++) {
+                    clear.add(new Instruction(OpCode.const_, 0));
+                    clear.add(new Instruction(OpCode.store, base + f));
+                }
+                m.code.addAll(n + 2, clear);
+            }
+        }
+        m.remove(dead);
+    }
+
+    /**
+     * Simulates the expression stack and checks that every reference loaded
+     * from <code>adr</code> is only dereferenced. The loads (and dups) of the
+     * reference are collected in <code>refs</code>, the field accesses in
+     * <code>accesses</code>.
+     */
+    private boolean onlyFieldAccesses(int adr, Set<Instruction> targets, Set<Instruction> refs,
+                                      Set<Instruction> accesses) {
+        // stack entries are the instruction that pushed the reference or null
+        // for any other value
+        List<Instruction> stack = new ArrayList<>();
+        for (Instruction i : m.code) {
+            if (targets.contains(i)) {
+                if (stack.stream().anyMatch(e -> e != null)) {
+                    return false;
+                }
+                stack.clear();
+            }
+
+            List<Instruction> in = new ArrayList<>();
+            for (int n = 0; n < i.pops(); n++) {
+                in.add(0, stack.isEmpty() ? null : stack.remove(stack.size() - 1));
+            }
+            boolean ref = !in.isEmpty() && in.get(0) != null;
+            for (int n = 1; n < in.size(); n++) {
+                if (in.get(n) != null) {
+                    return false;
+                }
+            }
+
+            if (i.isLoad(adr)) {
+                refs.add(i);
+                stack.add(i);
+            } else if (i.op == OpCode.dup && ref) {
+                refs.add(i);
+                stack.add(i);
+                stack.add(i);
+            } else if ((i.op == OpCode.getfield || i.op == OpCode.putfield || i.op == OpCode.incfield) && ref) {
+                accesses.add(i);
+                if (i.op == OpCode.getfield) {
+                    stack.add(null);
+                }
+            } else if (ref) {
+                return false;
+            } else {
+                for (int n = 0; n < i.pushes(); n++) {
+                    stack.add(null);
+                }
+            }
+
+            if (i.endsBlock()) {
+                if (stack.stream().anyMatch(e -> e != null)) {
+                    return false;
+                }
+                stack.clear();
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,100 @@
+package ssw.mj.opt;
+
+import ssw.mj.codegen.Code.OpCode;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Chooses the cheapest frame for a method.
+ * <p>
+ * A method without parameters and locals needs no frame at all: enter and
+ * exit are omitted and the return address simply stays on top of the method
+ * stack (unless the method ends with a <code>tailcall</code>, which releases
+ * the frame of the caller). A method whose locals are all written before
+ * they are read on every path uses <code>enter_nc</code>, which does not
+ * clear the local variable area.
+ */
+final class Frames {
+    private final MethodCode m;
+
+    Frames(MethodCode m) {
+        this.m = m;
+    }
+
+    void run() {
+        if (m.nLocals == 0 && !hasTailCall()) {
+            m.frameless = true;
+            Set<Instruction> exits = new HashSet<>();
+            for (Instruction i : m.code) {
+                if (i.op == OpCode.exit) {
+                    exits.add(i);
+                }
+            }
+            m.remove(exits);
+        } else if (m.nLocals > m.nPars && assignedBeforeUse()) {
+            m.clearsLocals = false;
+        }
+    }
+
+    private boolean hasTailCall() {
+        for (Instruction i : m.code) {
+            if (i.op == OpCode.tailcall) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * True if no local is read (by <code>load</code> or <code>inc</code>)
+     * before it was written on some path from the method start. Computes the
+     * locals that are definitely assigned at the start of every block.
+     */
+    private boolean assignedBeforeUse() {
+        List<Block> blocks = Block.of(m);
+        BitSet[] in = new BitSet[blocks.size()];
+        for (int n = 0; n < blocks.size(); n++) {
+            in[n] = new BitSet();
+            in[n].set(0, n == 0 ? m.nPars : m.nLocals);
+        }
+        boolean changed;
+        do {
+            changed = false;
+            for (int n = 0; n < blocks.size(); n++) {
+                BitSet out = (BitSet) in[n].clone();
+                Block b = blocks.get(n);
+                for (int k = b.start; k < b.end; k++) {
+                    if (m.code.get(k).op == OpCode.store) {
+                        out.set(m.code.get(k).val);
+                    }
+                }
+                for (Block s : b.succs) {
+                    int idx = blocks.indexOf(s);
+                    BitSet merged = (BitSet) in[idx].clone();
+                    merged.and(out);
+                    if (!merged.equals(in[idx])) {
+                        in[idx] = merged;
+                        changed = true;
+                    }
+                }
+            }
+        } while (changed);
+
+        for (int n = 0; n < blocks.size(); n++) {
+            BitSet assigned = in[n];
+            Block b = blocks.get(n);
+            for (int k = b.start; k < b.end; k++) {
+                Instruction i = m.code.get(k);
+                if ((i.op == OpCode.load || i.op == OpCode.inc) && !assigned.get(i.val)) {
+                    return false;
+                } else if (i.op == OpCode.store) {
+                    assigned.set(i.val);
+                }
+            }
+        }
+        return true;
+    }
+}
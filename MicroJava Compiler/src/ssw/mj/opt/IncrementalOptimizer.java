@@ -0,0 +1,245 @@
+package ssw.mj.opt;
+
+import ssw.mj.codegen.Code;
+import ssw.mj.symtab.Obj;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optimizes a program like <code>Optimizer</code> (without a profile) and
+ * optimizes it again after the body of a single method was changed, doing
+ * as little work as possible.
+ * <p>
+ * The decoded code, the code after inlining and the optimized code of every
+ * method are kept. After a change only the changed method is decoded again.
+ * A method is inlined again if it changed or if one of its callees has a
+ * different inlined code or number of call sites now, because these decide
+ * what is inlined. A method is optimized again if its inlined code is
+ * different or if the globals are renumbered differently. All other methods
+ * keep their optimized code. The result is always the same as for
+ * <code>Optimizer.optimize</code>.
+ */
+public final class IncrementalOptimizer {
+    /**
+     * All methods in code order, with their code after inlining.
+     */
+    private final List<MethodCode> methods;
+    private final MethodCode main;
+    private final int dataSize;
+    /**
+     * The decoded code of every method of <code>methods</code>, in the same
+     * order. Calls refer to the methods of <code>methods</code>.
+     */
+    private final List<MethodCode> decoded = new ArrayList<>();
+    /**
+     * The optimized version of every method. It is the same object in all
+     * optimizations, so calls of a method that was optimized again need not
+     * be changed.
+     */
+    private final Map<MethodCode, MethodCode> optimized = new HashMap<>();
+    /**
+     * Methods whose optimized version belongs to their current inlined code.
+     */
+    private final Set<MethodCode> upToDate = new HashSet<>();
+    /**
+     * Inliner of the last optimization, with its numbers of call sites.
+     */
+    private Inliner inliner;
+    /**
+     * New addresses of the globals in the last optimization, see
+     * <code>DeadDeclarations.renumberGlobals</code>.
+     */
+    private int[] globals;
+
+    private IncrementalOptimizer(ProgramCode prog) {
+        methods = prog.methods;
+        main = prog.main;
+        dataSize = prog.dataSize;
+        for (MethodCode m : methods) {
+            MethodCode d = new MethodCode(m.meth);
+            d.nPars = m.nPars;
+            d.nLocals = m.nLocals;
+            d.code.addAll(copy(m.code, null));
+            decoded.add(d);
+            optimized.put(m, new MethodCode(m.meth));
+        }
+    }
+
+    /**
+     * Optimizes the code of program <code>program</code> in place. Returns
+     * null if the code cannot be decoded (and leaves it unchanged).
+     */
+    public static IncrementalOptimizer optimize(Code code, Obj program) {
+        ProgramCode prog = ProgramCode.decode(code, program.locals);
+        if (prog == null) {
+            return null;
+        }
+        IncrementalOptimizer opt = new IncrementalOptimizer(prog);
+        opt.run(code, null);
+        return opt;
+    }
+
+    /**
+     * Optimizes the code of the program in place again after the body of
+     * <code>method</code> was compiled again. The code must have been
+     * compiled from the same declarations as the last time and the code of
+     * the other methods must be unchanged, apart from their addresses.
+     * Returns false if the code cannot be decoded (and leaves it unchanged).
+     */
+    public boolean optimizeAgain(Code code, Obj method) {
+        Map<Integer, MethodCode> methodAt = new HashMap<>();
+        int k = -1;
+        for (int n = 0; n < methods.size(); n++) {
+            MethodCode m = methods.get(n);
+            methodAt.put(m.meth.adr, m);
+            if (m.meth == method) {
+                k = n;
+            }
+        }
+        if (k < 0) {
+            return false;
+        }
+        MethodCode d = new MethodCode(method);
+        d.adr = method.adr;
+        int end = k + 1 < methods.size() ? methods.get(k + 1).meth.adr : code.pc;
+        if (!ProgramCode.decode(code, d, end, methodAt)) {
+            return false;
+        }
+        decoded.set(k, d);
+        run(code, methods.get(k));
+        return true;
+    }
+
+    /**
+     * Optimizes the program after <code>changed</code> was decoded again
+     * (null if there is no earlier optimization) and writes it to
+     * <code>code</code>.
+     */
+    private void run(Code code, MethodCode changed) {
+        Inliner inl = new Inliner(new ProgramCode());
+        inl.countCallSites(decoded);
+        Set<MethodCode> different = new HashSet<>();
+        for (int k = 0; k < methods.size(); k++) {
+            MethodCode m = methods.get(k);
+            MethodCode d = decoded.get(k);
+            if (inliner != null && m != changed && !dependsOn(d, different, inl)) {
+                continue;
+            }
+            List<Instruction> old = new ArrayList<>(m.code);
+            int oldLocals = m.nLocals;
+            m.code.clear();
+            m.code.addAll(copy(d.code, null));
+            m.nLocals = d.nLocals;
+            inl.inlineCalls(m);
+            if (inliner == null || m.nLocals != oldLocals || !sameCode(m.code, old)) {
+                different.add(m);
+            }
+        }
+        inliner = inl;
+        upToDate.removeAll(different);
+
+        ProgramCode prog = new ProgramCode();
+        prog.methods.addAll(methods);
+        prog.main = main;
+        prog.dataSize = dataSize;
+        DeadDeclarations dead = new DeadDeclarations(prog);
+        dead.removeMethods();
+        int[] adr = dead.renumberGlobals();
+        if (!Arrays.equals(adr, globals)) {
+            upToDate.clear();
+        }
+        globals = adr;
+
+        ProgramCode res = new ProgramCode();
+        res.main = optimized.get(main);
+        res.dataSize = prog.dataSize;
+        for (MethodCode m : prog.methods) {
+            MethodCode o = optimized.get(m);
+            if (upToDate.add(m)) {
+                o.code.clear();
+                o.code.addAll(copy(m.code, optimized));
+                o.nPars = m.nPars;
+                o.nLocals = m.nLocals;
+                o.frameless = false;
+                o.clearsLocals = true;
+                if (adr != null) {
+                    DeadDeclarations.renumber(o, adr);
+                }
+                Optimizer.optimizeMethod(res, o);
+            }
+            res.methods.add(o);
+        }
+        res.encode(code);
+    }
+
+    /**
+     * True if the decoded code <code>d</code> calls a method whose inlined
+     * code is <code>different</code> or whose number of call sites differs
+     * between <code>inl</code> and the last optimization.
+     */
+    private boolean dependsOn(MethodCode d, Set<MethodCode> different, Inliner inl) {
+        for (Instruction i : d.code) {
+            if (i.callee != null && (different.contains(i.callee)
+                    || inl.callSites(i.callee) != inliner.callSites(i.callee))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies the instructions <code>code</code>, with the jumps to the
+     * copies. The callees are mapped with <code>callees</code> unless it is
+     * null.
+     */
+    private static List<Instruction> copy(List<Instruction> code, Map<MethodCode, MethodCode> callees) {
+        Map<Instruction, Instruction> copies = new HashMap<>();
+        List<Instruction> res = new ArrayList<>(code.size());
+        for (Instruction i : code) {
+            Instruction c = i.copy();
+            if (callees != null && c.callee != null) {
+                c.callee = callees.get(c.callee);
+            }
+            copies.put(i, c);
+            res.add(c);
+        }
+        for (Instruction c : res) {
+            if (c.target != null) {
+                c.target = copies.get(c.target);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * True if <code>a</code> and <code>b</code> are the same instructions
+     * with the same jumps and callees.
+     */
+    private static boolean sameCode(List<Instruction> a, List<Instruction> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        Map<Instruction, Integer> indexA = new HashMap<>();
+        Map<Instruction, Integer> indexB = new HashMap<>();
+        for (int n = 0; n < a.size(); n++) {
+            indexA.put(a.get(n), n);
+            indexB.put(b.get(n), n);
+        }
+        for (int n = 0; n < a.size(); n++) {
+            Instruction x = a.get(n);
+            Instruction y = b.get(n);
+            if (x.op != y.op || x.val != y.val || x.val2 != y.val2 || x.callee != y.callee
+                    || (x.target == null ? y.target != null
+                    : y.target == null || !indexA.get(x.target).equals(indexB.get(y.target)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
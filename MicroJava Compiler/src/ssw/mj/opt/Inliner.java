@@ -0,0 +1,233 @@
+package ssw.mj.opt;
+
+import ssw.mj.Parser;
+import ssw.mj.codegen.Code.OpCode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces calls of small methods by a copy of the method body.
+ * <p>
+ * A method is inlined if it is not recursive and either smaller than
+ * <code>MAX_SIZE</code> bytes or called from a single place only and smaller
+ * than <code>MAX_SIZE_SINGLE_CALL</code> bytes. The locals of the inlined
+ * method are mapped to new locals of the caller (all inlined bodies of a
+ * caller share the same slots, because they never run at the same time).
+ * The arguments on the expression stack are stored into the parameter slots,
+ * the other locals are cleared like <code>enter</code> would do, and
+ * <code>return</code> becomes a jump behind the call site. An argument that
+ * is just a local variable or a constant is used directly if the inlined
+ * method never assigns the parameter.
+ * <p>
+ * With a profile, methods up to <code>MAX_SIZE_HOT</code> bytes are also
+ * inlined at call sites that were executed at least <code>HOT_CALLS</code>
+ * times.
+ * <p>
+ * Since a method can only call itself or methods declared before it, the
+ * methods are processed in code order: every inlined body already contains
+ * the inlined bodies of its own callees.
+ */
+final class Inliner {
+    /**
+     * Methods up to this size (in bytes, including enter) are always inlined.
+     */
+    static final int MAX_SIZE = 24;
+    /**
+     * Methods with a single call site are inlined up to this size.
+     */
+    static final int MAX_SIZE_SINGLE_CALL = 96;
+    /**
+     * Methods called from a hot call site (see the profile) are inlined up
+     * to this size.
+     */
+    static final int MAX_SIZE_HOT = 160;
+    /**
+     * Call sites that were executed at least this often are hot.
+     */
+    static final long HOT_CALLS = 1000;
+
+    private final ProgramCode prog;
+    /**
+     * Number of call sites of every method in the whole program.
+     */
+    private final Map<MethodCode, Integer> callSites = new HashMap<>();
+
+    Inliner(ProgramCode prog) {
+        this.prog = prog;
+    }
+
+    void run() {
+        countCallSites(prog.methods);
+        for (MethodCode m : prog.methods) {
+            inlineCalls(m);
+        }
+    }
+
+    /**
+     * Counts the call sites in the (not yet inlined) code of
+     * <code>methods</code>, which must be all methods of the program.
+     */
+    void countCallSites(List<MethodCode> methods) {
+        for (MethodCode m : methods) {
+            for (Instruction i : m.code) {
+                if (i.op == OpCode.call) {
+                    callSites.merge(i.callee, 1, Integer::sum);
+                }
+            }
+        }
+    }
+
+    /**
+     * Number of call sites of <code>m</code>.
+     */
+    int callSites(MethodCode m) {
+        return callSites.getOrDefault(m, 0);
+    }
+
+    private boolean isInlinable(MethodCode caller, Instruction call) {
+        MethodCode callee = call.callee;
+        if (callee == caller || callee.calls(callee)) {
+            return false;
+        }
+        int size = callee.size();
+        return size <= MAX_SIZE
+                || size <= MAX_SIZE_SINGLE_CALL && callSites(callee) == 1
+                || size <= MAX_SIZE_HOT && prog.count(call) >= HOT_CALLS;
+    }
+
+    /**
+     * Inlines the calls of <code>m</code>. The methods called by
+     * <code>m</code> must have been inlined already.
+     */
+    void inlineCalls(MethodCode m) {
+        int base = m.nLocals;
+        Set<Instruction> targets = m.jumpTargets();
+        List<Instruction> code = new ArrayList<>(m.code.size());
+        Set<Instruction> dead = new HashSet<>();
+        Map<Instruction, Instruction> entries = new HashMap<>();
+        for (int n = 0; n < m.code.size(); n++) {
+            Instruction i = m.code.get(n);
+            MethodCode f = i.callee;
+            if (i.op != OpCode.call || !isInlinable(m, i)
+                    || base + f.nLocals > Parser.MAX_LOCALS || n + 1 == m.code.size()) {
+                code.add(i);
+                continue;
+            }
+            List<Instruction> body = body(f, base, args(m, n, f, targets), m.code.get(n + 1), dead);
+            entries.put(i, body.get(0));
+            code.addAll(body);
+            m.nLocals = Math.max(m.nLocals, base + f.nLocals);
+        }
+        if (!entries.isEmpty()) {
+            // jumps to a replaced call (or behind an inlined body that is
+            // followed by another one) continue with the inlined body
+            for (Instruction i : code) {
+                if (i.target != null && entries.containsKey(i.target)) {
+                    i.target = entries.get(i.target);
+                }
+            }
+            m.code.clear();
+            m.code.addAll(code);
+            m.remove(dead);
+        }
+    }
+
+    /**
+     * Returns the instructions that push the arguments of the call at index
+     * <code>n</code>, one per parameter. An entry is null if the argument is
+     * not a single <code>load</code> or <code>const</code> (or if that cannot
+     * be determined).
+     */
+    private Instruction[] args(MethodCode m, int n, MethodCode f, Set<Instruction> targets) {
+        Instruction[] args = new Instruction[f.nPars];
+        for (int k = f.nPars - 1; k >= 0; k--) {
+            int p = n - f.nPars + k;
+            if (p < 0) {
+                break;
+            }
+            Instruction a = m.code.get(p);
+            if (a.op != OpCode.load && a.op != OpCode.const_) {
+                break;
+            }
+            args[k] = a;
+            if (targets.contains(a)) {
+                break;
+            }
+        }
+        return args;
+    }
+
+    /**
+     * Builds the inlined body of <code>f</code> with its locals starting at
+     * <code>base</code> that continues with <code>cont</code>. Instructions
+     * that have to be removed after the body was inserted are added to
+     * <code>dead</code>.
+     */
+    private List<Instruction> body(MethodCode f, int base, Instruction[] args, Instruction cont, Set<Instruction> dead) {
+        Set<Integer> assigned = new HashSet<>();
+        for (Instruction i : f.code) {
+            if (i.op == OpCode.store || i.op == OpCode.inc) {
+                assigned.add(i.val);
+            }
+        }
+
+        List<Instruction> body = new ArrayList<>();
+        // entry point of the body for jumps to the call site
+        Instruction entry = new Instruction(OpCode.nop);
+        dead.add(entry);
+        body.add(entry);
+        Map<Integer, Instruction> substitutes = new HashMap<>();
+        for (int k = f.nPars - 1; k >= 0; k--) {
+            if (args[k] != null && !assigned.contains(k)) {
+                substitutes.put(base + k, args[k]);
+                dead.add(args[k]);
+            } else {
+                body.add(new Instruction(OpCode.store, base + k));
+            }
+        }
+        for (int k = f.nPars; k < f.nLocals; k++) {
+            body.add(new Instruction(OpCode.const_, 0));
+            body.add(new Instruction(OpCode.store, base + k));
+        }
+
+        Map<Instruction, Instruction> clones = new HashMap<>();
+        for (Instruction i : f.code) {
+            Instruction c;
+            switch (i.op) {
+                case exit:
+                    c = new Instruction(OpCode.nop);
+                    dead.add(c);
+                    break;
+                case return_:
+                    c = Instruction.jump(OpCode.jmp, cont);
+                    break;
+                case load:
+                case store:
+                case inc:
+                    c = i.copy();
+                    c.val += base;
+                    Instruction s = substitutes.get(c.val);
+                    if (s != null && i.op == OpCode.load) {
+                        c.op = s.op;
+                        c.val = s.val;
+                    }
+                    break;
+                default:
+                    c = i.copy();
+            }
+            clones.put(i, c);
+            body.add(c);
+        }
+        for (Instruction c : clones.values()) {
+            if (c.target != null && clones.containsKey(c.target)) {
+                c.target = clones.get(c.target);
+            }
+        }
+        return body;
+    }
+}
@@ -0,0 +1,304 @@
+package ssw.mj.opt;
+
+import ssw.mj.codegen.Code.CompOp;
+import ssw.mj.codegen.Code.OpCode;
+
+/**
+ * A single decoded instruction of a method body. Short forms like
+ * <code>load_2</code> or <code>const_m1</code> are normalized to their generic
+ * form (<code>load 2</code>, <code>const -1</code>) and are only chosen again
+ * when the code is encoded. Jumps refer to their target instruction and calls
+ * to the called method, so instructions can be inserted, moved and removed
+ * without recomputing any jump distances.
+ */
+public final class Instruction {
+    /**
+     * Operation code (never one of the short forms).
+     */
+    public OpCode op;
+    /**
+     * First operand (address, constant, size, ...).
+     */
+    public int val;
+    /**
+     * Second operand (only for inc).
+     */
+    public int val2;
+    /**
+     * Only for jumps: Jump destination.
+     */
+    public Instruction target;
+    /**
+     * Only for call: Called method.
+     */
+    public MethodCode callee;
+    /**
+     * Address of this instruction in the code buffer (set by decode and
+     * encode).
+     */
+    public int pc;
+    /**
+     * Address of the instruction in the unoptimized code this one was
+     * decoded from (copies keep it), -1 for instructions created by the
+     * optimizer. Used to look up the instruction in a profile.
+     */
+    public int origin = -1;
+
+    public Instruction(OpCode op) {
+        this.op = op;
+    }
+
+    public Instruction(OpCode op, int val) {
+        this.op = op;
+        this.val = val;
+    }
+
+    public Instruction(OpCode op, int val, int val2) {
+        this.op = op;
+        this.val = val;
+        this.val2 = val2;
+    }
+
+    /**
+     * Creates a jump to <code>target</code>.
+     */
+    public static Instruction jump(OpCode op, Instruction target) {
+        Instruction jump = new Instruction(op);
+        jump.target = target;
+        return jump;
+    }
+
+    /**
+     * Creates a call of <code>callee</code>.
+     */
+    public static Instruction call(MethodCode callee) {
+        Instruction call = new Instruction(OpCode.call);
+        call.callee = callee;
+        return call;
+    }
+
+    /**
+     * Returns a copy of this instruction. Jump targets and callees are shared.
+     */
+    public Instruction copy() {
+        Instruction copy = new Instruction(op, val, val2);
+        copy.target = target;
+        copy.callee = callee;
+        copy.origin = origin;
+        return copy;
+    }
+
+    public boolean isJump() {
+        switch (op) {
+            case jmp:
+            case jeq:
+            case jne:
+            case jlt:
+            case jle:
+            case jgt:
+            case jge:
+            case jeqz:
+            case jnez:
+            case jltz:
+            case jlez:
+            case jgtz:
+            case jgez:
+            case jeqi:
+            case jnei:
+            case jlti:
+            case jlei:
+            case jgti:
+            case jgei:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * True for the jumps that compare with an immediate operand
+     * (<code>val</code>).
+     */
+    public boolean isImmediateJump() {
+        return op.code() >= OpCode.jeqi.code() && op.code() <= OpCode.jgei.code();
+    }
+
+    /**
+     * True for <code>call</code> and <code>tailcall</code>.
+     */
+    public boolean isCall() {
+        return op == OpCode.call || op == OpCode.tailcall;
+    }
+
+    public boolean isConditionalJump() {
+        return isJump() && op != OpCode.jmp;
+    }
+
+    /**
+     * Negates the condition of this conditional jump.
+     */
+    public void invertCondition() {
+        OpCode first = isImmediateJump() ? OpCode.jeqi
+                : op.code() >= OpCode.jeqz.code() ? OpCode.jeqz : OpCode.jeq;
+        CompOp cmp = CompOp.values()[op.code() - first.code()];
+        op = OpCode.get(first.code() + CompOp.invert(cmp).ordinal());
+    }
+
+    /**
+     * True if control never falls through to the next instruction.
+     */
+    public boolean endsFlow() {
+        return op == OpCode.jmp || op == OpCode.return_ || op == OpCode.trap || op == OpCode.tailcall;
+    }
+
+    /**
+     * True if the next instruction starts a new basic block.
+     */
+    public boolean endsBlock() {
+        return isJump() || endsFlow();
+    }
+
+    public boolean isLoad(int adr) {
+        return op == OpCode.load && val == adr;
+    }
+
+    public boolean isStore(int adr) {
+        return op == OpCode.store && val == adr;
+    }
+
+    public boolean isConst(int x) {
+        return op == OpCode.const_ && val == x;
+    }
+
+    /**
+     * Number of values this instruction removes from the expression stack.
+     */
+    public int pops() {
+        switch (op) {
+            case store:
+            case putstatic:
+            case getfield:
+            case neg:
+            case newarray:
+            case newvararg:
+            case arraylength:
+            case pop:
+            case dup:
+            case addi:
+            case subi:
+            case muli:
+            case incfield:
+            case jeqz:
+            case jnez:
+            case jltz:
+            case jlez:
+            case jgtz:
+            case jgez:
+            case jeqi:
+            case jnei:
+            case jlti:
+            case jlei:
+            case jgti:
+            case jgei:
+                return 1;
+            case putfield:
+            case add:
+            case sub:
+            case mul:
+            case div:
+            case rem:
+            case shl:
+            case shr:
+            case aload:
+            case baload:
+            case dup2:
+            case jeq:
+            case jne:
+            case jlt:
+            case jle:
+            case jgt:
+            case jge:
+            case print:
+            case bprint:
+            case arrayfill:
+            case arrayequals:
+                return 2;
+            case astore:
+            case bastore:
+                return 3;
+            case fillrange:
+            case copyrange:
+            case sumrange:
+                return 4;
+            case arraycopy:
+                return 5;
+            case call:
+            case tailcall:
+                return callee.nPars;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Number of values this instruction pushes onto the expression stack.
+     */
+    public int pushes() {
+        switch (op) {
+            case load:
+            case getstatic:
+            case getfield:
+            case const_:
+            case add:
+            case sub:
+            case mul:
+            case div:
+            case rem:
+            case neg:
+            case shl:
+            case shr:
+            case addi:
+            case subi:
+            case muli:
+            case new_:
+            case newarray:
+            case newvararg:
+            case aload:
+            case baload:
+            case arraylength:
+            case read:
+            case bread:
+            case arrayequals:
+            case fillrange:
+            case copyrange:
+                return 1;
+            case dup:
+            case sumrange:
+                return 2;
+            case dup2:
+                return 4;
+            case call:
+                return callee.isFunction() ? 1 : 0;
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(op.cleanName());
+        if (target != null) {
+            if (isImmediateJump()) {
+                sb.append(' ').append(val);
+            }
+            sb.append(" -> ").append(target.pc);
+        } else if (callee != null) {
+            sb.append(' ').append(callee.meth.name);
+        } else if (op.numOps() == 2) {
+            sb.append(' ').append(val).append(", ").append(val2);
+        } else if (op.numOps() > 0) {
+            sb.append(' ').append(val);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,81 @@
+package ssw.mj.opt;
+
+import ssw.mj.codegen.Code.OpCode;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Cleans up the control flow of a method after other transformations:
+ * removes unreachable code, short-circuits jumps to unconditional jumps and
+ * removes unconditional jumps to the next instruction.
+ */
+final class JumpOptimizer {
+    private final MethodCode m;
+
+    JumpOptimizer(MethodCode m) {
+        this.m = m;
+    }
+
+    void run() {
+        boolean changed = true;
+        while (changed) {
+            shortCircuit();
+            changed = removeUnreachable() | removeJumpsToNext();
+        }
+    }
+
+    /**
+     * Redirects jumps whose target is an unconditional jump to the final
+     * destination.
+     */
+    private void shortCircuit() {
+        for (Instruction i : m.code) {
+            int n = 0;
+            while (i.target != null && i.target.op == OpCode.jmp && i.target.target != i
+                    && n < m.code.size()) {
+                i.target = i.target.target;
+                n++;
+            }
+        }
+    }
+
+    private boolean removeUnreachable() {
+        List<Block> blocks = Block.of(m);
+        if (blocks.isEmpty()) {
+            return false;
+        }
+        Set<Block> reached = new HashSet<>();
+        Deque<Block> todo = new ArrayDeque<>();
+        todo.add(blocks.get(0));
+        while (!todo.isEmpty()) {
+            Block b = todo.remove();
+            if (reached.add(b)) {
+                todo.addAll(b.succs);
+            }
+        }
+        Set<Instruction> dead = new HashSet<>();
+        for (Block b : blocks) {
+            if (!reached.contains(b)) {
+                dead.addAll(m.code.subList(b.start, b.end));
+            }
+        }
+        m.remove(dead);
+        return !dead.isEmpty();
+    }
+
+    private boolean removeJumpsToNext() {
+        Set<Instruction> dead = new HashSet<>();
+        for (int n = 0; n + 1 < m.code.size(); n++) {
+            Instruction i = m.code.get(n);
+            if (i.op == OpCode.jmp && i.target == m.code.get(n + 1)) {
+                dead.add(i);
+            }
+        }
+        m.remove(dead);
+        return !dead.isEmpty();
+    }
+}
@@ -0,0 +1,109 @@
+package ssw.mj.opt;
+
+import ssw.mj.codegen.Code.OpCode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reassigns the local variable slots of a method so that the most used
+ * locals get the lowest addresses and thus the short instructions
+ * <code>load_0..3</code> and <code>store_0..3</code>.
+ * <p>
+ * Every access counts <code>LOOP_FACTOR<sup>depth</sup></code>, where depth is
+ * the number of loops (backward jumps) around the access. With a profile,
+ * every access counts as often as it was executed instead. Parameters keep
+ * their slots, because <code>enter</code> stores the arguments into the
+ * first slots. Locals that are never accessed are removed from the frame.
+ */
+final class LocalSlots {
+    /**
+     * Weight of an access inside a loop relative to an access outside of it.
+     */
+    static final int LOOP_FACTOR = 8;
+    /**
+     * Loops nested deeper than this do not increase the weight any further.
+     */
+    private static final int MAX_DEPTH = 6;
+
+    private final ProgramCode prog;
+    private final MethodCode m;
+
+    LocalSlots(ProgramCode prog, MethodCode m) {
+        this.prog = prog;
+        this.m = m;
+    }
+
+    void run() {
+        if (m.nLocals <= m.nPars) {
+            return;
+        }
+        long[] weight = new long[m.nLocals];
+        int[] depth = loopDepths();
+        long[] freq = prog.hasProfile() ? prog.frequencies(m) : null;
+        for (int n = 0; n < m.code.size(); n++) {
+            if (accessesLocal(m.code.get(n))) {
+                // every access counts at least 1, unused locals are removed
+                weight[m.code.get(n).val] += freq != null ? 1 + freq[n] : pow(Math.min(depth[n], MAX_DEPTH));
+            }
+        }
+
+        List<Integer> order = new ArrayList<>();
+        for (int adr = m.nPars; adr < m.nLocals; adr++) {
+            if (weight[adr] > 0) {
+                order.add(adr);
+            }
+        }
+        // stable sort, equally used locals keep their declaration order
+        order.sort((a, b) -> Long.compare(weight[b], weight[a]));
+
+        int[] slot = new int[m.nLocals];
+        for (int adr = 0; adr < m.nPars; adr++) {
+            slot[adr] = adr;
+        }
+        for (int k = 0; k < order.size(); k++) {
+            slot[order.get(k)] = m.nPars + k;
+        }
+        for (Instruction i : m.code) {
+            if (accessesLocal(i)) {
+                i.val = slot[i.val];
+            }
+        }
+        m.nLocals = m.nPars + order.size();
+    }
+
+    private static boolean accessesLocal(Instruction i) {
+        return i.op == OpCode.load || i.op == OpCode.store || i.op == OpCode.inc;
+    }
+
+    private static long pow(int depth) {
+        long w = 1;
+        for (int k = 0; k < depth; k++) {
+            w *= LOOP_FACTOR;
+        }
+        return w;
+    }
+
+    /**
+     * Returns the loop nesting depth of every instruction. A backward jump
+     * forms a loop from its target to the jump itself.
+     */
+    private int[] loopDepths() {
+        Map<Instruction, Integer> index = new HashMap<>();
+        for (int n = 0; n < m.code.size(); n++) {
+            index.put(m.code.get(n), n);
+        }
+        int[] depth = new int[m.code.size()];
+        for (int n = 0; n < m.code.size(); n++) {
+            Instruction i = m.code.get(n);
+            if (i.isJump() && index.get(i.target) <= n) {
+                for (int k = index.get(i.target); k <= n; k++) {
+                    depth[k]++;
+                }
+            }
+        }
+        return depth;
+    }
+}
@@ -0,0 +1,264 @@
+package ssw.mj.opt;
+
+import ssw.mj.codegen.Code.OpCode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replaces counting loops that fill an array, copy an array or sum up an int
+ * array by a single bulk instruction. The loops must have the shape the
+ * parser generates for
+ *
+ * <pre>
+ * while (i &lt; n) { a[i] = v; i++; }
+ * while (i &lt; n) { b[i] = a[i]; i++; }
+ * while (i &lt; n) { s += a[i]; i++; }
+ * </pre>
+ *
+ * where <code>i</code> and <code>s</code> are locals, the arrays are locals or
+ * globals, <code>v</code> is a constant, local or global and <code>n</code> is
+ * a constant, local, global or the length of an array. The bulk instructions
+ * (<code>fillrange</code>, <code>copyrange</code>, <code>sumrange</code>)
+ * leave the final value of <code>i</code> on the stack and fail with the
+ * same error at the same index as the loop would.
+ */
+final class LoopIdioms {
+    private final MethodCode m;
+
+    LoopIdioms(MethodCode m) {
+        this.m = m;
+    }
+
+    void run() {
+        for (int n = 0; n < m.code.size(); n++) {
+            replace(n);
+        }
+    }
+
+    /**
+     * Replaces the loop starting at instruction <code>n</code> if it is one
+     * of the idioms.
+     */
+    private void replace(int n) {
+        Matcher guard = new Matcher(n);
+        if (!guard.op(OpCode.load)) {
+            return;
+        }
+        int i = guard.val;
+        List<Instruction> bound = guard.bound(OpCode.jge, OpCode.jgei);
+        if (bound == null || isLoad(bound, i)) {
+            return;
+        }
+        Instruction exit = m.code.get(guard.pos - 1).target;
+        int body = guard.pos;
+
+        Matcher loop = new Matcher(body);
+        List<Instruction> repl = new ArrayList<>();
+        List<Instruction> arr;
+        List<Instruction> src;
+        List<Instruction> val;
+        if ((arr = loop.array(i)) != null && loop.load(i) && (val = loop.value(i)) != null
+                && loop.store()) {
+            // a[i] = v
+            repl.addAll(arr);
+            repl.add(new Instruction(OpCode.load, i));
+            repl.addAll(bound);
+            repl.addAll(val);
+            repl.add(new Instruction(OpCode.fillrange, loop.op == OpCode.bastore ? 0 : 1));
+            repl.add(new Instruction(OpCode.store, i));
+        } else if ((arr = (loop = new Matcher(body)).array(i)) != null && loop.load(i)
+                && (src = loop.array(i)) != null && loop.load(i) && loop.arrayLoad()
+                && loop.store()) {
+            // b[i] = a[i]
+            boolean bytes = loop.op == OpCode.bastore;
+            if (bytes != (m.code.get(loop.pos - 2).op == OpCode.baload)) {
+                return;
+            }
+            repl.addAll(arr);
+            repl.addAll(src);
+            repl.add(new Instruction(OpCode.load, i));
+            repl.addAll(bound);
+            repl.add(new Instruction(OpCode.copyrange, bytes ? 0 : 1));
+            repl.add(new Instruction(OpCode.store, i));
+        } else if ((loop = new Matcher(body)).op(OpCode.load) && loop.val != i) {
+            // s += a[i]
+            int s = loop.val;
+            if ((arr = loop.array(i)) == null || isLoad(arr, s) || isLoad(bound, s)
+                    || !loop.load(i) || !loop.op(OpCode.aload) || !loop.op(OpCode.add)
+                    || !loop.op(OpCode.store) || loop.val != s) {
+                return;
+            }
+            repl.add(new Instruction(OpCode.load, s));
+            repl.addAll(arr);
+            repl.add(new Instruction(OpCode.load, i));
+            repl.addAll(bound);
+            repl.add(new Instruction(OpCode.sumrange));
+            repl.add(new Instruction(OpCode.store, i));
+            repl.add(new Instruction(OpCode.store, s));
+        } else {
+            return;
+        }
+        if (!loop.increment(i) || !loop.load(i)
+                || !sameCode(bound, loop.bound(OpCode.jlt, OpCode.jlti))) {
+            return;
+        }
+        int end = loop.pos;
+        if (end >= m.code.size() || m.code.get(end) != exit
+                || m.code.get(end - 1).target != m.code.get(body) || enteredInside(n, body, end)) {
+            return;
+        }
+
+        m.retarget(m.code.get(n), repl.get(0));
+        m.code.subList(n, end).clear();
+        m.code.addAll(n, repl);
+    }
+
+    /**
+     * True if a jump other than the loop jump at <code>end - 1</code> to
+     * the body start leads into instructions <code>n + 1</code> to
+     * <code>end - 1</code>.
+     */
+    private boolean enteredInside(int n, int body, int end) {
+        List<Instruction> inside = m.code.subList(n + 1, end);
+        for (int k = 0; k < m.code.size(); k++) {
+            Instruction i = m.code.get(k);
+            if (i.target != null && inside.contains(i.target)
+                    && (k != end - 1 || i.target != m.code.get(body))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isLoad(List<Instruction> code, int adr) {
+        for (Instruction i : code) {
+            if (i.isLoad(adr)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean sameCode(List<Instruction> a, List<Instruction> b) {
+        if (a == null || b == null || a.size() != b.size()) {
+            return false;
+        }
+        for (int k = 0; k < a.size(); k++) {
+            if (a.get(k).op != b.get(k).op || a.get(k).val != b.get(k).val) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Matches instructions of the method starting at <code>pos</code>. Every
+     * successful match advances <code>pos</code> and remembers the operation
+     * and operand of the last matched instruction.
+     */
+    private final class Matcher {
+        int pos;
+        OpCode op;
+        int val;
+
+        Matcher(int pos) {
+            this.pos = pos;
+        }
+
+        boolean op(OpCode expected) {
+            if (pos >= m.code.size() || m.code.get(pos).op != expected) {
+                return false;
+            }
+            op = expected;
+            val = m.code.get(pos).val;
+            pos++;
+            return true;
+        }
+
+        boolean load(int adr) {
+            return op(OpCode.load) && val == adr;
+        }
+
+        /**
+         * <code>load a</code> or <code>getstatic a</code>, where the local
+         * <code>a</code> is not the counter <code>i</code>.
+         */
+        List<Instruction> array(int i) {
+            int start = pos;
+            if (op(OpCode.load) && val != i) {
+                return copy(start);
+            }
+            pos = start;
+            return op(OpCode.getstatic) ? copy(start) : null;
+        }
+
+        /**
+         * A constant, local (other than <code>i</code>) or global.
+         */
+        List<Instruction> value(int i) {
+            int start = pos;
+            if (op(OpCode.const_) || op(OpCode.getstatic)) {
+                return copy(start);
+            }
+            return op(OpCode.load) && val != i ? copy(start) : null;
+        }
+
+        boolean store() {
+            return op(OpCode.astore) || op(OpCode.bastore);
+        }
+
+        boolean arrayLoad() {
+            return op(OpCode.aload) || op(OpCode.baload);
+        }
+
+        /**
+         * The loop bound followed by the conditional jump <code>jump</code>,
+         * or <code>immJump</code> if the bound is a constant. Returns the
+         * code that computes the bound.
+         */
+        List<Instruction> bound(OpCode jump, OpCode immJump) {
+            int start = pos;
+            if (op(immJump)) {
+                List<Instruction> bound = new ArrayList<>();
+                bound.add(new Instruction(OpCode.const_, val));
+                return bound;
+            }
+            if (op(OpCode.const_) || op(OpCode.load) || op(OpCode.getstatic)) {
+                if (op != OpCode.const_) {
+                    op(OpCode.arraylength);
+                }
+                List<Instruction> bound = copy(start);
+                if (op(jump)) {
+                    return bound;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * <code>i++</code> or <code>i = i + 1</code>.
+         */
+        boolean increment(int i) {
+            int start = pos;
+            if (op(OpCode.inc) && val == i && m.code.get(pos - 1).val2 == 1) {
+                return true;
+            }
+            pos = start;
+            if (load(i) && op(OpCode.addi) && val == 1 && op(OpCode.store) && val == i) {
+                return true;
+            }
+            pos = start;
+            return load(i) && op(OpCode.const_) && val == 1 && op(OpCode.add) && op(OpCode.store)
+                    && val == i;
+        }
+
+        private List<Instruction> copy(int start) {
+            List<Instruction> code = new ArrayList<>();
+            for (int k = start; k < pos; k++) {
+                code.add(m.code.get(k).copy());
+            }
+            return code;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package ssw.mj.opt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unrolls hot innermost loops once (needs a profile).
+ * <p>
+ * A loop is a backward conditional jump to the loop start <code>B</code>.
+ * The loop body including the condition is duplicated and the condition of
+ * the first copy is inverted to leave the loop, so only every second
+ * iteration takes a backward jump:
+ *
+ * <pre>
+ * B:    body                B:    body
+ *       jcc B          -&gt;         jncc EXIT
+ * EXIT:                           body'
+ *                                 jcc B
+ *                           EXIT:
+ * </pre>
+ *
+ * Both copies end with the complete loop condition, so jumps into the body
+ * from outside stay correct.
+ */
+final class LoopUnroller {
+    /**
+     * Loops whose backward jump was taken at least this often are hot.
+     */
+    static final long HOT_LOOP = 1000;
+    /**
+     * Loops up to this size (in bytes) are unrolled.
+     */
+    static final int MAX_SIZE = 64;
+
+    private final ProgramCode prog;
+    private final MethodCode m;
+
+    LoopUnroller(ProgramCode prog, MethodCode m) {
+        this.prog = prog;
+        this.m = m;
+    }
+
+    void run() {
+        if (!prog.hasProfile()) {
+            return;
+        }
+        for (int n = 0; n + 1 < m.code.size(); n++) {
+            Instruction i = m.code.get(n);
+            if (i.isConditionalJump() && prog.taken(i) >= HOT_LOOP) {
+                int start = m.code.indexOf(i.target);
+                if (start <= n && isInnermost(start, n) && size(start, n) <= MAX_SIZE) {
+                    n = unroll(start, n);
+                }
+            }
+        }
+    }
+
+    /**
+     * True if the loop from <code>start</code> to the backward jump at
+     * <code>end</code> contains no other backward jump.
+     */
+    private boolean isInnermost(int start, int end) {
+        for (int n = start; n < end; n++) {
+            Instruction i = m.code.get(n);
+            if (i.isJump()) {
+                int t = m.code.indexOf(i.target);
+                if (t <= n) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private int size(int start, int end) {
+        int size = 0;
+        for (int n = start; n <= end; n++) {
+            size += ProgramCode.size(m.code.get(n));
+        }
+        return size;
+    }
+
+    /**
+     * Unrolls the loop from <code>start</code> to the backward jump at
+     * <code>end</code> and returns the index of the new backward jump.
+     */
+    private int unroll(int start, int end) {
+        Instruction back = m.code.get(end);
+        Instruction exit = m.code.get(end + 1);
+        Map<Instruction, Instruction> copies = new HashMap<>();
+        List<Instruction> body = new ArrayList<>();
+        for (int n = start; n <= end; n++) {
+            Instruction copy = m.code.get(n).copy();
+            copies.put(m.code.get(n), copy);
+            body.add(copy);
+        }
+        for (Instruction i : body) {
+            if (i.target != null && copies.containsKey(i.target)) {
+                i.target = copies.get(i.target);
+            }
+        }
+        // the second copy jumps back to the first one
+        copies.get(back).target = back.target;
+        back.invertCondition();
+        back.target = exit;
+        m.code.addAll(end + 1, body);
+        return end + body.size();
+    }
+}
@@ -0,0 +1,164 @@
+package ssw.mj.opt;
+
+import ssw.mj.symtab.Obj;
+import ssw.mj.symtab.Tab;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The decoded body of a single method. The <code>enter</code> instruction is
+ * not part of the instruction list, its operands are stored in
+ * <code>nPars</code> and <code>nLocals</code>.
+ */
+public final class MethodCode {
+    /**
+     * Method object from the symbol table.
+     */
+    public final Obj meth;
+    /**
+     * Number of parameters (first operand of enter).
+     */
+    public int nPars;
+    /**
+     * Size of the local variable area (second operand of enter).
+     */
+    public int nLocals;
+    /**
+     * True if the method has no frame, i.e. no enter and no exit.
+     */
+    public boolean frameless;
+    /**
+     * False if the locals are all written before they are read, so enter
+     * does not have to clear them (<code>enter_nc</code>).
+     */
+    public boolean clearsLocals = true;
+    /**
+     * Instructions of the method body (without enter).
+     */
+    public final List<Instruction> code = new ArrayList<>();
+    /**
+     * Start address of the method in the code buffer.
+     */
+    public int adr;
+
+    public MethodCode(Obj meth) {
+        this.meth = meth;
+    }
+
+    /**
+     * True if the method leaves a return value on the expression stack.
+     */
+    public boolean isFunction() {
+        return meth.type != Tab.noType;
+    }
+
+    /**
+     * Allocates <code>n</code> additional local variables and returns the
+     * address of the first one.
+     */
+    public int allocLocals(int n) {
+        int adr = nLocals;
+        nLocals += n;
+        return adr;
+    }
+
+    /**
+     * Returns all instructions that are the destination of a jump.
+     */
+    public Set<Instruction> jumpTargets() {
+        Set<Instruction> targets = new HashSet<>();
+        for (Instruction i : code) {
+            if (i.target != null) {
+                targets.add(i.target);
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Returns true if an instruction of this method calls <code>m</code>.
+     */
+    public boolean calls(MethodCode m) {
+        for (Instruction i : code) {
+            if (i.callee == m) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces every reference to <code>old</code> (as jump target) by
+     * <code>repl</code>. Used before <code>old</code> is removed from the
+     * instruction list.
+     */
+    public void retarget(Instruction old, Instruction repl) {
+        for (Instruction i : code) {
+            if (i.target == old) {
+                i.target = repl;
+            }
+        }
+    }
+
+    /**
+     * Removes the instructions in <code>dead</code>. Jumps to a removed
+     * instruction are redirected to the next instruction that remains.
+     */
+    public void remove(Set<Instruction> dead) {
+        if (dead.isEmpty()) {
+            return;
+        }
+        Map<Instruction, Instruction> repl = new HashMap<>();
+        List<Instruction> pending = new ArrayList<>();
+        List<Instruction> live = new ArrayList<>(code.size());
+        for (Instruction i : code) {
+            if (dead.contains(i)) {
+                pending.add(i);
+            } else {
+                for (Instruction p : pending) {
+                    repl.put(p, i);
+                }
+                pending.clear();
+                live.add(i);
+            }
+        }
+        for (Instruction i : live) {
+            if (i.target != null && repl.containsKey(i.target)) {
+                i.target = repl.get(i.target);
+            }
+        }
+        code.clear();
+        code.addAll(live);
+    }
+
+    /**
+     * Size of the method in bytes, including enter.
+     */
+    public int size() {
+        int size = ProgramCode.enterSize(this);
+        for (Instruction i : code) {
+            size += ProgramCode.size(i);
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(meth.name);
+        if (frameless) {
+            sb.append(": no frame\n");
+        } else {
+            sb.append(clearsLocals ? ": enter " : ": enter_nc ");
+            sb.append(nPars).append(", ").append(nLocals).append('\n');
+        }
+        for (Instruction i : code) {
+            sb.append("  ").append(i.pc).append(": ").append(i).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,75 @@
+package ssw.mj.opt;
+
+import ssw.mj.Profile;
+import ssw.mj.codegen.Code;
+import ssw.mj.symtab.Obj;
+
+/**
+ * Optimizes the code of a completely parsed program. The code buffer is
+ * decoded into <code>ProgramCode</code>, transformed by the optimization
+ * passes and written back to the code buffer.
+ */
+public final class Optimizer {
+
+    private final ProgramCode prog;
+
+    public Optimizer(ProgramCode prog) {
+        this.prog = prog;
+    }
+
+    /**
+     * Optimizes the code of program <code>program</code> in place.
+     */
+    public static void optimize(Code code, Obj program) {
+        optimize(code, program, null);
+    }
+
+    /**
+     * Optimizes the code of program <code>program</code> in place, guided by
+     * <code>profile</code> (may be null). The profile must have been recorded
+     * with the code this program compiles to without a profile, which is
+     * reproduced first to relate the profile to the instructions. Returns
+     * false if the profile does not fit and the code is optimized without
+     * it.
+     */
+    public static boolean optimize(Code code, Obj program, Profile profile) {
+        ProgramCode prog = ProgramCode.decode(code, program.locals);
+        if (prog == null) {
+            return true;
+        }
+        boolean profiled = true;
+        if (profile != null) {
+            ProgramCode plain = ProgramCode.decode(code, program.locals);
+            new Optimizer(plain).run();
+            profiled = prog.useProfile(plain, profile);
+        }
+        new Optimizer(prog).run();
+        prog.encode(code);
+        return profiled;
+    }
+
+    public void run() {
+        new Inliner(prog).run();
+        new DeadDeclarations(prog).run();
+        for (MethodCode m : prog.methods) {
+            optimizeMethod(prog, m);
+        }
+    }
+
+    /**
+     * Runs the passes that optimize a single method of <code>prog</code>
+     * after inlining and the removal of dead declarations.
+     */
+    static void optimizeMethod(ProgramCode prog, MethodCode m) {
+        new JumpOptimizer(m).run();
+        new LoopIdioms(m).run();
+        new EscapeAnalysis(m).run();
+        new CommonSubexpressions(m).run();
+        new TailCalls(m).run();
+        new BlockLayout(prog, m).run();
+        new LoopUnroller(prog, m).run();
+        new JumpOptimizer(m).run();
+        new LocalSlots(prog, m).run();
+        new Frames(m).run();
+    }
+}
@@ -0,0 +1,581 @@
+package ssw.mj.opt;
+
+import ssw.mj.Profile;
+import ssw.mj.codegen.Code;
+import ssw.mj.codegen.Code.OpCode;
+import ssw.mj.symtab.Obj;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The decoded code of a whole program, one <code>MethodCode</code> per
+ * method in the order of their addresses. The program can be decoded from a
+ * code buffer, transformed by the optimizer and encoded again.
+ */
+public final class ProgramCode {
+    /**
+     * All methods of the program, in code buffer order.
+     */
+    public final List<MethodCode> methods = new ArrayList<>();
+    /**
+     * The main method.
+     */
+    public MethodCode main;
+    /**
+     * Number of global variables.
+     */
+    public int dataSize;
+    /**
+     * Execution count and number of taken jumps by instruction origin, from
+     * the profile of an earlier run. Null if there is no profile.
+     */
+    private Map<Integer, long[]> counts;
+
+    /**
+     * Decodes the code buffer into methods and instructions. The methods are
+     * taken from the global declarations <code>decls</code>. Returns null if
+     * the code buffer cannot be decoded (which only happens for erroneous
+     * programs).
+     */
+    public static ProgramCode decode(Code code, Collection<Obj> decls) {
+        ProgramCode prog = new ProgramCode();
+        prog.dataSize = code.dataSize;
+        for (Obj o : decls) {
+            if (o.kind == Obj.Kind.Meth) {
+                prog.methods.add(new MethodCode(o));
+            }
+        }
+        prog.methods.sort(Comparator.comparingInt(m -> m.meth.adr));
+
+        Map<Integer, MethodCode> methodAt = new HashMap<>();
+        for (MethodCode m : prog.methods) {
+            m.adr = m.meth.adr;
+            methodAt.put(m.adr, m);
+            if (m.adr == code.mainpc) {
+                prog.main = m;
+            }
+        }
+        for (int n = 0; n < prog.methods.size(); n++) {
+            int end = n + 1 < prog.methods.size() ? prog.methods.get(n + 1).adr : code.pc;
+            if (!decode(code, prog.methods.get(n), end, methodAt)) {
+                return null;
+            }
+        }
+        if (prog.main == null) {
+            return null;
+        }
+        return prog;
+    }
+
+    /**
+     * Decodes the code of method <code>m</code> from <code>m.adr</code> to
+     * <code>end</code>. Calls are resolved with <code>methodAt</code>, which
+     * maps the addresses of all methods to their <code>MethodCode</code>.
+     * Returns false if the code cannot be decoded.
+     */
+    static boolean decode(Code code, MethodCode m, int end, Map<Integer, MethodCode> methodAt) {
+        boolean wide = m.adr < end && OpCode.get(code.buf[m.adr]) == OpCode.wide;
+        int enter = wide ? m.adr + 1 : m.adr;
+        if (enter + (wide ? 5 : 3) > end || OpCode.get(code.buf[enter]) != OpCode.enter) {
+            return false;
+        }
+        m.nPars = wide ? code.get2(enter + 1) : code.buf[enter + 1];
+        m.nLocals = wide ? code.get2(enter + 3) : code.buf[enter + 2];
+
+        Map<Integer, Instruction> instrAt = new HashMap<>();
+        Map<Instruction, Integer> dist = new HashMap<>();
+        int pc = enter + (wide ? 5 : 3);
+        while (pc < end) {
+            Instruction i = decode(code, pc, dist);
+            if (i == null) {
+                return false;
+            }
+            i.origin = pc;
+            instrAt.put(pc, i);
+            m.code.add(i);
+            pc += size(code, pc);
+        }
+        if (pc != end) {
+            return false;
+        }
+
+        // resolve jump distances into references
+        for (Instruction i : m.code) {
+            if (i.isJump()) {
+                i.target = instrAt.get(i.pc + dist.get(i));
+                if (i.target == null) {
+                    return false;
+                }
+            } else if (i.isCall()) {
+                i.callee = methodAt.get(i.pc + dist.get(i));
+                if (i.callee == null) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the instruction at <code>pc</code>. Jump distances are stored
+     * in <code>dist</code>.
+     */
+    private static Instruction decode(Code code, int pc, Map<Instruction, Integer> dist) {
+        OpCode op = OpCode.get(code.buf[pc]);
+        if (op == null || op == OpCode.enter || op == OpCode.enter_nc) {
+            return null;
+        }
+        Instruction i;
+        if (op == OpCode.wide) {
+            i = decodeWide(code, pc, dist);
+            if (i != null) {
+                i.pc = pc;
+            }
+            return i;
+        }
+        if (op.longForm() != op) { // jump with an 8 bit distance
+            i = new Instruction(op.longForm());
+            dist.put(i, code.get(pc + 1));
+            if (i.isImmediateJump()) {
+                i.val = code.get2(pc + 2);
+            }
+            i.pc = pc;
+            return i;
+        }
+        switch (op) {
+            case load_0:
+            case load_1:
+            case load_2:
+            case load_3:
+                i = new Instruction(OpCode.load, op.code() - OpCode.load_0.code());
+                break;
+            case store_0:
+            case store_1:
+            case store_2:
+            case store_3:
+                i = new Instruction(OpCode.store, op.code() - OpCode.store_0.code());
+                break;
+            case const_0:
+            case const_1:
+            case const_2:
+            case const_3:
+            case const_4:
+            case const_5:
+                i = new Instruction(OpCode.const_, op.code() - OpCode.const_0.code());
+                break;
+            case const_m1:
+                i = new Instruction(OpCode.const_, -1);
+                break;
+            case inc:
+                i = new Instruction(op, code.buf[pc + 1], code.buf[pc + 2]);
+                break;
+            case incstatic:
+            case incfield:
+                i = new Instruction(op, code.get2(pc + 1), code.buf[pc + 3]);
+                break;
+            default:
+                i = new Instruction(op);
+                if (i.isImmediateJump()) {
+                    dist.put(i, code.get2(pc + 1));
+                    i.val = code.get2(pc + 3);
+                } else if (i.isJump() || i.isCall()) {
+                    dist.put(i, code.get2(pc + 1));
+                } else {
+                    i.val = operand(code, pc + 1, op.getOpsSize());
+                }
+                break;
+        }
+        i.pc = pc;
+        return i;
+    }
+
+    /**
+     * Decodes the instruction with a wide prefix at <code>pc</code>. Jump
+     * distances are stored in <code>dist</code>.
+     */
+    private static Instruction decodeWide(Code code, int pc, Map<Instruction, Integer> dist) {
+        if (pc + 1 >= code.pc) {
+            return null;
+        }
+        OpCode op = OpCode.get(code.buf[pc + 1]);
+        if (op == null) {
+            return null;
+        }
+        switch (op) {
+            case load:
+            case store:
+                return new Instruction(op, code.get2(pc + 2));
+            case inc:
+                return new Instruction(op, code.get2(pc + 2), code.get2(pc + 4));
+            case getstatic:
+            case putstatic:
+            case getfield:
+            case putfield:
+            case new_:
+                return new Instruction(op, code.get4(pc + 2));
+            case incstatic:
+            case incfield:
+                return new Instruction(op, code.get4(pc + 2), code.get2(pc + 6));
+            default:
+                Instruction i = new Instruction(op);
+                if (!i.isJump() && !i.isCall()) {
+                    return null;
+                }
+                dist.put(i, code.get4(pc + 2));
+                if (i.isImmediateJump()) {
+                    i.val = code.get4(pc + 6);
+                }
+                return i;
+        }
+    }
+
+    private static int operand(Code code, int pos, int size) {
+        switch (size) {
+            case 1:
+                return code.get(pos);
+            case 2:
+                return code.get2(pos);
+            case 4:
+                return code.get4(pos);
+            default:
+                return 0;
+        }
+    }
+
+    private static int size(Code code, int pc) {
+        OpCode op = OpCode.get(code.buf[pc]);
+        if (op == OpCode.wide) {
+            return 2 + 2 * OpCode.get(code.buf[pc + 1]).getOpsSize();
+        }
+        return 1 + op.getOpsSize();
+    }
+
+    /**
+     * Size of the encoded instruction in bytes. The shortest possible encoding
+     * is used, jumps and calls are assumed to have a 16 bit distance.
+     */
+    static int size(Instruction i) {
+        return size(i, 2);
+    }
+
+    /**
+     * Size of the encoded instruction in bytes, where the jump distance of a
+     * jump or call takes <code>distSize</code> bytes.
+     */
+    private static int size(Instruction i, int distSize) {
+        if (i.isJump() || i.isCall()) {
+            int imm = !i.isImmediateJump() ? 0 : distSize == 4 ? 4 : 2;
+            return (distSize == 4 ? 2 : 1) + distSize + imm;
+        }
+        switch (i.op) {
+            case load:
+            case store:
+                return i.val >= 0 && i.val <= 3 ? 1 : isByte(i.val) ? 2 : 4;
+            case const_:
+                return i.val >= -1 && i.val <= 5 ? 1 : 5;
+            default:
+                return isWide(i) ? 2 + 2 * i.op.getOpsSize() : 1 + i.op.getOpsSize();
+        }
+    }
+
+    /**
+     * Size of the encoded <code>enter</code> instruction in bytes.
+     */
+    static int enterSize(MethodCode m) {
+        if (m.frameless) {
+            return 0;
+        }
+        return isByte(m.nPars) && isByte(m.nLocals) ? 3 : 6;
+    }
+
+    /**
+     * True if the operands of the instruction need a wide prefix.
+     */
+    private static boolean isWide(Instruction i) {
+        switch (i.op) {
+            case load:
+            case store:
+                return !isByte(i.val);
+            case inc:
+                return !isByte(i.val) || !isByte(i.val2);
+            case getstatic:
+            case putstatic:
+            case getfield:
+            case putfield:
+            case new_:
+                return !isShort(i.val);
+            case incstatic:
+            case incfield:
+                return !isShort(i.val) || !isByte(i.val2);
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isByte(int x) {
+        return x >= Byte.MIN_VALUE && x <= Byte.MAX_VALUE;
+    }
+
+    private static boolean isShort(int x) {
+        return x >= Short.MIN_VALUE && x <= Short.MAX_VALUE;
+    }
+
+    /**
+     * Lays out all methods one after another and writes them to the code
+     * buffer. Method addresses (also in the symbol table), the main pc and
+     * the data size are updated.
+     */
+    public void encode(Code code) {
+        Map<Instruction, Integer> distSize = relax();
+
+        code.pc = 0;
+        for (MethodCode m : methods) {
+            m.meth.adr = m.adr;
+            OpCode enter = m.clearsLocals ? OpCode.enter : OpCode.enter_nc;
+            if (enterSize(m) == 3) {
+                code.put(enter);
+                code.put(m.nPars);
+                code.put(m.nLocals);
+            } else if (enterSize(m) == 6) {
+                code.put(OpCode.wide);
+                code.put(enter);
+                code.put2(m.nPars);
+                code.put2(m.nLocals);
+            }
+            for (Instruction i : m.code) {
+                encode(code, i, distSize.getOrDefault(i, 0));
+            }
+        }
+        code.mainpc = main.adr;
+        code.dataSize = dataSize;
+    }
+
+    /**
+     * Assigns the final addresses of all methods and instructions and
+     * returns the size of the jump distance of every jump and call.
+     */
+    private Map<Instruction, Integer> relax() {
+        // branch relaxation: every jump starts with an 8 bit distance (every
+        // call with a 16 bit one) and is widened as long as its distance does
+        // not fit. Widening only moves code apart, so this terminates.
+        Map<Instruction, Integer> distSize = new HashMap<>();
+        for (MethodCode m : methods) {
+            for (Instruction i : m.code) {
+                if (i.isJump()) {
+                    distSize.put(i, 1);
+                } else if (i.isCall()) {
+                    distSize.put(i, 2);
+                }
+            }
+        }
+        boolean changed;
+        do {
+            layout(distSize);
+            changed = false;
+            for (Map.Entry<Instruction, Integer> e : distSize.entrySet()) {
+                int dist = distance(e.getKey());
+                int size = isByte(dist) ? 1 : isShort(dist) ? 2 : 4;
+                if (size > e.getValue()) {
+                    e.setValue(size);
+                    changed = true;
+                }
+            }
+        } while (changed);
+        return distSize;
+    }
+
+    /**
+     * Assigns the addresses of all methods and instructions and returns the
+     * code size.
+     */
+    private int layout(Map<Instruction, Integer> distSize) {
+        int pc = 0;
+        for (MethodCode m : methods) {
+            m.adr = pc;
+            pc += enterSize(m);
+            for (Instruction i : m.code) {
+                i.pc = pc;
+                pc += size(i, distSize.getOrDefault(i, 0));
+            }
+        }
+        return pc;
+    }
+
+    /**
+     * Takes over the <code>profile</code> that was recorded for the code
+     * <code>profiled</code>, which must be this program optimized without a
+     * profile. The counts are mapped back to the unoptimized instructions,
+     * so they can be looked up by <code>origin</code> while this program is
+     * optimized. Returns false (and ignores the profile) if the profile does
+     * not fit the code.
+     */
+    public boolean useProfile(ProgramCode profiled, Profile profile) {
+        Map<Instruction, Integer> distSize = profiled.relax();
+        if (profiled.layout(distSize) != profile.codeSize()) {
+            return false;
+        }
+        Map<Integer, long[]> counts = new HashMap<>();
+        for (MethodCode m : profiled.methods) {
+            for (Instruction i : m.code) {
+                if (i.origin >= 0) {
+                    long[] c = counts.computeIfAbsent(i.origin, k -> new long[2]);
+                    c[0] += profile.count(i.pc);
+                    c[1] += profile.taken(i.pc);
+                }
+            }
+        }
+        this.counts = counts;
+        return true;
+    }
+
+    /**
+     * True if the optimizer can use a profile.
+     */
+    boolean hasProfile() {
+        return counts != null;
+    }
+
+    /**
+     * How often instruction <code>i</code> was executed in the profile.
+     */
+    long count(Instruction i) {
+        long[] c = counts == null ? null : counts.get(i.origin);
+        return c == null ? 0 : c[0];
+    }
+
+    /**
+     * How often the jump <code>i</code> was taken in the profile.
+     */
+    long taken(Instruction i) {
+        long[] c = counts == null ? null : counts.get(i.origin);
+        return c == null ? 0 : c[1];
+    }
+
+    /**
+     * Execution count of every instruction of <code>m</code>. All
+     * instructions of a basic block run equally often, so instructions
+     * created by the optimizer get the count of the decoded instructions in
+     * their block.
+     */
+    long[] frequencies(MethodCode m) {
+        long[] freq = new long[m.code.size()];
+        for (Block b : Block.of(m)) {
+            long count = 0;
+            for (int n = b.start; n < b.end; n++) {
+                count = Math.max(count, count(m.code.get(n)));
+            }
+            for (int n = b.start; n < b.end; n++) {
+                freq[n] = count;
+            }
+        }
+        return freq;
+    }
+
+    /**
+     * Jump distance of a jump or call, relative to its own address.
+     */
+    private static int distance(Instruction i) {
+        return (i.isCall() ? i.callee.adr : i.target.pc) - i.pc;
+    }
+
+    private static void encode(Code code, Instruction i, int distSize) {
+        if (i.isJump() || i.isCall()) {
+            if (distSize == 1) {
+                code.put(i.op.shortForm());
+                code.put(distance(i));
+            } else if (distSize == 2) {
+                code.put(i.op);
+                code.put2(distance(i));
+            } else {
+                code.put(OpCode.wide);
+                code.put(i.op);
+                code.put4(distance(i));
+            }
+            if (i.isImmediateJump() && distSize == 4) {
+                code.put4(i.val);
+            } else if (i.isImmediateJump()) {
+                code.put2(i.val);
+            }
+            return;
+        }
+        if (isWide(i)) {
+            code.put(OpCode.wide);
+            code.put(i.op);
+            if (i.op.getOpsSize() == 1) { // load, store
+                code.put2(i.val);
+            } else if (i.op == OpCode.inc) {
+                code.put2(i.val);
+                code.put2(i.val2);
+            } else if (i.op == OpCode.incstatic || i.op == OpCode.incfield) {
+                code.put4(i.val);
+                code.put2(i.val2);
+            } else {
+                code.put4(i.val);
+            }
+            return;
+        }
+        switch (i.op) {
+            case load:
+                if (i.val >= 0 && i.val <= 3) {
+                    code.put(OpCode.load_0.code() + i.val);
+                } else {
+                    code.put(OpCode.load);
+                    code.put(i.val);
+                }
+                return;
+            case store:
+                if (i.val >= 0 && i.val <= 3) {
+                    code.put(OpCode.store_0.code() + i.val);
+                } else {
+                    code.put(OpCode.store);
+                    code.put(i.val);
+                }
+                return;
+            case const_:
+                if (i.val == -1) {
+                    code.put(OpCode.const_m1);
+                } else if (i.val >= 0 && i.val <= 5) {
+                    code.put(OpCode.const_0.code() + i.val);
+                } else {
+                    code.put(OpCode.const_);
+                    code.put4(i.val);
+                }
+                return;
+            case inc:
+                code.put(OpCode.inc);
+                code.put(i.val);
+                code.put(i.val2);
+                return;
+            case incstatic:
+            case incfield:
+                code.put(i.op);
+                code.put2(i.val);
+                code.put(i.val2);
+                return;
+            default:
+                break;
+        }
+        code.put(i.op);
+        if (i.op.getOpsSize() == 1) {
+            code.put(i.val);
+        } else if (i.op.getOpsSize() == 2) {
+            code.put2(i.val);
+        } else if (i.op.getOpsSize() == 4) {
+            code.put4(i.val);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (MethodCode m : methods) {
+            sb.append(m);
+        }
+        return sb.toString();
+    }
+}
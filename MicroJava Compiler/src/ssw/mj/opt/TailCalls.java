@@ -0,0 +1,80 @@
+package ssw.mj.opt;
+
+import ssw.mj.codegen.Code.OpCode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Optimizes calls in tail position, i.e. calls that are directly followed by
+ * <code>exit; return</code> (possibly reached by unconditional jumps).
+ * <p>
+ * A recursive call of the method itself becomes a loop: the arguments are
+ * stored into the parameters, the other locals are cleared like
+ * <code>enter</code> would do and control jumps back to the start of the
+ * method body. Any other tail call becomes a <code>tailcall</code>, which
+ * releases the frame of the current method before jumping to the callee, so
+ * the callee returns directly to the caller of the current method. Neither
+ * form grows the method stack.
+ */
+final class TailCalls {
+    private final MethodCode m;
+
+    TailCalls(MethodCode m) {
+        this.m = m;
+    }
+
+    void run() {
+        if (m.code.isEmpty()) {
+            return;
+        }
+        Instruction start = m.code.get(0);
+        List<Instruction> code = new ArrayList<>(m.code.size());
+        for (int n = 0; n < m.code.size(); n++) {
+            Instruction i = m.code.get(n);
+            if (i.op != OpCode.call || !returnsAfter(n)) {
+                code.add(i);
+            } else if (i.callee == m) {
+                List<Instruction> loop = new ArrayList<>();
+                for (int k = m.nPars - 1; k >= 0; k--) {
+                    loop.add(new Instruction(OpCode.store, k));
+                }
+                for (int k = m.nPars; k < m.nLocals; k++) {
+                    loop.add(new Instruction(OpCode.const_, 0));
+                    loop.add(new Instruction(OpCode.store, k));
+                }
+                loop.add(Instruction.jump(OpCode.jmp, start));
+                // the call instruction is reused as the first instruction,
+                // because it may be a jump target
+                Instruction first = loop.get(0);
+                i.op = first.op;
+                i.val = first.val;
+                i.target = first.target;
+                i.callee = null;
+                loop.set(0, i);
+                code.addAll(loop);
+            } else {
+                i.op = OpCode.tailcall;
+                code.add(i);
+            }
+        }
+        m.code.clear();
+        m.code.addAll(code);
+    }
+
+    /**
+     * True if the instruction at index <code>n</code> is followed by
+     * <code>exit; return</code>.
+     */
+    private boolean returnsAfter(int n) {
+        Instruction next = n + 1 < m.code.size() ? m.code.get(n + 1) : null;
+        for (int k = 0; next != null && next.op == OpCode.jmp && k < m.code.size(); k++) {
+            next = next.target;
+        }
+        if (next == null || next.op != OpCode.exit) {
+            return false;
+        }
+        int e = m.code.indexOf(next);
+        return e + 1 < m.code.size() && m.code.get(e + 1).op == OpCode.return_;
+    }
+}
@@ -49,12 +49,17 @@ public class Obj {
      * Only for Meth: Is the last parameter a vararg parameter?
      */
     public boolean hasVarArg;
+    /**
+     * Only for Meth: Can the vararg array still be referenced after the
+     * method returned (i.e. is it used other than by indexing and len)?
+     */
+    public boolean varArgEscapes;
     // Do not directly add to this list.
     // If you finished reading the locals of a method, use meth.locals = curScope.locals() and close the scope afterwards
     /**
      * Only for Meth / Prog: List of local variables / global declarations.
      */
-    public LinkedList<Obj> locals = new LinkedList<>();
+    public List<Obj> locals = new LinkedList<>();
 
     public Obj(Kind kind, String name, StructImpl type) {
         this.kind = kind;
@@ -1,6 +1,8 @@
 package ssw.mj.symtab;
 
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 
 /**
  * MicroJava Symbol Table Scopes
@@ -11,9 +13,18 @@ public final class Scope {
      */
     private Scope outer;
     /**
-     * Declarations of this scope.
+     * Declarations of this scope (unmodifiable once the scope is frozen).
      */
-    private LinkedList<Obj> locals = new LinkedList<>();
+    private List<Obj> locals = new LinkedList<>();
+    /**
+     * Open addressing hash table of the declarations by name, null for free
+     * slots; at most half full.
+     */
+    private Obj[] table = new Obj[8];
+    /**
+     * True if nothing may be declared in this scope any more.
+     */
+    private boolean frozen;
     /**
      * Number of variables in this scope.
      */
@@ -35,9 +46,19 @@ public final class Scope {
         return res;
     }
 
+    /**
+     * Retrieves the declaration <code>name</code> of this scope (null if
+     * there is none or if <code>name</code> is null, e.g. after a missing
+     * identifier).
+     */
     public Obj findLocal(String name) {
-        for(Obj o : locals) {
-            if(o.name.equals(name)) {
+        if (name == null) {
+            return null;
+        }
+        int mask = table.length - 1;
+        for (int k = name.hashCode() & mask; table[k] != null; k = (k + 1) & mask) {
+            Obj o = table[k];
+            if (o.name == name || o.name.equals(name)) {
                 return o;
             }
         }
@@ -45,17 +66,62 @@ public final class Scope {
     }
 
     public void insert(Obj o) {
+        if (frozen) {
+            throw new IllegalStateException("declaration of " + o.name + " in a frozen scope");
+        }
         locals.add(o);
         if (o.kind == Obj.Kind.Var) {
             nVars++;
         }
+        if (2 * locals.size() > table.length) {
+            table = new Obj[2 * table.length];
+            for (Obj x : locals) {
+                index(x);
+            }
+        } else {
+            index(o);
+        }
+    }
+
+    private void index(Obj o) {
+        int mask = table.length - 1;
+        int k = o.name.hashCode() & mask;
+        while (table[k] != null) {
+            k = (k + 1) & mask;
+        }
+        table[k] = o;
+    }
+
+    /**
+     * Prevents further declarations in this scope, e.g. for a scope that is
+     * shared by several compilations; <code>locals()</code> cannot be
+     * changed either any more.
+     */
+    public void freeze() {
+        if (!frozen) {
+            frozen = true;
+            locals = Collections.unmodifiableList(locals);
+        }
+    }
+
+    /**
+     * Returns a new scope with the declarations of this scope (the same
+     * objects), in which further declarations can be made without changing
+     * this scope, e.g. for a frozen scope that is shared.
+     */
+    public Scope copy() {
+        Scope s = new Scope(outer);
+        s.locals = new LinkedList<>(locals);
+        s.table = table.clone();
+        s.nVars = nVars;
+        return s;
     }
 
     public Scope outer() {
         return outer;
     }
 
-    public LinkedList<Obj> locals() {
+    public List<Obj> locals() {
         return locals;
     }
 }
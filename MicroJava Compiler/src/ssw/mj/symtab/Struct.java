@@ -34,6 +34,20 @@ public abstract class Struct {
      * Only for Class: First element of the linked list of local variables.
      */
     public List<Obj> fields = Collections.emptyList();
+    /**
+     * Only for Class: Open addressing hash table of the fields by name (null
+     * for free slots), built by <code>freezeFields</code>; null before.
+     */
+    private Obj[] fieldIndex;
+    /**
+     * Only for Class: Number of fields, set by <code>freezeFields</code>.
+     */
+    private int nFields;
+    /**
+     * Only for Class: Bit <code>adr</code> is set if the field at offset
+     * <code>adr</code> holds a reference, set by <code>freezeFields</code>.
+     */
+    private long[] refFields;
 
     protected Struct(Kind kind, StructImpl elemType) {
         this.kind = kind;
@@ -52,11 +66,50 @@ public abstract class Struct {
     }
 
     /**
-     * Retrieves the field <code>name</code>.
+     * Only for Class: Builds the layout of <code>fields</code> (index by name,
+     * number of fields and reference fields). Must be called once, when the
+     * class declaration is closed; the fields must not change afterwards.
+     */
+    public void freezeFields() {
+        if (fieldIndex != null) {
+            throw new IllegalStateException("fields of " + this + " are frozen");
+        }
+        nFields = fields.size();
+        fieldIndex = new Obj[Integer.highestOneBit(Math.max(2 * nFields, 4) - 1) << 1];
+        refFields = new long[(nFields + 63) / 64];
+        int mask = fieldIndex.length - 1;
+        for (Obj field : fields) {
+            int k = field.name.hashCode() & mask;
+            while (fieldIndex[k] != null) {
+                k = (k + 1) & mask;
+            }
+            fieldIndex[k] = field;
+            if (field.type.kind == Kind.Class || field.type.kind == Kind.Arr) {
+                refFields[field.adr >> 6] |= 1L << field.adr;
+            }
+        }
+    }
+
+    /**
+     * Retrieves the field <code>name</code> (null if there is none or if
+     * <code>name</code> is null, e.g. after a missing identifier).
      */
     public Obj findField(String name) {
-        for(Obj field : fields) {
-            if(field.name.equals(name)) {
+        if (name == null) {
+            return null;
+        }
+        if (fieldIndex == null) {
+            for (Obj field : fields) {
+                if (field.name.equals(name)) {
+                    return field;
+                }
+            }
+            return null;
+        }
+        int mask = fieldIndex.length - 1;
+        for (int k = name.hashCode() & mask; fieldIndex[k] != null; k = (k + 1) & mask) {
+            Obj field = fieldIndex[k];
+            if (field.name == name || field.name.equals(name)) {
                 return field;
             }
         }
@@ -67,7 +120,15 @@ public abstract class Struct {
      * Only for Class: Number of fields.
      */
     public int nrFields() {
-        return fields.size();
+        return fieldIndex == null ? fields.size() : nFields;
+    }
+
+    /**
+     * Only for Class: True if the field at offset <code>adr</code> holds a
+     * reference (array or object). Needs <code>freezeFields</code>.
+     */
+    public boolean isRefField(int adr) {
+        return adr >= 0 && adr < nFields && (refFields[adr >> 6] & 1L << adr) != 0;
     }
 
     @Override
@@ -8,12 +8,29 @@ import ssw.mj.impl.StructImpl;
  */
 public abstract class Tab {
     // Universe
+    // The types are shared by all compilations (also concurrent ones), so
+    // they must not be changed: their (empty) field layout is frozen, and
+    // their array types are created thread-safely (StructImpl.arrayType).
+    // Callers must never write to them (e.g. assign their fields).
     public static final StructImpl noType = new StructImpl(Struct.Kind.None);
     public static final StructImpl intType = new StructImpl(Struct.Kind.Int);
     public static final StructImpl charType = new StructImpl(Struct.Kind.Char);
     public static final StructImpl nullType = new StructImpl(Struct.Kind.Class);
 
-    public Obj noObj, chrObj, ordObj, lenObj;
+    static {
+        noType.freezeFields();
+        intType.freezeFields();
+        charType.freezeFields();
+        nullType.freezeFields();
+    }
+
+    public Obj noObj;
+    /**
+     * The predefined methods, shared by all compilations like the types
+     * above: callers must never write to these objects (see
+     * <code>TabImpl.UNIVERSE</code>).
+     */
+    public Obj chrObj, ordObj, lenObj, arraycopyObj, fillObj, equalsObj;
 
     /**
      * Only used for reporting errors.
@@ -1,9 +1,21 @@
 package ssw.mj.test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static ssw.mj.Errors.Message.*;
 
+import java.io.StringReader;
+import java.util.Arrays;
+
 import org.junit.Test;
 
+import ssw.mj.Interpreter;
+import ssw.mj.Profile;
+import ssw.mj.impl.ParserImpl;
+import ssw.mj.impl.ScannerImpl;
+
 /**
  * Test cases for the examples from the lab sessions 8 and 9.
  */
@@ -575,6 +587,163 @@ public class CodeGenerationTest extends CompilerTestCaseSupport {
 		parseAndVerify();
 	}
 
+	@Test
+	public void rotatedWhile() {
+		init("program Test {" + LF + //
+				"  void main() int i, n; {" + LF + //
+				"    read(n);" + LF + //
+				"    i = 0;" + LF + //
+				"    while (i < n) { print(i); i++; }" + LF + //
+				"  }" + LF + //
+				"}");
+		addExpectedRun("0", "");
+		addExpectedRun("4", "0123");
+		parseAndVerify();
+		// the condition is tested at the end of the loop, no jump back to the top
+		assertFalse(parser.code.dump().contains("jmp"));
+	}
+
+	@Test
+	public void whileShortCircuit() {
+		init("program Test" + LF + //
+				"  int[] a;" + LF + //
+				"{" + LF + //
+				"  void main() int i, n; {" + LF + //
+				"    read(n);" + LF + //
+				"    a = new int[3];" + LF + //
+				"    a[2] = 7;" + LF + //
+				"    i = 0;" + LF + //
+				"    while (i < 3 && a[i] != 7 || i == n) { print(i); i++; }" + LF + //
+				"    print(i);" + LF + //
+				"    while (i > 0 || n > 0) { i--; n--; if (i == 1) break; }" + LF + //
+				"    print(i);" + LF + //
+				"  }" + LF + //
+				"}");
+		addExpectedRun("9", "0121");
+		addExpectedRun("2", "01231");
+		parseAndVerify();
+	}
+
+	@Test
+	public void extendedInstructions() {
+		init("program Test" + LF + //
+				"  class C { int f; }" + LF + //
+				"  int g;" + LF + //
+				"  C obj;" + LF + //
+				"{" + LF + //
+				"  void main() int i; {" + LF + //
+				"    obj = new C;" + LF + //
+				"    read(i);" + LF + //
+				"    while (i != 0) { g++; obj.f--; i = i - 1; }" + LF + //
+				"    if (g > 2) print(g * 100 + 7);" + LF + //
+				"    if (obj.f == -3) print(obj.f);" + LF + //
+				"  }" + LF + //
+				"}");
+		addExpectedRun("3", "307-3");
+		addExpectedRun("1", "");
+		parseAndVerify();
+		String code = parser.code.dump();
+		assertTrue(code.contains("incstatic"));
+		assertTrue(code.contains("incfield"));
+		assertTrue(code.contains("jnez"));
+		assertTrue(code.contains("jlei_s 2"));
+		assertTrue(code.contains("muli 100"));
+		assertTrue(code.contains("addi 7"));
+		assertTrue(code.contains("subi 1"));
+	}
+
+	@Test
+	public void wideInstructions() {
+		StringBuilder names = new StringBuilder();
+		StringBuilder stmts = new StringBuilder();
+		StringBuilder sum = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			if (i > 0) {
+				names.append(",");
+				sum.append(" + ");
+			}
+			names.append("i").append(i);
+			stmts.append("    i").append(i).append(" = ").append(i).append(";").append(LF);
+			sum.append("i").append(i);
+		}
+		init("program Test" + LF + //
+				"{" + LF + //
+				"  void main()" + LF + //
+				"    int " + names + ";" + LF + //
+				"  {" + LF + //
+				stmts + //
+				"    i199++; i150--;" + LF + //
+				"    print(" + sum + ");" + LF + //
+				"  }" + LF + //
+				"}");
+		addExpectedRun("19900");
+		parseAndVerify();
+		String code = parser.code.dump();
+		assertTrue(code.contains("wide enter_nc 0, 200"));
+		assertTrue(code.contains("wide store"));
+		assertTrue(code.contains("wide load"));
+	}
+
+	@Test
+	public void largeFrameUnoptimized() {
+		StringBuilder names = new StringBuilder();
+		for (int i = 0; i < 4100; i++) {
+			if (i > 0) {
+				names.append(",");
+			}
+			names.append("i").append(i);
+		}
+		init("program Test" + LF + //
+				"{" + LF + //
+				"  int big(int p)" + LF + //
+				"    int " + names + ";" + LF + //
+				"  {" + LF + //
+				"    i0 = p; i4099 = p + 1;" + LF + //
+				"    return i0 + i4099;" + LF + //
+				"  }" + LF + //
+				"  void main() int x; {" + LF + //
+				"    read(x);" + LF + //
+				"    print(big(x) + big(x + 1));" + LF + //
+				"  }" + LF + //
+				"}");
+		addExpectedRun("5", "24");
+		// all 4101 slots are used, more than the initial method stack
+		parser.optimize = false;
+		parseAndVerify();
+		assertTrue(parser.code.dump().contains("wide enter 1, 4101"));
+	}
+
+	@Test
+	public void longJumps() {
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			body.append("      g = g + i;").append(LF);
+		}
+		init("program Test" + LF + //
+				"  int g;" + LF + //
+				"{" + LF + //
+				"  void main()" + LF + //
+				"    int i, n;" + LF + //
+				"  {" + LF + //
+				"    read(n);" + LF + //
+				"    while (i < n) {" + LF + //
+				body + //
+				"      i++;" + LF + //
+				"    }" + LF + //
+				"    if (g > 0) print(g); else print(0);" + LF + //
+				"  }" + LF + //
+				"}");
+		addExpectedRun("3", "15000");
+		addExpectedRun("0", "0");
+		parseAndVerify();
+		String code = parser.code.dump();
+		// the loop needs 32 bit distances, the if statement 8 bit ones
+		assertTrue(code.contains("wide jge"));
+		assertTrue(code.contains("wide jlt"));
+		assertTrue(code.contains("jlez_s"));
+		assertTrue(code.contains("jmp_s"));
+	}
+
 	@Test
 	public void testBreak() {
 		init("program A" + LF + //
@@ -910,4 +1079,1307 @@ public class CodeGenerationTest extends CompilerTestCaseSupport {
 		addExpectedRun("");
 		parseAndVerify();
 	}
+
+	@Test
+	public void varArgsAreReleased() {
+		init("program Test" + LF + // 1
+				"{" + LF + // 2
+				" int sum(int xs...) { return xs[0] + xs[1] + xs[2]; }" + LF + // 3
+				" void main() int i, s; { " + LF + // 4
+				"  while (i < 50000) { s = s + sum(#3 i, 1, 2); i++; } " + LF + // 5
+				"  print(s); " + LF + // 6
+				" }" + LF + // 7
+				"}" + LF // 8
+		);
+		// without releasing the arrays the heap would overflow
+		addExpectedRun("1250125000");
+		parseAndVerify();
+		String code = parser.code.dump();
+		assertTrue(code.contains("newvararg 1"));
+		assertTrue(code.contains("freevararg"));
+	}
+
+	@Test
+	public void escapingVarArgsStayOnHeap() {
+		init("program Test" + LF + // 1
+				"  int[] g;" + LF + // 2
+				"{" + LF + // 3
+				" void keep(int xs...) { g = xs; }" + LF + // 4
+				" void main() int[] a; { " + LF + // 5
+				"  keep(#2 7, 8); " + LF + // 6
+				"  a = new int[2]; a[0] = 1; a[1] = 2; " + LF + // 7
+				"  print(g[0]); print(g[1]); " + LF + // 8
+				" }" + LF + // 9
+				"}" + LF // 10
+		);
+		addExpectedRun("78");
+		parseAndVerify();
+		assertFalse(parser.code.dump().contains("newvararg"));
+	}
+
+	@Test
+	public void bulkArrayBuiltins() {
+		init("program Test" + LF + // 1
+				"{" + LF + // 2
+				" void main() int[] a, b; char[] c, d; int i; { " + LF + // 3
+				"  a = new int[5]; b = new int[5]; " + LF + // 4
+				"  while (i < 5) { a[i] = i + 1; i++; } " + LF + // 5
+				"  arraycopy(a, 0, a, 1, 4); " + LF + // 6
+				"  i = 0; while (i < 5) { print(a[i]); i++; } " + LF + // 7
+				"  print(' '); " + LF + // 8
+				"  fill(b, 7); print(b[0]); print(b[4]); print(equals(a, b)); " + LF + // 9
+				"  arraycopy(b, 0, a, 0, 5); print(equals(a, b)); " + LF + // 10
+				"  print(' '); " + LF + // 11
+				"  c = new char[6]; d = new char[6]; " + LF + // 12
+				"  fill(c, 'x'); c[1] = 'a'; c[2] = 'b'; " + LF + // 13
+				"  arraycopy(c, 1, d, 3, 3); " + LF + // 14
+				"  print(d[3]); print(d[4]); print(d[5]); print(equals(c, d)); " + LF + // 15
+				"  arraycopy(c, 0, d, 0, 6); print(equals(c, d)); " + LF + // 16
+				" }" + LF + // 17
+				"}" + LF // 18
+		);
+		addExpectedRun("11234 7701 abx01");
+		parseAndVerify();
+		String code = parser.code.dump();
+		assertTrue(code.contains("arraycopy 1"));
+		assertTrue(code.contains("arraycopy 0"));
+		assertTrue(code.contains("arrayfill 0"));
+		assertTrue(code.contains("arrayequals 1"));
+	}
+
+	@Test
+	public void bulkCharArrayCopy() {
+		init("program Test" + LF + // 1
+				"{" + LF + // 2
+				" void show(char[] c) int i; { i = 0; while (i < len(c)) { print(c[i]); i++; } print(' '); }" + LF + // 3
+				" void main() char[] c, d; int i; { " + LF + // 4
+				"  c = new char[14]; d = new char[14]; " + LF + // 5
+				"  while (i < 14) { c[i] = chr(ord('a') + i); i++; } " + LF + // 6
+				"  fill(d, '.'); arraycopy(c, 1, d, 5, 9); show(d); " + LF + // 7
+				"  fill(d, '.'); arraycopy(c, 3, d, 7, 7); show(d); " + LF + // 8
+				"  arraycopy(c, 1, c, 5, 9); show(c); " + LF + // 9
+				"  arraycopy(c, 6, c, 2, 8); show(c); " + LF + // 10
+				"  arraycopy(c, 0, c, 3, 10); show(c); " + LF + // 11
+				" }" + LF + // 12
+				"}" + LF // 13
+		);
+		addExpectedRun(".....bcdefghij .......defghij abcdebcdefghij abcdefghijghij abcabcdefghijj ");
+		parseAndVerify();
+	}
+
+	@Test
+	public void bulkArrayBuiltinsElemType() {
+		init("program Test" + LF + // 1
+				"{" + LF + // 2
+				" void main() int[] a; char[] c; { " + LF + // 3
+				"  a = new int[3]; c = new char[3]; " + LF + // 4
+				"  arraycopy(a, 0, c, 0, 3); " + LF + // 5
+				" }" + LF + // 6
+				"}" + LF // 7
+		);
+		expectError(5, 20, PARAM_TYPE);
+		parseAndVerify();
+	}
+
+	@Test
+	public void scalarReplacement() {
+		init("program Test" + LF + //
+				"  class Point { int x, y; }" + LF + //
+				"{" + LF + //
+				"  void main()" + LF + //
+				"    Point p;" + LF + //
+				"  {" + LF + //
+				"    p = new Point;" + LF + //
+				"    read(p.x);" + LF + //
+				"    p.y = p.x * 2;" + LF + //
+				"    p.x += p.y;" + LF + //
+				"    p.y++;" + LF + //
+				"    print(p.x); print(' '); print(p.y);" + LF + //
+				"  }" + LF + //
+				"}");
+		addExpectedRun("5", "15 11");
+		// p.x and p.y live in the locals 0 and 1
+		expectCode("0: enter_nc 0, 2");
+		expectCode("3: read");
+		expectCode("4: store_0");
+		expectCode("5: load_0");
+		expectCode("6: muli 2");
+		expectCode("9: store_1");
+		expectCode("10: load_0");
+		expectCode("11: load_1");
+		expectCode("12: add");
+		expectCode("13: store_0");
+		expectCode("14: inc 1, 1");
+		expectCode("17: load_0");
+		expectCode("18: const_1");
+		expectCode("19: print");
+		expectCode("20: const 32");
+		expectCode("25: const_1");
+		expectCode("26: bprint");
+		expectCode("27: load_1");
+		expectCode("28: const_1");
+		expectCode("29: print");
+		expectCode("30: exit");
+		expectCode("31: return");
+		parseAndVerify();
+	}
+
+	@Test
+	public void scalarReplacementReallocation() {
+		init("program Test" + LF + //
+				"  class Point { int x, y; }" + LF + //
+				"{" + LF + //
+				"  void main()" + LF + //
+				"    Point p;" + LF + //
+				"  {" + LF + //
+				"    p = new Point;" + LF + //
+				"    p.x = 1; p.y = 2;" + LF + //
+				"    print(p.x + p.y);" + LF + //
+				"    p = new Point;" + LF + //
+				"    print(p.x + p.y);" + LF + //
+				"  }" + LF + //
+				"}");
+		addExpectedRun("30");
+		// the fields are cleared again for the second object
+		expectCode("0: enter_nc 0, 2");
+		expectCode("3: const_1");
+		expectCode("4: store_0");
+		expectCode("5: const_2");
+		expectCode("6: store_1");
+		expectCode("7: load_0");
+		expectCode("8: load_1");
+		expectCode("9: add");
+		expectCode("10: const_1");
+		expectCode("11: print");
+		expectCode("12: const_0");
+		expectCode("13: store_0");
+		expectCode("14: const_0");
+		expectCode("15: store_1");
+		expectCode("16: load_0");
+		expectCode("17: load_1");
+		expectCode("18: add");
+		expectCode("19: const_1");
+		expectCode("20: print");
+		expectCode("21: exit");
+		expectCode("22: return");
+		parseAndVerify();
+	}
+
+	@Test
+	public void escapingObjectStaysOnHeap() {
+		init("program Test" + LF + //
+				"  class Point { int x, y; }" + LF + //
+				"  Point g;" + LF + //
+				"{" + LF + //
+				"  int sum(Point p) { return p.x + p.y; }" + LF + //
+				"  void main()" + LF + //
+				"    Point p, q;" + LF + //
+				"  {" + LF + //
+				"    p = new Point; p.x = 1; p.y = 2;" + LF + //
+				"    print(sum(p));" + LF + //
+				"    q = new Point; q.x = 3;" + LF + //
+				"    g = q;" + LF + //
+				"    print(g.x);" + LF + //
+				"  }" + LF + //
+				"}");
+		addExpectedRun("33");
+		// p is scalar-replaced once sum is inlined, q escapes to g
+		expectCode("0: enter_nc 0, 3");
+		expectCode("3: const_1");
+		expectCode("4: store_1");
+		expectCode("5: const_2");
+		expectCode("6: store_2");
+		expectCode("7: load_1");
+		expectCode("8: load_2");
+		expectCode("9: add");
+		expectCode("10: const_1");
+		expectCode("11: print");
+		expectCode("12: new 2");
+		expectCode("15: store_0");
+		expectCode("16: load_0");
+		expectCode("17: const_3");
+		expectCode("18: putfield 0");
+		expectCode("21: load_0");
+		expectCode("22: putstatic 0");
+		expectCode("25: getstatic 0");
+		expectCode("28: getfield 0");
+		expectCode("31: const_1");
+		expectCode("32: print");
+		expectCode("33: exit");
+		expectCode("34: return");
+		parseAndVerify();
+	}
+
+	@Test
+	public void commonSubexpressions() {
+		init("program Test" + LF + //
+				"  class Student { int matrNr; }" + LF + //
+				"  Student[] list;" + LF + //
+				"{" + LF + //
+				"  void main()" + LF + //
+				"    int i, x;" + LF + //
+				"  {" + LF + //
+				"    list = new Student[3];" + LF + //
+				"    i = 1;" + LF + //
+				"    list[i] = new Student;" + LF + //
+				"    list[i].matrNr = 7;" + LF + //
+				"    x = list[i].matrNr + list[i].matrNr * 2;" + LF + //
+				"    print(list[i].matrNr + x);" + LF + //
+				"  }" + LF + //
+				"}");
+		addExpectedRun("28");
+		// list[i] and list[i].matrNr are loaded once and kept in locals
+		expectCode("0: enter_nc 0, 4");
+		expectCode("3: const_3");
+		expectCode("4: newarray 1");
+		expectCode("6: putstatic 0");
+		expectCode("9: const_1");
+		expectCode("10: store_0");
+		expectCode("11: getstatic 0");
+		expectCode("14: load_0");
+		expectCode("15: new 1");
+		expectCode("18: astore");
+		expectCode("19: getstatic 0");
+		expectCode("22: load_0");
+		expectCode("23: aload");
+		expectCode("24: dup");
+		expectCode("25: store_3");
+		expectCode("26: const 7");
+		expectCode("31: putfield 0");
+		expectCode("34: load_3");
+		expectCode("35: getfield 0");
+		expectCode("38: dup");
+		expectCode("39: store_1");
+		expectCode("40: load_1");
+		expectCode("41: muli 2");
+		expectCode("44: add");
+		expectCode("45: store_2");
+		expectCode("46: load_1");
+		expectCode("47: load_2");
+		expectCode("48: add");
+		expectCode("49: const_1");
+		expectCode("50: print");
+		expectCode("51: exit");
+		expectCode("52: return");
+		parseAndVerify();
+	}
+
+	@Test
+	public void commonSubexpressionsInvalidation() {
+		init("program Test" + LF + //
+				"  class Student { int matrNr; }" + LF + //
+				"  Student[] list;" + LF + //
+				"{" + LF + //
+				"  void renumber() { list[1].matrNr = 3; }" + LF + //
+				"  void main()" + LF + //
+				"    int i;" + LF + //
+				"  {" + LF + //
+				"    list = new Student[3];" + LF + //
+				"    list[1] = new Student; list[2] = new Student;" + LF + //
+				"    list[1].matrNr = 1; list[2].matrNr = 2;" + LF + //
+				"    i = 1;" + LF + //
+				"    print(list[i].matrNr + list[i].matrNr);" + LF + //
+				"    i = 2;" + LF + //
+				"    print(list[i].matrNr + list[i].matrNr);" + LF + //
+				"    list[i] = list[1];" + LF + //
+				"    print(list[i].matrNr + list[i].matrNr);" + LF + //
+				"    renumber();" + LF + //
+				"    print(list[i].matrNr + list[i].matrNr);" + LF + //
+				"  }" + LF + //
+				"}");
+		addExpectedRun("2426");
+		// i = 2, the store into list[i] and the inlined renumber() load list[i].matrNr again
+		expectCode("0: enter_nc 0, 4");
+		expectCode("3: const_3");
+		expectCode("4: newarray 1");
+		expectCode("6: putstatic 0");
+		expectCode("9: getstatic 0");
+		expectCode("12: const_1");
+		expectCode("13: new 1");
+		expectCode("16: astore");
+		expectCode("17: getstatic 0");
+		expectCode("20: const_2");
+		expectCode("21: new 1");
+		expectCode("24: astore");
+		expectCode("25: getstatic 0");
+		expectCode("28: const_1");
+		expectCode("29: aload");
+		expectCode("30: dup");
+		expectCode("31: store_3");
+		expectCode("32: const_1");
+		expectCode("33: putfield 0");
+		expectCode("36: getstatic 0");
+		expectCode("39: const_2");
+		expectCode("40: aload");
+		expectCode("41: const_2");
+		expectCode("42: putfield 0");
+		expectCode("45: const_1");
+		expectCode("46: store_1");
+		expectCode("47: getstatic 0");
+		expectCode("50: load_1");
+		expectCode("51: aload");
+		expectCode("52: dup");
+		expectCode("53: store_2");
+		expectCode("54: getfield 0");
+		expectCode("57: dup");
+		expectCode("58: store_0");
+		expectCode("59: load_0");
+		expectCode("60: add");
+		expectCode("61: const_1");
+		expectCode("62: print");
+		expectCode("63: const_2");
+		expectCode("64: store_1");
+		expectCode("65: getstatic 0");
+		expectCode("68: load_1");
+		expectCode("69: aload");
+		expectCode("70: dup");
+		expectCode("71: store_2");
+		expectCode("72: getfield 0");
+		expectCode("75: dup");
+		expectCode("76: store_0");
+		expectCode("77: load_0");
+		expectCode("78: add");
+		expectCode("79: const_1");
+		expectCode("80: print");
+		expectCode("81: getstatic 0");
+		expectCode("84: load_1");
+		expectCode("85: load_3");
+		expectCode("86: astore");
+		expectCode("87: getstatic 0");
+		expectCode("90: load_1");
+		expectCode("91: aload");
+		expectCode("92: dup");
+		expectCode("93: store_2");
+		expectCode("94: getfield 0");
+		expectCode("97: dup");
+		expectCode("98: store_0");
+		expectCode("99: load_0");
+		expectCode("100: add");
+		expectCode("101: const_1");
+		expectCode("102: print");
+		expectCode("103: getstatic 0");
+		expectCode("106: const_1");
+		expectCode("107: aload");
+		expectCode("108: dup");
+		expectCode("109: store_3");
+		expectCode("110: const_3");
+		expectCode("111: putfield 0");
+		expectCode("114: load_2");
+		expectCode("115: getfield 0");
+		expectCode("118: dup");
+		expectCode("119: store_0");
+		expectCode("120: load_0");
+		expectCode("121: add");
+		expectCode("122: const_1");
+		expectCode("123: print");
+		expectCode("124: exit");
+		expectCode("125: return");
+		parseAndVerify();
+	}
+
+	@Test
+	public void inlining() {
+		init("program Test" + LF + //
+				"{" + LF + //
+				"  int twice(int i) { return i * 2; }" + LF + //
+				"  int sq(int i) int r; { r = i * i; return r; }" + LF + //
+				"  void show(int x) { print(x); print(' '); }" + LF + //
+				"  void main()" + LF + //
+				"    int a;" + LF + //
+				"  {" + LF + //
+				"    read(a);" + LF + //
+				"    show(twice(a) + twice(3));" + LF + //
+				"    show(sq(a + 1));" + LF + //
+				"    show(sq(twice(a)));" + LF + //
+				"  }" + LF + //
+				"}");
+		addExpectedRun("4", "14 25 64 ");
+		// all calls are inlined, the locals of sq get slots of main
+		expectCode("0: enter_nc 0, 3");
+		expectCode("3: read");
+		expectCode("4: store_2");
+		expectCode("5: load_2");
+		expectCode("6: muli 2");
+		expectCode("9: const_3");
+		expectCode("10: muli 2");
+		expectCode("13: add");
+		expectCode("14: store_0");
+		expectCode("15: load_0");
+		expectCode("16: const_1");
+		expectCode("17: print");
+		expectCode("18: const 32");
+		expectCode("23: const_1");
+		expectCode("24: bprint");
+		expectCode("25: load_2");
+		expectCode("26: addi 1");
+		expectCode("29: store_0");
+		expectCode("30: const_0");
+		expectCode("31: store_1");
+		expectCode("32: load_0");
+		expectCode("33: load_0");
+		expectCode("34: mul");
+		expectCode("35: store_1");
+		expectCode("36: load_1");
+		expectCode("37: store_0");
+		expectCode("38: load_0");
+		expectCode("39: const_1");
+		expectCode("40: print");
+		expectCode("41: const 32");
+		expectCode("46: const_1");
+		expectCode("47: bprint");
+		expectCode("48: load_2");
+		expectCode("49: muli 2");
+		expectCode("52: store_0");
+		expectCode("53: const_0");
+		expectCode("54: store_1");
+		expectCode("55: load_0");
+		expectCode("56: load_0");
+		expectCode("57: mul");
+		expectCode("58: store_1");
+		expectCode("59: load_1");
+		expectCode("60: store_0");
+		expectCode("61: load_0");
+		expectCode("62: const_1");
+		expectCode("63: print");
+		expectCode("64: const 32");
+		expectCode("69: const_1");
+		expectCode("70: bprint");
+		expectCode("71: exit");
+		expectCode("72: return");
+		parseAndVerify();
+	}
+
+	@Test
+	public void inliningEnablesScalarReplacement() {
+		init("program Test" + LF + //
+				"  class Point { int x, y; }" + LF + //
+				"{" + LF + //
+				"  int sum(Point p) { return p.x + p.y; }" + LF + //
+				"  void main()" + LF + //
+				"    Point p;" + LF + //
+				"  {" + LF + //
+				"    p = new Point; p.x = 1; p.y = 2;" + LF + //
+				"    print(sum(p));" + LF + //
+				"  }" + LF + //
+				"}");
+		addExpectedRun("3");
+		// sum is inlined, so p no longer escapes and its fields are locals
+		expectCode("0: enter_nc 0, 2");
+		expectCode("3: const_1");
+		expectCode("4: store_0");
+		expectCode("5: const_2");
+		expectCode("6: store_1");
+		expectCode("7: load_0");
+		expectCode("8: load_1");
+		expectCode("9: add");
+		expectCode("10: const_1");
+		expectCode("11: print");
+		expectCode("12: exit");
+		expectCode("13: return");
+		parseAndVerify();
+	}
+
+	@Test
+	public void recursiveMethodIsNotInlined() {
+		init("program Test" + LF + //
+				"{" + LF + //
+				"  int sum(int n) { if (n > 0) return n + sum(n - 1); return 0; }" + LF + //
+				"  void main() { print(sum(5)); }" + LF + //
+				"}");
+		addExpectedRun("15");
+		// sum keeps its recursive call and main calls it
+		expectCode("0: enter 1, 1");
+		expectCode("3: load_0");
+		expectCode("4: jlez_s 13 (=17)");
+		expectCode("6: load_0");
+		expectCode("7: load_0");
+		expectCode("8: subi 1");
+		expectCode("11: call -11 (=0)");
+		expectCode("14: add");
+		expectCode("15: exit");
+		expectCode("16: return");
+		expectCode("17: const_0");
+		expectCode("18: exit");
+		expectCode("19: return");
+		expectCode("20: const_5");
+		expectCode("21: call -21 (=0)");
+		expectCode("24: const_1");
+		expectCode("25: print");
+		expectCode("26: return");
+		parseAndVerify();
+	}
+
+	@Test
+	public void selfRecursiveTailCallBecomesLoop() {
+		init("program Test" + LF + //
+				"{" + LF + //
+				"  void countdown(int n) { if (n > 0) { print(n); countdown(n - 1); } }" + LF + //
+				"  void main() { countdown(5); print(0); }" + LF + //
+				"}");
+		addExpectedRun("543210");
+		// the recursive call becomes a jump back to the start of countdown
+		expectCode("0: enter 1, 1");
+		expectCode("3: load_0");
+		expectCode("4: jlez_s 12 (=16)");
+		expectCode("6: load_0");
+		expectCode("7: const_1");
+		expectCode("8: print");
+		expectCode("9: load_0");
+		expectCode("10: subi 1");
+		expectCode("13: store_0");
+		expectCode("14: jmp_s -11 (=3)");
+		expectCode("16: exit");
+		expectCode("17: return");
+		expectCode("18: const_5");
+		expectCode("19: call -19 (=0)");
+		expectCode("22: const_0");
+		expectCode("23: const_1");
+		expectCode("24: print");
+		expectCode("25: return");
+		parseAndVerify();
+	}
+
+	@Test
+	public void tailCall() {
+		init("program Test" + LF + //
+				"{" + LF + //
+				"  int poly(int x) int y; { y = x * x * x + 2 * x * x + 3 * x + 4; print(y); print(' '); return y; }" + LF + //
+				"  int next(int x) { return poly(x + 1); }" + LF + //
+				"  void main() { print(next(poly(1))); }" + LF + //
+				"}");
+		addExpectedRun("10 1610 1610");
+		// next is inlined into main and then removed, only poly is called
+		expectCode("0: enter_nc 1, 2");
+		expectCode("3: load_0");
+		expectCode("4: load_0");
+		expectCode("5: mul");
+		expectCode("6: load_0");
+		expectCode("7: mul");
+		expectCode("8: const_2");
+		expectCode("9: load_0");
+		expectCode("10: mul");
+		expectCode("11: load_0");
+		expectCode("12: mul");
+		expectCode("13: add");
+		expectCode("14: const_3");
+		expectCode("15: load_0");
+		expectCode("16: mul");
+		expectCode("17: add");
+		expectCode("18: addi 4");
+		expectCode("21: store_1");
+		expectCode("22: load_1");
+		expectCode("23: const_1");
+		expectCode("24: print");
+		expectCode("25: const 32");
+		expectCode("30: const_1");
+		expectCode("31: bprint");
+		expectCode("32: load_1");
+		expectCode("33: exit");
+		expectCode("34: return");
+		expectCode("35: enter_nc 0, 1");
+		expectCode("38: const_1");
+		expectCode("39: call -39 (=0)");
+		expectCode("42: store_0");
+		expectCode("43: load_0");
+		expectCode("44: addi 1");
+		expectCode("47: call -47 (=0)");
+		expectCode("50: const_1");
+		expectCode("51: print");
+		expectCode("52: exit");
+		expectCode("53: return");
+		parseAndVerify();
+	}
+
+	@Test
+	public void tailCallInCalledMethod() {
+		init("program Test" + LF + //
+				"{" + LF + //
+				"  int poly(int x) int y; { y = x * x * x + 2 * x * x + 3 * x + 4; print(y); print(' '); return y; }" + LF + //
+				"  int next(int x) { print('('); print(x); print(')'); return poly(x + 1); }" + LF + //
+				"  void main() { print(next(poly(1))); print(next(0)); }" + LF + //
+				"}");
+		addExpectedRun("10 (10)1610 1610(0)10 10");
+		// next ends with a tail call of poly
+		expectCode("0: enter_nc 1, 2");
+		expectCode("3: load_0");
+		expectCode("4: load_0");
+		expectCode("5: mul");
+		expectCode("6: load_0");
+		expectCode("7: mul");
+		expectCode("8: const_2");
+		expectCode("9: load_0");
+		expectCode("10: mul");
+		expectCode("11: load_0");
+		expectCode("12: mul");
+		expectCode("13: add");
+		expectCode("14: const_3");
+		expectCode("15: load_0");
+		expectCode("16: mul");
+		expectCode("17: add");
+		expectCode("18: addi 4");
+		expectCode("21: store_1");
+		expectCode("22: load_1");
+		expectCode("23: const_1");
+		expectCode("24: print");
+		expectCode("25: const 32");
+		expectCode("30: const_1");
+		expectCode("31: bprint");
+		expectCode("32: load_1");
+		expectCode("33: exit");
+		expectCode("34: return");
+		expectCode("35: enter 1, 1");
+		expectCode("38: const 40");
+		expectCode("43: const_1");
+		expectCode("44: bprint");
+		expectCode("45: load_0");
+		expectCode("46: const_1");
+		expectCode("47: print");
+		expectCode("48: const 41");
+		expectCode("53: const_1");
+		expectCode("54: bprint");
+		expectCode("55: load_0");
+		expectCode("56: addi 1");
+		expectCode("59: tailcall -59 (=0)");
+		expectCode("62: const_1");
+		expectCode("63: call -63 (=0)");
+		expectCode("66: call -31 (=35)");
+		expectCode("69: const_1");
+		expectCode("70: print");
+		expectCode("71: const_0");
+		expectCode("72: call -37 (=35)");
+		expectCode("75: const_1");
+		expectCode("76: print");
+		expectCode("77: return");
+		parseAndVerify();
+	}
+
+	@Test
+	public void deepTailRecursion() {
+		init("program Test" + LF + //
+				"{" + LF + //
+				"  int count(int n, int acc) { if (n == 0) return acc; return count(n - 1, acc + 1); }" + LF + //
+				"  void main() { print(count(100000, 0)); }" + LF + //
+				"}");
+		addExpectedRun("100000");
+		// the recursion is a loop, so 100000 calls do not overflow the stack
+		expectCode("0: enter 2, 2");
+		expectCode("3: load_0");
+		expectCode("4: jnez_s 5 (=9)");
+		expectCode("6: load_1");
+		expectCode("7: exit");
+		expectCode("8: return");
+		expectCode("9: load_0");
+		expectCode("10: subi 1");
+		expectCode("13: load_1");
+		expectCode("14: addi 1");
+		expectCode("17: store_1");
+		expectCode("18: store_0");
+		expectCode("19: jmp_s -16 (=3)");
+		expectCode("21: const 100000");
+		expectCode("26: const_0");
+		expectCode("27: call -27 (=0)");
+		expectCode("30: const_1");
+		expectCode("31: print");
+		expectCode("32: return");
+		parseAndVerify();
+	}
+
+	@Test
+	public void hotLocalsGetShortSlots() {
+		init("program Test" + LF + //
+				"{" + LF + //
+				"  void main()" + LF + //
+				"    int a, b, c, d, unused, i, sum;" + LF + //
+				"  {" + LF + //
+				"    read(a); read(b); read(c); read(d);" + LF + //
+				"    while (i < 10) { sum += i; i++; }" + LF + //
+				"    print(a + b + c + d + sum);" + LF + //
+				"  }" + LF + //
+				"}");
+		addExpectedRun("1 2 3 4", "55");
+		// i and sum are used in the loop and get the slots 0 and 1 (load_0, store_1),
+		// a and b get 2 and 3, the cold c and d the slots 4 and 5 that need an operand,
+		// unused gets no slot
+		expectCode("0: enter 0, 6");
+		expectCode("3: read");
+		expectCode("4: store_2");
+		expectCode("5: read");
+		expectCode("6: store_3");
+		expectCode("7: read");
+		expectCode("8: store 4");
+		expectCode("10: read");
+		expectCode("11: store 5");
+		expectCode("13: load_0");
+		expectCode("14: jgei_s 10, 16 (=30)");
+		expectCode("18: load_1");
+		expectCode("19: load_0");
+		expectCode("20: add");
+		expectCode("21: store_1");
+		expectCode("22: inc 0, 1");
+		expectCode("25: load_0");
+		expectCode("26: jlti_s 10, -8 (=18)");
+		expectCode("30: load_2");
+		expectCode("31: load_3");
+		expectCode("32: add");
+		expectCode("33: load 4");
+		expectCode("35: add");
+		expectCode("36: load 5");
+		expectCode("38: add");
+		expectCode("39: load_1");
+		expectCode("40: add");
+		expectCode("41: const_1");
+		expectCode("42: print");
+		expectCode("43: exit");
+		expectCode("44: return");
+		parseAndVerify();
+	}
+
+	@Test
+	public void methodsWithoutLocalsHaveNoFrame() {
+		init("program Test" + LF + //
+				"  int g;" + LF + //
+				"{" + LF + //
+				"  void down() { while (g > 0) { print(g); print(','); g--; } print(' '); print('|'); print(' '); }" + LF + //
+				"  void main() { g = 3; down(); g = 2; down(); print('.'); }" + LF + //
+				"}");
+		addExpectedRun("3,2,1, | 2,1, | .");
+		// neither down nor main has an enter or exit
+		expectCode("0: getstatic 0");
+		expectCode("3: jlez_s 23 (=26)");
+		expectCode("5: getstatic 0");
+		expectCode("8: const_1");
+		expectCode("9: print");
+		expectCode("10: const 44");
+		expectCode("15: const_1");
+		expectCode("16: bprint");
+		expectCode("17: incstatic 0, -1");
+		expectCode("21: getstatic 0");
+		expectCode("24: jgtz_s -19 (=5)");
+		expectCode("26: const 32");
+		expectCode("31: const_1");
+		expectCode("32: bprint");
+		expectCode("33: const 124");
+		expectCode("38: const_1");
+		expectCode("39: bprint");
+		expectCode("40: const 32");
+		expectCode("45: const_1");
+		expectCode("46: bprint");
+		expectCode("47: return");
+		expectCode("48: const_3");
+		expectCode("49: putstatic 0");
+		expectCode("52: call -52 (=0)");
+		expectCode("55: const_2");
+		expectCode("56: putstatic 0");
+		expectCode("59: call -59 (=0)");
+		expectCode("62: const 46");
+		expectCode("67: const_1");
+		expectCode("68: bprint");
+		expectCode("69: return");
+		parseAndVerify();
+	}
+
+	@Test
+	public void localsWrittenBeforeReadAreNotCleared() {
+		init("program Test" + LF + //
+				"{" + LF + //
+				"  void main()" + LF + //
+				"    int a, b, i;" + LF + //
+				"  {" + LF + //
+				"    read(a); b = 0; i = 0;" + LF + //
+				"    while (i < a) { b += i; i++; }" + LF + //
+				"    print(b);" + LF + //
+				"  }" + LF + //
+				"}");
+		addExpectedRun("5", "10");
+		// enter_nc does not clear the locals, all are written before they are read
+		expectCode("0: enter_nc 0, 3");
+		expectCode("3: read");
+		expectCode("4: store_2");
+		expectCode("5: const_0");
+		expectCode("6: store_1");
+		expectCode("7: const_0");
+		expectCode("8: store_0");
+		expectCode("9: load_0");
+		expectCode("10: load_2");
+		expectCode("11: jge_s 13 (=24)");
+		expectCode("13: load_1");
+		expectCode("14: load_0");
+		expectCode("15: add");
+		expectCode("16: store_1");
+		expectCode("17: inc 0, 1");
+		expectCode("20: load_0");
+		expectCode("21: load_2");
+		expectCode("22: jlt_s -9 (=13)");
+		expectCode("24: load_1");
+		expectCode("25: const_1");
+		expectCode("26: print");
+		expectCode("27: exit");
+		expectCode("28: return");
+		parseAndVerify();
+	}
+
+	@Test
+	public void localsReadBeforeWrittenAreCleared() {
+		init("program Test" + LF + //
+				"{" + LF + //
+				"  void main()" + LF + //
+				"    int a, b, i;" + LF + //
+				"  {" + LF + //
+				"    read(a);" + LF + //
+				"    while (i < a) { b += i; i++; }" + LF + //
+				"    print(b);" + LF + //
+				"  }" + LF + //
+				"}");
+		addExpectedRun("5", "10");
+		// b and i are read before they are written, so enter clears the locals
+		expectCode("0: enter 0, 3");
+		expectCode("3: read");
+		expectCode("4: store_2");
+		expectCode("5: load_0");
+		expectCode("6: load_2");
+		expectCode("7: jge_s 13 (=20)");
+		expectCode("9: load_1");
+		expectCode("10: load_0");
+		expectCode("11: add");
+		expectCode("12: store_1");
+		expectCode("13: inc 0, 1");
+		expectCode("16: load_0");
+		expectCode("17: load_2");
+		expectCode("18: jlt_s -9 (=9)");
+		expectCode("20: load_1");
+		expectCode("21: const_1");
+		expectCode("22: print");
+		expectCode("23: exit");
+		expectCode("24: return");
+		parseAndVerify();
+	}
+
+	@Test
+	public void loopIdioms() {
+		init("program Test" + LF + //
+				"{" + LF + //
+				"  void main()" + LF + //
+				"    int[] a, b; char[] c; int i, n, s;" + LF + //
+				"  {" + LF + //
+				"    read(n); a = new int[n]; b = new int[n]; c = new char[3];" + LF + //
+				"    i = 0; while (i < n) { a[i] = 7; i++; }" + LF + //
+				"    i = 1; while (i < len(a)) { b[i] = a[i]; i++; }" + LF + //
+				"    i = 0; while (i < n) { s += b[i]; i++; }" + LF + //
+				"    print(s); print(' '); print(i); print(' ');" + LF + //
+				"    i = 0; while (i < 3) { c[i] = 'x'; i = i + 1; }" + LF + //
+				"    i = 0; while (i < len(c)) { print(c[i]); i++; }" + LF + //
+				"  }" + LF + //
+				"}");
+		addExpectedRun("5", "28 5 xxx");
+		addExpectedRun("0", "0 0 xxx");
+		// the fill, copy and sum loops are replaced, the print loop stays
+		expectCode("0: enter 0, 6");
+		expectCode("3: read");
+		expectCode("4: store_2");
+		expectCode("5: load_2");
+		expectCode("6: newarray 1");
+		expectCode("8: store_3");
+		expectCode("9: load_2");
+		expectCode("10: newarray 1");
+		expectCode("12: store 4");
+		expectCode("14: const_3");
+		expectCode("15: newarray 0");
+		expectCode("17: store_1");
+		expectCode("18: const_0");
+		expectCode("19: store_0");
+		expectCode("20: load_3");
+		expectCode("21: load_0");
+		expectCode("22: load_2");
+		expectCode("23: const 7");
+		expectCode("28: fillrange 1");
+		expectCode("30: store_0");
+		expectCode("31: const_1");
+		expectCode("32: store_0");
+		expectCode("33: load 4");
+		expectCode("35: load_3");
+		expectCode("36: load_0");
+		expectCode("37: load_3");
+		expectCode("38: arraylength");
+		expectCode("39: copyrange 1");
+		expectCode("41: store_0");
+		expectCode("42: const_0");
+		expectCode("43: store_0");
+		expectCode("44: load 5");
+		expectCode("46: load 4");
+		expectCode("48: load_0");
+		expectCode("49: load_2");
+		expectCode("50: sumrange");
+		expectCode("51: store_0");
+		expectCode("52: store 5");
+		expectCode("54: load 5");
+		expectCode("56: const_1");
+		expectCode("57: print");
+		expectCode("58: const 32");
+		expectCode("63: const_1");
+		expectCode("64: bprint");
+		expectCode("65: load_0");
+		expectCode("66: const_1");
+		expectCode("67: print");
+		expectCode("68: const 32");
+		expectCode("73: const_1");
+		expectCode("74: bprint");
+		expectCode("75: const_0");
+		expectCode("76: store_0");
+		expectCode("77: load_1");
+		expectCode("78: load_0");
+		expectCode("79: const_3");
+		expectCode("80: const 120");
+		expectCode("85: fillrange 0");
+		expectCode("87: store_0");
+		expectCode("88: const_0");
+		expectCode("89: store_0");
+		expectCode("90: load_0");
+		expectCode("91: load_1");
+		expectCode("92: arraylength");
+		expectCode("93: jge_s 15 (=108)");
+		expectCode("95: load_1");
+		expectCode("96: load_0");
+		expectCode("97: baload");
+		expectCode("98: const_1");
+		expectCode("99: bprint");
+		expectCode("100: inc 0, 1");
+		expectCode("103: load_0");
+		expectCode("104: load_1");
+		expectCode("105: arraylength");
+		expectCode("106: jlt_s -11 (=95)");
+		expectCode("108: exit");
+		expectCode("109: return");
+		parseAndVerify();
+	}
+
+	@Test
+	public void loopIdiomFailsLikeLoop() {
+		init("program Test" + LF + //
+				"{" + LF + //
+				"  void main()" + LF + //
+				"    int[] a, b; int i;" + LF + //
+				"  {" + LF + //
+				"    a = new int[3];" + LF + //
+				"    i = 0; while (i < 3) { a[i] = 1; i++; }" + LF + //
+				"    print(1);" + LF + //
+				"    i = 0; while (i < 5) { b[i] = a[i]; i++; }" + LF + //
+				"  }" + LF + //
+				"}");
+		addExpectedRun("1");
+		// copyrange fails on the null array b like the loop would
+		expectCode("0: enter 0, 3");
+		expectCode("3: const_3");
+		expectCode("4: newarray 1");
+		expectCode("6: store_1");
+		expectCode("7: const_0");
+		expectCode("8: store_0");
+		expectCode("9: load_1");
+		expectCode("10: load_0");
+		expectCode("11: const_3");
+		expectCode("12: const_1");
+		expectCode("13: fillrange 1");
+		expectCode("15: store_0");
+		expectCode("16: const_1");
+		expectCode("17: const_1");
+		expectCode("18: print");
+		expectCode("19: const_0");
+		expectCode("20: store_0");
+		expectCode("21: load_2");
+		expectCode("22: load_1");
+		expectCode("23: load_0");
+		expectCode("24: const_5");
+		expectCode("25: copyrange 1");
+		expectCode("27: store_0");
+		expectCode("28: exit");
+		expectCode("29: return");
+		try {
+			parseAndVerify();
+			fail("null reference expected");
+		} catch (IllegalStateException e) {
+			assertEquals("null reference used", e.getMessage());
+		}
+	}
+
+	@Test
+	public void loopIdiomOutOfBounds() {
+		init("program Test" + LF + //
+				"{" + LF + //
+				"  void main()" + LF + //
+				"    int[] a; int i;" + LF + //
+				"  {" + LF + //
+				"    a = new int[3];" + LF + //
+				"    i = 0; while (i < 4) { a[i] = 1; i++; }" + LF + //
+				"  }" + LF + //
+				"}");
+		addExpectedRun("");
+		// fillrange stores a[0] to a[2] before it fails
+		expectCode("0: enter_nc 0, 2");
+		expectCode("3: const_3");
+		expectCode("4: newarray 1");
+		expectCode("6: store_1");
+		expectCode("7: const_0");
+		expectCode("8: store_0");
+		expectCode("9: load_1");
+		expectCode("10: load_0");
+		expectCode("11: const_4");
+		expectCode("12: const_1");
+		expectCode("13: fillrange 1");
+		expectCode("15: store_0");
+		expectCode("16: exit");
+		expectCode("17: return");
+		try {
+			parseAndVerify();
+			fail("index out of bounds expected");
+		} catch (IllegalStateException e) {
+			assertEquals("index out of bounds", e.getMessage());
+		}
+	}
+
+	@Test
+	public void deadMethodsAndGlobals() {
+		init("program Test" + LF + //
+				"  int unused, written, used;" + LF + //
+				"  class Point { int x, y; }" + LF + //
+				"{" + LF + //
+				"  void dead() { print(12345); print(12346); print(12347); print(12348); }" + LF + //
+				"  void alsoDead() { dead(); dead(); }" + LF + //
+				"  void main()" + LF + //
+				"    int a, b;" + LF + //
+				"  {" + LF + //
+				"    read(a); written = a; written++; used = a * 2;" + LF + //
+				"    print(used);" + LF + //
+				"  }" + LF + //
+				"}");
+		addExpectedRun("4", "8");
+		// dead and alsoDead are removed, the store to written is popped,
+		// used becomes global 0
+		expectCode("0: enter_nc 0, 1");
+		expectCode("3: read");
+		expectCode("4: store_0");
+		expectCode("5: load_0");
+		expectCode("6: pop");
+		expectCode("7: load_0");
+		expectCode("8: muli 2");
+		expectCode("11: putstatic 0");
+		expectCode("14: getstatic 0");
+		expectCode("17: const_1");
+		expectCode("18: print");
+		expectCode("19: exit");
+		expectCode("20: return");
+		parseAndVerify();
+		assertEquals(1, parser.code.dataSize);
+		assertEquals(0, parser.code.mainpc);
+	}
+
+	@Test
+	public void profileGuidedLayoutAndUnrolling() {
+		String src = "program Test" + LF + //
+				"{" + LF + //
+				"  int f(int x) int r; {" + LF + //
+				"    if (x % 10 == 0) { r = x / 10; print('.'); } else { r = x * 3 + 1; }" + LF + //
+				"    return r;" + LF + //
+				"  }" + LF + //
+				"  void main() int i, s; {" + LF + //
+				"    while (i < 5000) { s = s + f(i); i++; }" + LF + //
+				"    print(s);" + LF + //
+				"  }" + LF + //
+				"}";
+		init(src);
+		parser.profile = profile(src);
+		addExpectedRun(".".repeat(500) + "33879250");
+		// f is inlined; without a profile x % 10 == 0 falls through to the
+		// then branch (jnez_s). The else branch is hot, so the jump is
+		// inverted to jeqz_s and the else branch falls through. The hot loop
+		// is unrolled once, with an exit test (jgei_s) between the copies.
+		expectCode("0: enter 0, 3");
+		expectCode("3: load_0");
+		expectCode("4: jgei_s 5000, 100 (=104)");
+		expectCode("8: load_2");
+		expectCode("9: const_0");
+		expectCode("10: store_1");
+		expectCode("11: load_0");
+		expectCode("12: const 10");
+		expectCode("17: rem");
+		expectCode("18: jeqz_s 12 (=30)");
+		expectCode("20: load_0");
+		expectCode("21: muli 3");
+		expectCode("24: addi 1");
+		expectCode("27: store_1");
+		expectCode("28: jmp_s 17 (=45)");
+		expectCode("30: load_0");
+		expectCode("31: const 10");
+		expectCode("36: div");
+		expectCode("37: store_1");
+		expectCode("38: const 46");
+		expectCode("43: const_1");
+		expectCode("44: bprint");
+		expectCode("45: load_1");
+		expectCode("46: add");
+		expectCode("47: store_2");
+		expectCode("48: inc 0, 1");
+		expectCode("51: load_0");
+		expectCode("52: jgei_s 5000, 52 (=104)");
+		expectCode("56: load_2");
+		expectCode("57: const_0");
+		expectCode("58: store_1");
+		expectCode("59: load_0");
+		expectCode("60: const 10");
+		expectCode("65: rem");
+		expectCode("66: jeqz_s 12 (=78)");
+		expectCode("68: load_0");
+		expectCode("69: muli 3");
+		expectCode("72: addi 1");
+		expectCode("75: store_1");
+		expectCode("76: jmp_s 17 (=93)");
+		expectCode("78: load_0");
+		expectCode("79: const 10");
+		expectCode("84: div");
+		expectCode("85: store_1");
+		expectCode("86: const 46");
+		expectCode("91: const_1");
+		expectCode("92: bprint");
+		expectCode("93: load_1");
+		expectCode("94: add");
+		expectCode("95: store_2");
+		expectCode("96: inc 0, 1");
+		expectCode("99: load_0");
+		expectCode("100: jlti_s 5000, -92 (=8)");
+		expectCode("104: load_2");
+		expectCode("105: const_1");
+		expectCode("106: print");
+		expectCode("107: exit");
+		expectCode("108: return");
+		parseAndVerify();
+		assertEquals(0, parser.scanner.errors.numWarnings());
+	}
+
+	@Test
+	public void profileGuidedInlining() {
+		String src = "program Test" + LF + //
+				"{" + LF + //
+				"  int f(int x) int r; {" + LF + //
+				"    r = x * 3 + 1;" + LF + //
+				"    r = r * r % 1000 + x / 7;" + LF + //
+				"    return r % 100;" + LF + //
+				"  }" + LF + //
+				"  void main() int i, s; {" + LF + //
+				"    s = f(7);" + LF + //
+				"    while (i < 2000) { s = s + f(i); i++; }" + LF + //
+				"    print(s);" + LF + //
+				"  }" + LF + //
+				"}";
+		init(src);
+		parser.profile = profile(src);
+		addExpectedRun("100200");
+		// f is too large to be inlined everywhere; the cold call before the
+		// loop stays, the hot call in the loop is inlined and the loop is
+		// unrolled
+		expectCode("0: enter_nc 1, 2");
+		expectCode("3: load_0");
+		expectCode("4: muli 3");
+		expectCode("7: addi 1");
+		expectCode("10: store_1");
+		expectCode("11: load_1");
+		expectCode("12: load_1");
+		expectCode("13: mul");
+		expectCode("14: const 1000");
+		expectCode("19: rem");
+		expectCode("20: load_0");
+		expectCode("21: const 7");
+		expectCode("26: div");
+		expectCode("27: add");
+		expectCode("28: store_1");
+		expectCode("29: load_1");
+		expectCode("30: const 100");
+		expectCode("35: rem");
+		expectCode("36: exit");
+		expectCode("37: return");
+		expectCode("38: enter 0, 3");
+		expectCode("41: const 7");
+		expectCode("46: call -46 (=0)");
+		expectCode("49: store_2");
+		expectCode("50: load_1");
+		expectCode("51: jgei_s 2000, 96 (=147)");
+		expectCode("55: load_2");
+		expectCode("56: const_0");
+		expectCode("57: store_0");
+		expectCode("58: load_1");
+		expectCode("59: muli 3");
+		expectCode("62: addi 1");
+		expectCode("65: store_0");
+		expectCode("66: load_0");
+		expectCode("67: load_0");
+		expectCode("68: mul");
+		expectCode("69: const 1000");
+		expectCode("74: rem");
+		expectCode("75: load_1");
+		expectCode("76: const 7");
+		expectCode("81: div");
+		expectCode("82: add");
+		expectCode("83: store_0");
+		expectCode("84: load_0");
+		expectCode("85: const 100");
+		expectCode("90: rem");
+		expectCode("91: add");
+		expectCode("92: store_2");
+		expectCode("93: inc 1, 1");
+		expectCode("96: load_1");
+		expectCode("97: jgei_s 2000, 50 (=147)");
+		expectCode("101: load_2");
+		expectCode("102: const_0");
+		expectCode("103: store_0");
+		expectCode("104: load_1");
+		expectCode("105: muli 3");
+		expectCode("108: addi 1");
+		expectCode("111: store_0");
+		expectCode("112: load_0");
+		expectCode("113: load_0");
+		expectCode("114: mul");
+		expectCode("115: const 1000");
+		expectCode("120: rem");
+		expectCode("121: load_1");
+		expectCode("122: const 7");
+		expectCode("127: div");
+		expectCode("128: add");
+		expectCode("129: store_0");
+		expectCode("130: load_0");
+		expectCode("131: const 100");
+		expectCode("136: rem");
+		expectCode("137: add");
+		expectCode("138: store_2");
+		expectCode("139: inc 1, 1");
+		expectCode("142: load_1");
+		expectCode("143: jlti_s 2000, -88 (=55)");
+		expectCode("147: load_2");
+		expectCode("148: const_1");
+		expectCode("149: print");
+		expectCode("150: exit");
+		expectCode("151: return");
+		parseAndVerify();
+		assertEquals(0, parser.scanner.errors.numWarnings());
+	}
+
+	@Test
+	public void profileOfAnotherProgramIsReported() {
+		init("program Test { void main() { print(1); } }");
+		parser.profile = profile("program Test { void main() int i; { while (i < 10) i++; print(i); } }");
+		addExpectedRun("1");
+		parseAndVerify();
+		assertEquals(1, parser.scanner.errors.numWarnings());
+		assertEquals("-- warning: profile does not fit the program and was ignored", parser.scanner.errors.warning(0));
+	}
+
+	/**
+	 * Profile of a run of <code>src</code> compiled without a profile.
+	 */
+	private static Profile profile(String src) {
+		ParserImpl p = new ParserImpl(new ScannerImpl(new StringReader(src)));
+		p.parse();
+		// the profile covers exactly the code, as when run from the object file
+		byte[] code = Arrays.copyOf(p.code.buf, p.code.pc);
+		Interpreter inter = new Interpreter(code, p.code.mainpc, p.code.dataSize, new Interpreter.BufferIO(""), false);
+		Profile profile = inter.startProfile();
+		inter.run();
+		return profile;
+	}
 }
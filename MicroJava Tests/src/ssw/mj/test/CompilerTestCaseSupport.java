@@ -1,8 +1,7 @@
 package ssw.mj.test;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -35,6 +34,7 @@ public abstract class CompilerTestCaseSupport {
 	private List<String> expectedErrors;
 	private List<String> expectedTokens;
 	private List<String> expectedSymTab;
+	private List<String> expectedCode;
 	private ScannerImpl scanner;
 	protected ParserImpl parser;
 	private List<String> runInputs = new ArrayList<String>();
@@ -47,6 +47,7 @@ public abstract class CompilerTestCaseSupport {
 		expectedErrors = new ArrayList<String>();
 		expectedTokens = new ArrayList<String>();
 		expectedSymTab = new ArrayList<String>();
+		expectedCode = new ArrayList<String>();
 
 		if (Configuration.PRINT_ALL_TESTCASE_OUTPUT) {
 			// print header for console output
@@ -65,8 +66,8 @@ public abstract class CompilerTestCaseSupport {
 
 	protected void initScannerFile(String s) {
 		try {
-			scanner = new ScannerImpl(new FileReader(new File("tests", s)));
-		} catch (FileNotFoundException e) {
+			scanner = new ScannerImpl(new File("tests", s));
+		} catch (IOException e) {
 			throw new RuntimeException(e.getMessage());
 		}
 	}
@@ -144,11 +145,17 @@ public abstract class CompilerTestCaseSupport {
 		if (expectedSymTab.size() > 0) {
 			print("Symbol Table", getExpectedSymTab(), getActualSymTab());
 		}
+		if (expectedCode.size() > 0) {
+			print("Code", expectedCode, getActualCode());
+		}
 
 		Assert.assertEquals("Errors", expectedErrors, getActualErrors());
 		if (expectedSymTab.size() > 0) {
 			Assert.assertEquals("Symbol Table", getExpectedSymTab(), getActualSymTab());
 		}
+		if (expectedCode.size() > 0) {
+			Assert.assertEquals("Code", expectedCode, getActualCode());
+		}
 
 		if (Configuration.PRINT_DECODED_BYTE_CODE) {
 			System.out.println("------ Byte code --------------");
@@ -171,6 +178,10 @@ public abstract class CompilerTestCaseSupport {
 		return splitString(scanner.errors.dump());
 	}
 
+	private List<String> getActualCode() {
+		return splitString(new Decoder().decode(parser.code.buf, 0, parser.code.pc));
+	}
+
 	private List<String> getExpectedTokens() {
 		return expectedTokens;
 	}
@@ -207,6 +218,10 @@ public abstract class CompilerTestCaseSupport {
 		expectedSymTab.add(line);
 	}
 
+	protected void expectCode(String line) {
+		expectedCode.add(line);
+	}
+
 	protected void expectSymTabUniverse() {
 		// first part of the symbol table (universe) that is equal for all
 		// programs
@@ -220,6 +235,18 @@ public abstract class CompilerTestCaseSupport {
 		expectSymTab("  Local Variable 0: char ch");
 		expectSymTab("Method: int len(1)");
 		expectSymTab("  Local Variable 0: void[] arr");
+		expectSymTab("Method: void arraycopy(5)");
+		expectSymTab("  Local Variable 0: void[] src");
+		expectSymTab("  Local Variable 1: int srcPos");
+		expectSymTab("  Local Variable 2: void[] dst");
+		expectSymTab("  Local Variable 3: int dstPos");
+		expectSymTab("  Local Variable 4: int n");
+		expectSymTab("Method: void fill(2)");
+		expectSymTab("  Local Variable 0: void[] arr");
+		expectSymTab("  Local Variable 1: int val");
+		expectSymTab("Method: int equals(2)");
+		expectSymTab("  Local Variable 0: void[] a");
+		expectSymTab("  Local Variable 1: void[] b");
 	}
 
 	private static String dump(Tab tab) {
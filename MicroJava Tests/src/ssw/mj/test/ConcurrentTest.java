@@ -1,14 +1,25 @@
 package ssw.mj.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import ssw.mj.impl.ParserImpl;
+import ssw.mj.impl.ScannerImpl;
+import ssw.mj.symtab.Obj;
+import ssw.mj.symtab.Tab;
+
 public class ConcurrentTest extends CompilerTestCaseSupport {
 	private static final int NUM_THREADS = 10;
 	private static final int NUM_REPEATS = 50;
@@ -56,4 +67,92 @@ public class ConcurrentTest extends CompilerTestCaseSupport {
 			assertEquals("exceptions occured", 0, errors.size());
 		}
 	}
+
+	@Test
+	public void sharedUniverse() {
+		ParserImpl p1 = new ParserImpl(new ScannerImpl(new char[0]));
+		ParserImpl p2 = new ParserImpl(new ScannerImpl(new char[0]));
+		assertSame(p1.tab.chrObj, p2.tab.chrObj);
+		assertSame(p1.tab.lenObj, p2.tab.lenObj);
+		assertSame(p1.tab.curScope.findLocal("int"), p2.tab.curScope.findLocal("int"));
+		assertSame(p1.tab.lenObj.locals.get(0).type, p2.tab.equalsObj.locals.get(0).type);
+		String universe = universe(p1);
+
+		// declarations of one compilation are not visible to others
+		p1.tab.insert(Obj.Kind.Prog, "P", Tab.noType);
+		assertNotNull(p1.tab.curScope.findLocal("P"));
+		assertNull(p2.tab.curScope.findLocal("P"));
+		assertEquals(9, p2.tab.curScope.locals().size());
+
+		try {
+			Tab.nullType.freezeFields();
+			fail("universe types must not be changed");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		try {
+			p1.tab.lenObj.locals.add(new Obj(Obj.Kind.Var, "x", Tab.intType));
+			fail("parameters of predefined methods must not be changed");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+
+		// compilations leave the universe as it was
+		compile("program P" + LF + //
+				"{" + LF + //
+				"  void main() int[] a, b; char c; {" + LF + //
+				"    a = new int[3]; b = new int[3]; fill(a, 2); arraycopy(a, 0, b, 1, 2);" + LF + //
+				"    c = chr(ord('a')); print(len(b) + equals(a, b)); print(c);" + LF + //
+				"  }" + LF + //
+				"}");
+		assertEquals(universe, universe(p2));
+	}
+
+	/**
+	 * The universe as seen by <code>p</code>, with the attributes of its
+	 * objects and the parameters of its methods.
+	 */
+	private static String universe(ParserImpl p) {
+		StringBuilder sb = new StringBuilder();
+		for (Obj o : p.tab.curScope.locals()) {
+			sb.append(o).append(' ').append(o.level).append(' ').append(o.val).append(o.locals).append(LF);
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void concurrentCompilationsAgree() throws InterruptedException {
+		String src = "program P" + LF + //
+				"  class C { int[] a; C next; }" + LF + //
+				"{" + LF + //
+				"  void main() C c; char[] s; int i; {" + LF + //
+				"    c = new C; c.a = new int[4]; s = new char[3];" + LF + //
+				"    fill(c.a, 7); s[0] = chr(ord('a') + 1);" + LF + //
+				"    i = equals(c.a, c.a) + len(s);" + LF + //
+				"    print(i); print(s[0]);" + LF + //
+				"  }" + LF + //
+				"}";
+		byte[] expected = compile(src);
+		// replace the threads of setUp
+		for (int i = 0; i < NUM_THREADS; i++) {
+			threads[i] = new Thread(() -> {
+				try {
+					for (int k = 0; k < NUM_REPEATS; k++) {
+						assertArrayEquals(expected, compile(src));
+					}
+				} catch (Throwable ex) {
+					errors.add(ex);
+				}
+			});
+		}
+		concurrentCompilation();
+	}
+
+	private static byte[] compile(String src) {
+		ScannerImpl scanner = new ScannerImpl(src.toCharArray());
+		ParserImpl parser = new ParserImpl(scanner);
+		parser.parse();
+		assertEquals("", scanner.errors.dump());
+		return Arrays.copyOf(parser.code.buf, parser.code.pc);
+	}
 }
@@ -1,10 +1,20 @@
 package ssw.mj.test;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static ssw.mj.Errors.Message.*;
 
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
 import org.junit.Test;
 
 import ssw.mj.Token;
+import ssw.mj.impl.IncrementalParser;
+import ssw.mj.impl.ParserImpl;
+import ssw.mj.impl.ScannerImpl;
+import ssw.mj.impl.TokenBuffer;
 
 public class ParserTest extends CompilerTestCaseSupport {
 
@@ -224,6 +234,30 @@ public class ParserTest extends CompilerTestCaseSupport {
 		parseAndVerify();
 	}
 
+	@Test
+	public void wrongNewType() {
+		init("program Test {" + LF + //
+				"  void main() int[] a; {" + LF + //
+				"    a = new 3;" + LF + //
+				"  }" + LF + //
+				"}");
+		expectError(3, 13, TOKEN_EXPECTED, Token.Kind.ident.label());
+		parseAndVerify();
+	}
+
+	@Test
+	public void wrongFieldName() {
+		init("program Test" + LF + //
+				"  class C { int f; }" + LF + //
+				"{" + LF + //
+				"  void main() C c; {" + LF + //
+				"    print(c.3);" + LF + //
+				"  }" + LF + //
+				"}");
+		expectError(5, 13, TOKEN_EXPECTED, Token.Kind.ident.label());
+		parseAndVerify();
+	}
+
 	@Test
 	public void wrongRelOp() {
 		init("program Test {" + LF + //
@@ -380,4 +414,134 @@ public class ParserTest extends CompilerTestCaseSupport {
 		);
 		parseAndVerify();
 	}
+
+	@Test
+	public void reparseTokenBuffer() {
+		String src = "program Test" + LF + // 1
+				"  int i;" + LF + // 2
+				"{" + LF + // 3
+				" void main() { i = 1 $ 2; print(i 3); }" + LF + // 4
+				"}";
+		ScannerImpl first = new ScannerImpl(src.toCharArray());
+		TokenBuffer tokens = new TokenBuffer(first);
+		ParserImpl p1 = new ParserImpl(first, tokens);
+		p1.parse();
+		ParserImpl p2 = new ParserImpl(new ScannerImpl(new char[0]), tokens);
+		p2.parse();
+		assertEquals(first.errors.dump(), p2.scanner.errors.dump());
+		assertEquals(3, p2.scanner.errors.numErrors());
+		assertArrayEquals(Arrays.copyOf(p1.code.buf, p1.code.pc), Arrays.copyOf(p2.code.buf, p2.code.pc));
+
+		TokenBuffer all = TokenBuffer.lex(new ScannerImpl(src.toCharArray()));
+		ScannerImpl scanner = new ScannerImpl(src.toCharArray());
+		for (int i = 0; i < all.size(); i++) {
+			assertEquals(scanner.next().toString(), all.token(i).toString());
+			assertEquals(tokens.token(i).toString(), all.token(i).toString());
+		}
+		assertEquals(Token.Kind.eof, all.kind(all.size() - 1));
+	}
+
+	@Test
+	public void parallelLexingForLargeSources() {
+		StringBuilder sb = new StringBuilder("program Test" + LF + "  int g;" + LF + "{" + LF);
+		for (int i = 0; sb.length() < ParserImpl.PARALLEL_LEX_SIZE; i++) {
+			sb.append("  void m").append(i).append("() int x; { x = ").append(i).append(" * g; g = x % 7; }").append(LF);
+			if (i % 5000 == 1000) {
+				// comments across line ends, lexical and syntax errors
+				sb.append("  /* void c").append(i).append("() {").append(LF).append("  } */").append(LF);
+				sb.append("  void e").append(i).append("() { g = g $ 1; g = 'ab'; }").append(LF);
+				sb.append("  void s").append(i).append("() { g = ; }").append(LF);
+			}
+		}
+		sb.append("  void main() { m1(); print(g); }" + LF + "}");
+		char[] src = sb.toString().toCharArray();
+
+		ParserImpl expected = new ParserImpl(new ScannerImpl(src));
+		expected.parse();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			ParserImpl actual = ParserImpl.forSource(new ScannerImpl(src), pool);
+			actual.parse();
+			assertEquals(expected.scanner.errors.dump(), actual.scanner.errors.dump());
+			assertEquals(expected.code.pc, actual.code.pc);
+			assertArrayEquals(Arrays.copyOf(expected.code.buf, expected.code.pc),
+					Arrays.copyOf(actual.code.buf, actual.code.pc));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void incrementalParsing() {
+		String src = "program Test" + LF + // 1
+				"  int g;" + LF + // 2
+				"{" + LF + // 3
+				"  int sq(int x) { return x * x; }" + LF + // 4
+				"  int fac(int n) { if (n <= 1) return 1; return n * fac(n - 1); }" + LF + // 5
+				"  void count(int n) { while (n > 0) { g += sq(n); n--; } }" + LF + // 6
+				"  void main() int i; { read(i); count(i); print(fac(i)); print(g); }" + LF + // 7
+				"}";
+		IncrementalParser inc = new IncrementalParser(src);
+		assertSameAsNewParse(inc);
+
+		// in the body of sq
+		edit(inc, "x * x", "x * x * x");
+		assertEquals(3, inc.reusedMethods());
+		// moves the following methods
+		edit(inc, "return 1;", "{ print('a'); return 1; }");
+		assertEquals(3, inc.reusedMethods());
+		edit(inc, "g += sq(n);", "g += sq(n) + fac(n);" + LF + "/* comment" + LF + "*/");
+		assertEquals(3, inc.reusedMethods());
+		// at the start of a body
+		edit(inc, "{ return x * x * x;", "{ g++; return x * x * x;");
+		assertEquals(3, inc.reusedMethods());
+		// methods declared later are not known yet
+		edit(inc, "g++;", "count(g);");
+		assertEquals(1, inc.parser().scanner.errors.numErrors());
+		edit(inc, "count(g);", "g++;");
+		// errors in a body
+		edit(inc, "n--;", "n-- $ 1;");
+		assertEquals(1, inc.parser().scanner.errors.numErrors() > 0 ? 1 : 0);
+		edit(inc, "n-- $ 1;", "n--;");
+		// declarations
+		edit(inc, "int g;", "int g, h;");
+		assertEquals(0, inc.reusedMethods());
+		edit(inc, "int fac(int n)", "int fac(int m)");
+		edit(inc, "int fac(int m)", "int fac(int n)");
+		// unbalanced braces
+		edit(inc, "{ print('a');", "} void x() { print('a');");
+		edit(inc, "} void x() { print('a');", "{ print('a');");
+		// unterminated comment
+		edit(inc, "read(i);", "read(i); /*");
+		edit(inc, "read(i); /*", "read(i);");
+
+		// pseudo random edits
+		String[] snippets = {"", " ", LF, "x", "n", "1", ";", "+", "(", ")", "{", "}", "/*", "*/", "'", "return 0;",
+				"print(n);", "fac(2)", "if (n < 2) "};
+		Random rand = new Random(42);
+		for (int k = 0; k < 300; k++) {
+			String cur = inc.source();
+			int offset = rand.nextInt(cur.length() + 1);
+			int removed = rand.nextInt(Math.min(4, cur.length() - offset) + 1);
+			inc.edit(offset, removed, snippets[rand.nextInt(snippets.length)]);
+			assertSameAsNewParse(inc);
+		}
+	}
+
+	private static void edit(IncrementalParser inc, String old, String replacement) {
+		int offset = inc.source().indexOf(old);
+		inc.edit(offset, old.length(), replacement);
+		assertSameAsNewParse(inc);
+	}
+
+	private static void assertSameAsNewParse(IncrementalParser inc) {
+		ScannerImpl scanner = new ScannerImpl(inc.source().toCharArray());
+		ParserImpl p = new ParserImpl(scanner);
+		p.parse();
+		ParserImpl q = inc.parser();
+		assertEquals(inc.source(), scanner.errors.dump(), q.scanner.errors.dump());
+		assertEquals(inc.source(), p.code.mainpc, q.code.mainpc);
+		assertEquals(inc.source(), p.code.dataSize, q.code.dataSize);
+		assertArrayEquals(inc.source(), Arrays.copyOf(p.code.buf, p.code.pc), Arrays.copyOf(q.code.buf, q.code.pc));
+	}
 }
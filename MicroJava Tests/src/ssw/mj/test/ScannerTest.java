@@ -3,8 +3,18 @@ package ssw.mj.test;
 import static ssw.mj.Errors.Message.*;
 import static ssw.mj.Token.Kind.*;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringReader;
+import java.util.concurrent.ForkJoinPool;
+
 import org.junit.Test;
 
+import ssw.mj.Token;
+import ssw.mj.impl.ScannerImpl;
+import ssw.mj.impl.TokenBuffer;
+
 /**
  * Test cases for the <code>Scanner</code> class.
  */
@@ -833,4 +843,79 @@ public class ScannerTest extends CompilerTestCaseSupport {
 
 		scanAndVerify();
 	}
+
+	@Test
+	public void bufferAndReaderInput() {
+		String src = "program P\r\n  /* a /* nested */ comment */ int x12_y;" + LF + //
+				"{ 2147483647 2147483648 \u0661\u0662 'a' '\\n' x..y ! \t" + invalidChar + "}";
+		ScannerImpl reader = new ScannerImpl(new StringReader(src));
+		ScannerImpl buffer = new ScannerImpl(src.toCharArray());
+		Token t;
+		do {
+			t = reader.next();
+			assertEquals(t.toString(), buffer.next().toString());
+		} while (t.kind != eof);
+		assertEquals(reader.errors.dump(), buffer.errors.dump());
+	}
+
+	@Test
+	public void namesAreShared() {
+		ScannerImpl scanner = new ScannerImpl("abc x abc int Print prints pr ifs".toCharArray());
+		Token abc = scanner.next();
+		scanner.next();
+		assertSame(abc.str, scanner.next().str);
+		assertSame("int", scanner.next().str);
+		for (String name : new String[] { "Print", "prints", "pr", "ifs" }) {
+			Token t = scanner.next();
+			assertEquals(ident, t.kind);
+			assertEquals(name, t.str);
+		}
+	}
+
+	@Test
+	public void whiteSpaceAndCommentRuns() {
+		initScanner("a \t\u000b\u2028b /* x" + LF + "  /* y */ **/ c" + CR + LF + "\t\t/**/d");
+
+		expectToken(ident, 1, 1, "a");
+		expectToken(ident, 1, 6, "b");
+		expectToken(ident, 2, 15, "c");
+		expectToken(ident, 3, 7, "d");
+		expectToken(eof, 3, 8);
+
+		scanAndVerify();
+	}
+
+	@Test
+	public void parallelLexing() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			sb.append("x").append(i).append(" = 'a' + ").append(i * 7).append(";").append(LF);
+			if (i % 17 == 0) {
+				sb.append("/* comment over" + LF + "two /* nested" + LF + " */ lines */ !").append(LF);
+			}
+			if (i % 29 == 0) {
+				sb.append("'").append(LF).append("99999999999 $").append(CR).append(LF);
+			}
+		}
+		sb.append("/* open comment").append(LF).append("x y z");
+		char[] src = sb.toString().toCharArray();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (int chunkSize : new int[] { 1, 7, 50, 1000, 100000 }) {
+				ScannerImpl sequential = new ScannerImpl(src);
+				TokenBuffer expected = TokenBuffer.lex(sequential);
+				ScannerImpl parallel = new ScannerImpl(src);
+				TokenBuffer actual = TokenBuffer.lexParallel(parallel, pool, chunkSize);
+				assertEquals(expected.size(), actual.size());
+				for (int i = 0; i < expected.size(); i++) {
+					assertEquals(expected.token(i).toString(), actual.token(i).toString());
+					assertEquals(expected.start(i), actual.start(i));
+				}
+				assertEquals(sequential.errors.dump(), parallel.errors.dump());
+				assertEquals(eof, parallel.next().kind);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
 }
@@ -861,6 +861,7 @@ public class SimpleCodeGenerationTest extends CompilerTestCaseSupport {
                 "  }" + LF + // 11
                 "}");
         addExpectedRun("2");
+        parser.optimize = false;
         parseAndVerify();
         Assert.assertTrue(
                 "In this example mainpc must be > 0, most likely it should be 7, but it is: " + parser.code.mainpc,
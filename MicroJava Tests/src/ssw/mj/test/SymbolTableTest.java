@@ -1,10 +1,23 @@
 package ssw.mj.test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static ssw.mj.Errors.Message.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 
 import ssw.mj.Errors.Message;
+import ssw.mj.impl.StructImpl;
+import ssw.mj.symtab.Obj;
+import ssw.mj.symtab.Scope;
+import ssw.mj.symtab.Struct;
+import ssw.mj.symtab.Tab;
 
 /**
  * Test cases for the <code>Parser</code> class.
@@ -854,7 +867,7 @@ public class SymbolTableTest extends CompilerTestCaseSupport {
 	@Test
 	public void tooManyLocals() {
 		StringBuilder sb = new StringBuilder();
-		for (int i = 0; i < 127; i++) {
+		for (int i = 0; i < 32767; i++) {
 			if (i > 0) {
 				sb.append(",");
 			}
@@ -877,7 +890,7 @@ public class SymbolTableTest extends CompilerTestCaseSupport {
 	@Test
 	public void tooManyLocals2() {
 		StringBuilder sb = new StringBuilder();
-		for (int i = 0; i < 126; i++) {
+		for (int i = 0; i < 32766; i++) {
 			if (i > 0) {
 				sb.append(",");
 			}
@@ -902,7 +915,7 @@ public class SymbolTableTest extends CompilerTestCaseSupport {
 	@Test
 	public void tooManyGlobals() {
 		StringBuilder sb = new StringBuilder();
-		for (int i = 0; i < 32767; i++) {
+		for (int i = 0; i < 65535; i++) {
 			if (i > 0) {
 				sb.append(",");
 			}
@@ -925,7 +938,7 @@ public class SymbolTableTest extends CompilerTestCaseSupport {
 	@Test
 	public void tooManyFields() {
 		StringBuilder sb = new StringBuilder();
-		for (int i = 0; i < 32767; i++) {
+		for (int i = 0; i < 65535; i++) {
 			if (i > 0) {
 				sb.append(",");
 			}
@@ -1255,4 +1268,82 @@ public class SymbolTableTest extends CompilerTestCaseSupport {
 		expectSymTab("    Local Variable 1: char[] c");
 		parseAndVerify();
 	}
+
+	@Test
+	public void scopeLookup() {
+		Scope outer = new Scope(null);
+		Scope inner = new Scope(outer);
+		for (int i = 0; i < 1000; i++) {
+			outer.insert(new Obj(Obj.Kind.Var, "v" + i, Tab.intType));
+		}
+		Obj shadow = new Obj(Obj.Kind.Var, "v7", Tab.charType);
+		inner.insert(shadow);
+		for (int i = 0; i < 1000; i++) {
+			// names that are equal but not identical
+			assertEquals("v" + i, outer.findLocal(new String("v" + i)).name);
+		}
+		assertSame(shadow, inner.findGlobal("v7"));
+		assertSame(Tab.intType, inner.findGlobal("v8").type);
+		assertNull(inner.findLocal("v8"));
+		assertNull(inner.findGlobal("w"));
+		int i = 0;
+		for (Obj o : outer.locals()) {
+			assertEquals("v" + i++, o.name);
+		}
+		assertEquals(1000, outer.nVars());
+	}
+
+	@Test
+	public void frozenClassLayout() {
+		StructImpl clazz = new StructImpl(Struct.Kind.Class);
+		StructImpl arr = Tab.intType.arrayType();
+		List<Obj> fields = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			Obj f = new Obj(Obj.Kind.Var, "f" + i, i % 3 == 0 ? arr : i % 3 == 1 ? clazz : Tab.intType);
+			f.adr = i;
+			fields.add(f);
+		}
+		clazz.fields = fields;
+		clazz.freezeFields();
+		assertEquals(200, clazz.nrFields());
+		for (int i = 0; i < 200; i++) {
+			assertSame(fields.get(i), clazz.findField(new String("f" + i)));
+			assertEquals(i % 3 != 2, clazz.isRefField(i));
+		}
+		assertNull(clazz.findField("g"));
+		assertFalse(clazz.isRefField(200));
+
+		StructImpl empty = new StructImpl(Struct.Kind.Class);
+		empty.freezeFields();
+		assertEquals(0, empty.nrFields());
+		assertNull(empty.findField("f0"));
+	}
+
+	@Test
+	public void arrayTypesAreUnique() throws InterruptedException {
+		StructImpl ints = Tab.intType.arrayType();
+		assertSame(ints, Tab.intType.arrayType());
+		assertSame(Tab.intType, ints.elemType);
+		assertSame(ints.arrayType(), Tab.intType.arrayType().arrayType());
+		assertTrue(ints.assignableTo(ints));
+		assertTrue(ints.assignableTo(Tab.noType.arrayType()));
+		assertFalse(ints.assignableTo(Tab.charType.arrayType()));
+		assertTrue(Tab.nullType.compatibleWith(ints));
+
+		// concurrent first use
+		StructImpl clazz = new StructImpl(Struct.Kind.Class);
+		StructImpl[] res = new StructImpl[8];
+		Thread[] threads = new Thread[res.length];
+		for (int i = 0; i < threads.length; i++) {
+			int k = i;
+			threads[i] = new Thread(() -> res[k] = clazz.arrayType());
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		for (StructImpl r : res) {
+			assertSame(res[0], r);
+		}
+	}
 }